@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.benchmarks;
+
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.parsing.XNode;
+import com.github.sqlbatis.parsing.XPathParser;
+import com.github.sqlbatis.scripting.xmltags.XMLScriptBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编译模板：解析 XML 和构建 SqlNode 树
+ *
+ * @author Laba Zhang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param({"simple", "where", "if50"})
+    public String template;
+
+    private String xml;
+    private XNode xNode;
+
+    @Setup
+    public void setup() {
+        switch (template) {
+            case "simple":
+                xml = Templates.SIMPLE;
+                break;
+            case "where":
+                xml = Templates.WHERE;
+                break;
+            default:
+                xml = Templates.ifTemplate(50);
+        }
+        xNode = new XPathParser(xml).evalNode("select");
+    }
+
+    @Benchmark
+    public XPathParser xpathParser() {
+        return new XPathParser(xml);
+    }
+
+    @Benchmark
+    public SqlSource parseScriptNode() {
+        return new XMLScriptBuilder(xNode).parseScriptNode();
+    }
+
+    @Benchmark
+    public SqlSource compile() {
+        return new XMLScriptBuilder(new XPathParser(xml).evalNode("select")).parseScriptNode();
+    }
+}
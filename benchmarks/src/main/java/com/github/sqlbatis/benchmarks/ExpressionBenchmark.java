@@ -0,0 +1,85 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.benchmarks;
+
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
+import com.github.sqlbatis.scripting.xmltags.DynamicContext;
+import com.github.sqlbatis.scripting.xmltags.OgnlCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 表达式求值：OgnlCache#getValue 与内置表达式引擎对比
+ *
+ * @author Laba Zhang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpressionBenchmark {
+
+    @Param({"name", "name != null and name != ''", "age > 10 and age < 60"})
+    public String expression;
+
+    private Map<String, Object> bindings;
+    private Map<String, Object> plainMap;
+    private Expression compiled;
+
+    @Setup
+    public void setup() {
+        bindings = new DynamicContext(Templates.userParams()).getBindings();
+        plainMap = new HashMap<>(Templates.userParams());
+        compiled = ExpressionParser.parse(expression);
+    }
+
+    /**
+     * root 为 DynamicContext 的 bindings ，复用它的 OGNL Context
+     */
+    @Benchmark
+    public Object ognlCache() {
+        return OgnlCache.getValue(expression, bindings);
+    }
+
+    /**
+     * root 为普通的 Map ，每次求值创建 OGNL Context
+     */
+    @Benchmark
+    public Object ognlCacheNewContext() {
+        return OgnlCache.getValue(expression, plainMap);
+    }
+
+    @Benchmark
+    public Object compiled() {
+        return compiled.getValue(bindings);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.benchmarks;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.SqlSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ForEachSqlNode ，IN 列表的元素个数不同
+ *
+ * @author Laba Zhang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForEachBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private SqlSource sqlSource;
+    private Map<String, Object> params;
+
+    @Setup
+    public void setup() {
+        sqlSource = SqlBatis.compile(Templates.FOREACH).getSqlSource();
+        params = Templates.forEachParams(size);
+    }
+
+    @Benchmark
+    public BoundSql getBoundSql() {
+        return sqlSource.getBoundSql(params);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.benchmarks;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlResult;
+import com.github.sqlbatis.SqlTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整流程：渲染已编译的模板，并把参数绑定到 PreparedStatement
+ *
+ * @author Laba Zhang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    private SqlTemplate template;
+    private Map<String, Object> params;
+    private SqlResult sqlResult;
+    private PreparedStatement ps;
+
+    @Setup
+    public void setup() {
+        template = SqlBatis.compile(Templates.WHERE);
+        params = Templates.userParams();
+        sqlResult = template.render(params);
+        ps = Templates.noopPreparedStatement();
+    }
+
+    @Benchmark
+    public SqlResult render() {
+        return template.render(params);
+    }
+
+    @Benchmark
+    public SqlResult parseForSql() {
+        return SqlBatis.parseForSql(Templates.WHERE, params);
+    }
+
+    @Benchmark
+    public PreparedStatement bind() throws SQLException {
+        sqlResult.bind(ps);
+        return ps;
+    }
+
+    @Benchmark
+    public PreparedStatement setObject() throws SQLException {
+        for (Map.Entry<Integer, Object> entry : sqlResult.getParams().entrySet()) {
+            ps.setObject(entry.getKey(), entry.getValue());
+        }
+        return ps;
+    }
+}
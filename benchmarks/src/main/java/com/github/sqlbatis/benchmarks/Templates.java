@@ -0,0 +1,115 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试使用的模板和参数
+ *
+ * @author Laba Zhang
+ */
+final class Templates {
+
+    static final String SIMPLE = "<select>select * from user where id = #{id} and name = #{name}</select>";
+
+    static final String WHERE = "<select>select * from user"
+            + " <where>"
+            + " <if test=\"id != null\"> and id = #{id} </if>"
+            + " <if test=\"name != null\"> and name like #{name} </if>"
+            + " <if test=\"age != null\"> and age &gt; #{age} </if>"
+            + " </where>"
+            + "</select>";
+
+    static final String SET = "<update>update user"
+            + " <set>"
+            + " <if test=\"name != null\"> name = #{name}, </if>"
+            + " <if test=\"age != null\"> age = #{age}, </if>"
+            + " </set>"
+            + " where id = #{id}"
+            + "</update>";
+
+    static final String TRIM = "<insert>insert into user"
+            + " <trim prefix=\"(\" suffix=\")\" suffixOverrides=\",\">"
+            + " <if test=\"id != null\"> id, </if>"
+            + " <if test=\"name != null\"> name, </if>"
+            + " <if test=\"age != null\"> age, </if>"
+            + " </trim>"
+            + " values"
+            + " <trim prefix=\"(\" suffix=\")\" suffixOverrides=\",\">"
+            + " <if test=\"id != null\"> #{id}, </if>"
+            + " <if test=\"name != null\"> #{name}, </if>"
+            + " <if test=\"age != null\"> #{age}, </if>"
+            + " </trim>"
+            + "</insert>";
+
+    static final String FOREACH = "<select>select * from user where id in"
+            + " <foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>"
+            + "</select>";
+
+    private Templates() {
+    }
+
+    /**
+     * 含 count 个 if 的模板，偶数下标的条件成立
+     */
+    static String ifTemplate(int count) {
+        StringBuilder builder = new StringBuilder("<select>select * from user where 1 = 1");
+        for (int i = 0; i < count; i++) {
+            builder.append(" <if test=\"p").append(i).append(" != null\"> and c").append(i).append(" = #{p").append(i).append("} </if>");
+        }
+        return builder.append("</select>").toString();
+    }
+
+    static Map<String, Object> ifParams(int count) {
+        Map<String, Object> params = new HashMap<>();
+        for (int i = 0; i < count; i += 2) {
+            params.put("p" + i, i);
+        }
+        return params;
+    }
+
+    static Map<String, Object> userParams() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", 1);
+        params.put("name", "zhang");
+        params.put("age", 18);
+        return params;
+    }
+
+    static Map<String, Object> forEachParams(int count) {
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(i);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", ids);
+        return params;
+    }
+
+    /**
+     * 不做任何事的 PreparedStatement ，只用于衡量绑定参数本身的开销
+     */
+    static PreparedStatement noopPreparedStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(Templates.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> null);
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.builder.XMLStreamMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * compile many mapper files in parallel into one {@link MapperRegistry}, e.g. at startup.
+ * <p>
+ * every file is parsed by its own {@link XMLStreamMapperBuilder} on the executor, the statements are added to the
+ * registry in the order of the files once all of them are compiled, so the result does not depend on the scheduling.
+ * <p>
+ * with a snapshot file, files whose content is unchanged since the snapshot was written are loaded from it without
+ * parsing xml, see {@link #load(Collection, Path)}.
+ *
+ * @author Laba Zhang
+ */
+public class MapperLoader {
+    /**
+     * suffix of the mapper files found in a directory
+     */
+    public static final String MAPPER_SUFFIX = ".xml";
+
+    private final Executor executor;
+
+    /**
+     * compile on {@link ForkJoinPool#commonPool()}
+     */
+    public MapperLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public MapperLoader(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor must not null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * compile every *.xml file under the directory, sub directories included
+     */
+    public Result load(Path directory) {
+        return load(directory, null);
+    }
+
+    /**
+     * compile every *.xml file under the directory, sub directories included, with a snapshot file,
+     * see {@link #load(Collection, Path)}
+     */
+    public Result load(Path directory, Path snapshot) {
+        if (directory == null) {
+            throw new NullPointerException("directory must not null");
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return load(files.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(MAPPER_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList()), snapshot);
+        } catch (IOException e) {
+            throw new BuilderException("Error listing mapper files in '" + directory + "'.  Cause: " + e, e);
+        }
+    }
+
+    /**
+     * compile the mapper files, the whole load fails if any file is invalid or any statement id is duplicated
+     *
+     * @param paths mapper files
+     * @return unmodifiable registry and compile time of each file
+     */
+    public Result load(Collection<Path> paths) {
+        return load(paths, null);
+    }
+
+    /**
+     * compile the mapper files with a snapshot file for faster restarts.
+     * <p>
+     * a file whose SHA-256 matches an entry of the snapshot is decoded from it instead of parsing xml,
+     * the snapshot is rewritten if any file was compiled or removed. It is only a cache: an unreadable snapshot is
+     * ignored and a failure to write it is logged, neither fails the load. The snapshot does not depend on the location
+     * of the files, so it can be written at build time and shipped with them.
+     *
+     * @param paths    mapper files
+     * @param snapshot snapshot file, created if missing, null to always compile
+     * @return unmodifiable registry and compile time of each file
+     */
+    public Result load(Collection<Path> paths, Path snapshot) {
+        if (paths == null) {
+            throw new NullPointerException("paths must not null");
+        }
+        long start = System.nanoTime();
+        MapperSnapshot previous = snapshot == null ? null : MapperSnapshot.read(snapshot);
+        List<CompletableFuture<CompiledFile>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            futures.add(CompletableFuture.supplyAsync(() -> compile(path, previous), executor));
+        }
+        MapperRegistry registry = new MapperRegistry();
+        Map<Path, Long> compileNanos = new LinkedHashMap<>();
+        Set<Path> snapshotHits = new LinkedHashSet<>();
+        Map<String, Map.Entry<Path, ByteBuffer>> payloads = new LinkedHashMap<>();
+        for (CompletableFuture<CompiledFile> future : futures) {
+            CompiledFile file = join(future);
+            try {
+                registry.addTemplates(file.templates);
+            } catch (BuilderException e) {
+                throw new BuilderException("Error loading mapper '" + file.path + "'.  Cause: " + e.getMessage(), e);
+            }
+            compileNanos.put(file.path, file.nanos);
+            if (file.fromSnapshot) {
+                snapshotHits.add(file.path);
+            }
+            if (file.payload != null) {
+                payloads.putIfAbsent(file.hash, new AbstractMap.SimpleImmutableEntry<>(file.path, file.payload));
+            }
+        }
+        if (previous != null && (snapshotHits.size() < compileNanos.size() || payloads.size() != previous.size())) {
+            MapperSnapshot.write(snapshot, payloads);
+        }
+        return new Result(registry.toUnmodifiable(), compileNanos, snapshotHits, System.nanoTime() - start);
+    }
+
+    private static CompiledFile compile(Path path, MapperSnapshot snapshot) {
+        long start = System.nanoTime();
+        try {
+            byte[] content = Files.readAllBytes(path);
+            if (snapshot == null) {
+                List<SqlTemplate> templates = new XMLStreamMapperBuilder(new ByteArrayInputStream(content)).parse();
+                return new CompiledFile(path, templates, System.nanoTime() - start, null, null, false);
+            }
+            String hash = MapperSnapshot.hash(content);
+            if (snapshot.contains(hash)) {
+                try {
+                    List<SqlTemplate> templates = snapshot.templates(hash);
+                    return new CompiledFile(path, templates, System.nanoTime() - start, hash, snapshot.payload(hash), true);
+                } catch (IOException | RuntimeException e) {
+                    // corrupted entry, compile the file again
+                }
+            }
+            List<SqlTemplate> templates = new XMLStreamMapperBuilder(new ByteArrayInputStream(content)).parse();
+            ByteBuffer payload = MapperSnapshot.encode(templates);
+            return new CompiledFile(path, templates, System.nanoTime() - start, hash, payload, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw new BuilderException("Error compiling mapper '" + path + "'.  Cause: " + e.getMessage(), e);
+        }
+    }
+
+    private static CompiledFile join(CompletableFuture<CompiledFile> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BuilderException) {
+                throw (BuilderException) cause;
+            }
+            throw new BuilderException("Error loading mappers.  Cause: " + cause, cause);
+        }
+    }
+
+    private static final class CompiledFile {
+        private final Path path;
+        private final List<SqlTemplate> templates;
+        private final long nanos;
+        /**
+         * SHA-256 of the content and encoded templates, null without a snapshot
+         */
+        private final String hash;
+        private final ByteBuffer payload;
+        private final boolean fromSnapshot;
+
+        private CompiledFile(Path path, List<SqlTemplate> templates, long nanos,
+                             String hash, ByteBuffer payload, boolean fromSnapshot) {
+            this.path = path;
+            this.templates = templates;
+            this.nanos = nanos;
+            this.hash = hash;
+            this.payload = payload;
+            this.fromSnapshot = fromSnapshot;
+        }
+    }
+
+    /**
+     * result of {@link #load(Collection)}
+     */
+    public static final class Result {
+        private final MapperRegistry registry;
+        private final Map<Path, Long> compileNanos;
+        private final Set<Path> snapshotHits;
+        private final long totalNanos;
+
+        private Result(MapperRegistry registry, Map<Path, Long> compileNanos, Set<Path> snapshotHits, long totalNanos) {
+            this.registry = registry;
+            this.compileNanos = Collections.unmodifiableMap(compileNanos);
+            this.snapshotHits = Collections.unmodifiableSet(snapshotHits);
+            this.totalNanos = totalNanos;
+        }
+
+        /**
+         * @return unmodifiable registry of all statements
+         */
+        public MapperRegistry getRegistry() {
+            return registry;
+        }
+
+        /**
+         * @return time spent reading and compiling each file in nanoseconds, in the order of the files
+         */
+        public Map<Path, Long> getCompileNanos() {
+            return compileNanos;
+        }
+
+        /**
+         * @return files loaded from the snapshot without parsing xml, in the order of the files
+         */
+        public Set<Path> getSnapshotHits() {
+            return snapshotHits;
+        }
+
+        /**
+         * @return wall clock time of the whole load in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "files=" + compileNanos.size() +
+                    ", statements=" + registry.size() +
+                    ", snapshotHits=" + snapshotHits.size() +
+                    ", totalNanos=" + totalNanos +
+                    '}';
+        }
+    }
+}
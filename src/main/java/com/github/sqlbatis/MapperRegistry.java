@@ -0,0 +1,151 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.builder.XMLMapperBuilder;
+import com.github.sqlbatis.parsing.XPathParser;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * registry of compiled statements loaded from mapper files.
+ * <p>
+ * every mapper file is parsed once, each select | insert | update | delete is compiled to a {@link SqlTemplate}
+ * and indexed by {@code namespace.id}, rendering a statement is a map lookup plus {@link SqlTemplate#render(Map)}.
+ * <p>
+ * large mapper directories can be compiled in parallel with {@link MapperLoader}.
+ *
+ * @author Laba Zhang
+ */
+public class MapperRegistry {
+
+    private final Map<String, SqlTemplate> templates;
+    /**
+     * whether templates can no longer be added, see {@link #toUnmodifiable()}
+     */
+    private final boolean unmodifiable;
+
+    public MapperRegistry() {
+        this(new ConcurrentHashMap<>(), false);
+    }
+
+    private MapperRegistry(Map<String, SqlTemplate> templates, boolean unmodifiable) {
+        this.templates = templates;
+        this.unmodifiable = unmodifiable;
+    }
+
+    /**
+     * @return a read-only snapshot of the registry, adding templates to it throws {@link UnsupportedOperationException}
+     */
+    public MapperRegistry toUnmodifiable() {
+        return new MapperRegistry(Collections.unmodifiableMap(new HashMap<>(templates)), true);
+    }
+
+    public boolean isUnmodifiable() {
+        return unmodifiable;
+    }
+
+    public MapperRegistry addMapper(String xml) {
+        if (StringUtils.isBlank(xml)) {
+            throw new NullPointerException("xml must not null");
+        }
+        return addMapper(new XPathParser(xml));
+    }
+
+    public MapperRegistry addMapper(Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader must not null");
+        }
+        return addMapper(new XPathParser(reader));
+    }
+
+    public MapperRegistry addMapper(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new NullPointerException("inputStream must not null");
+        }
+        return addMapper(new XPathParser(inputStream));
+    }
+
+    public MapperRegistry addMapper(XPathParser pathParser) {
+        return addTemplates(new XMLMapperBuilder(pathParser).parse());
+    }
+
+    /**
+     * add compiled templates, the whole batch is rejected if any statement id is duplicated
+     */
+    public synchronized MapperRegistry addTemplates(Collection<SqlTemplate> sqlTemplates) {
+        if (unmodifiable) {
+            throw new UnsupportedOperationException("The mapper registry is unmodifiable.");
+        }
+        Map<String, SqlTemplate> batch = new HashMap<>();
+        for (SqlTemplate template : sqlTemplates) {
+            String id = template.getId();
+            if (id == null) {
+                throw new BuilderException("Statement id must not null.");
+            }
+            if (templates.containsKey(id) || batch.put(id, template) != null) {
+                throw new BuilderException("Statement '" + id + "' already exists in the mapper registry.");
+            }
+        }
+        templates.putAll(batch);
+        return this;
+    }
+
+    /**
+     * @param statementId namespace.id
+     * @return compiled template
+     * @throws BuilderException if the statement not exists
+     */
+    public SqlTemplate getTemplate(String statementId) {
+        SqlTemplate template = templates.get(statementId);
+        if (template == null) {
+            throw new BuilderException("Statement '" + statementId + "' not found in the mapper registry.");
+        }
+        return template;
+    }
+
+    public boolean hasStatement(String statementId) {
+        return templates.containsKey(statementId);
+    }
+
+    public Set<String> getStatementIds() {
+        return Collections.unmodifiableSet(templates.keySet());
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * render the statement with params
+     *
+     * @param statementId namespace.id
+     * @param sqlParams   params used by the statement
+     * @return processed sql and ordered params
+     */
+    public SqlResult parseForSql(String statementId, Map<String, Object> sqlParams) {
+        return getTemplate(statementId).render(sqlParams);
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.mapping.SqlCommandType;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.scripting.xmltags.SqlSourceCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * binary snapshot of compiled mapper files, see {@link MapperLoader#load(java.util.Collection, Path)}.
+ * <p>
+ * the compiled templates of every file are stored under the SHA-256 of the file content, a file whose content
+ * is unchanged is loaded from the snapshot without parsing xml, any other file is compiled as usual.
+ * The snapshot file is memory mapped and only the entries of unchanged files are decoded.
+ * <pre>
+ * magic, version, settings, entry count
+ * entry: content hash, path, payload length, payload (template count, then id, command type, compact, sql source)
+ * </pre>
+ *
+ * @author Laba Zhang
+ */
+final class MapperSnapshot {
+
+    private static final int MAGIC = 0x53514C42;
+    /**
+     * bumped whenever the encoding changes, a snapshot of another version is ignored
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * min size of an entry: lengths of the hash, the path and the payload
+     */
+    private static final int ENTRY_HEADER_SIZE = 12;
+
+    private static final Logger LOG = Logger.getLogger(MapperSnapshot.class.getName());
+
+    private static final MapperSnapshot EMPTY = new MapperSnapshot(null, Collections.emptyMap());
+
+    private final ByteBuffer buffer;
+    /**
+     * KEY: content hash, VALUE: payload of the file
+     */
+    private final Map<String, Entry> entries;
+
+    private MapperSnapshot(ByteBuffer buffer, Map<String, Entry> entries) {
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    /**
+     * map the snapshot file and read its index
+     *
+     * @return empty snapshot if the file is missing, corrupted or written by another version or with other settings
+     */
+    static MapperSnapshot read(Path file) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() == 0 || channel.size() > Integer.MAX_VALUE) {
+                return EMPTY;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return EMPTY;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error reading mapper snapshot '" + file + "', all mapper files are compiled", e);
+            return EMPTY;
+        }
+        try {
+            ByteBuffer index = buffer.duplicate();
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(index));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !settings().equals(SqlSourceCodec.readString(in))) {
+                return EMPTY;
+            }
+            int count = in.readInt();
+            // the count is not trusted before it is checked against the size of the file
+            if (count < 0 || count > index.remaining() / ENTRY_HEADER_SIZE) {
+                return EMPTY;
+            }
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String hash = SqlSourceCodec.readString(in);
+                String path = SqlSourceCodec.readString(in);
+                int length = in.readInt();
+                if (length < 0 || length > index.remaining()) {
+                    return EMPTY;
+                }
+                entries.put(hash, new Entry(path, index.position(), length));
+                index.position(index.position() + length);
+            }
+            return new MapperSnapshot(buffer, entries);
+        } catch (IOException | RuntimeException e) {
+            return EMPTY;
+        }
+    }
+
+    /**
+     * settings applied while compiling which change the compiled templates
+     */
+    private static String settings() {
+        return String.valueOf(SqlBatis.getListPadding());
+    }
+
+    /**
+     * @return hex SHA-256 of the file content
+     */
+    static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean contains(String hash) {
+        return entries.containsKey(hash);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return payload of the file, shared with the mapped file
+     */
+    ByteBuffer payload(String hash) {
+        Entry entry = entries.get(hash);
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(entry.offset);
+        payload.limit(entry.offset + entry.length);
+        return payload.slice();
+    }
+
+    /**
+     * decode the templates of a file, the sql sources are precomputed with the current settings
+     */
+    List<SqlTemplate> templates(String hash) throws IOException {
+        return decode(payload(hash));
+    }
+
+    private static List<SqlTemplate> decode(ByteBuffer payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(payload));
+        int count = in.readInt();
+        List<SqlTemplate> templates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            String id = SqlSourceCodec.readString(in);
+            SqlCommandType sqlCommandType = SqlCommandType.valueOf(SqlSourceCodec.readString(in));
+            boolean compact = in.readBoolean();
+            SqlSource sqlSource = SqlBatis.compiled(id, SqlSourceCodec.read(in), start);
+            templates.add(new SqlTemplate(id, sqlCommandType, sqlSource, compact));
+        }
+        return templates;
+    }
+
+    static ByteBuffer encode(List<SqlTemplate> templates) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(templates.size());
+            for (SqlTemplate template : templates) {
+                SqlSourceCodec.writeString(out, template.getId());
+                SqlSourceCodec.writeString(out, template.getSqlCommandType().name());
+                out.writeBoolean(template.isCompact());
+                SqlSourceCodec.write(template.getSqlSource(), out);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * replace the snapshot file, a temp file is written first so readers never see a partial snapshot.
+     * <p>
+     * the snapshot is only a cache, a failure is logged instead of failing the load, e.g. on platforms which refuse
+     * to replace the file while the previous snapshot is still mapped; the files are compiled again next time.
+     *
+     * @param payloads KEY: content hash, VALUE: path and payload of the file
+     * @return whether the snapshot is replaced
+     */
+    static boolean write(Path file, Map<String, Map.Entry<Path, ByteBuffer>> payloads) {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                SqlSourceCodec.writeString(out, settings());
+                out.writeInt(payloads.size());
+                for (Map.Entry<String, Map.Entry<Path, ByteBuffer>> entry : payloads.entrySet()) {
+                    ByteBuffer payload = entry.getValue().getValue().duplicate();
+                    byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    SqlSourceCodec.writeString(out, entry.getKey());
+                    SqlSourceCodec.writeString(out, entry.getValue().getKey().toString());
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Error writing mapper snapshot '" + file + "'", e);
+            return false;
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final int offset;
+        private final int length;
+
+        private Entry(String path, int offset, int length) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    /**
+     * reads the mapped buffer directly, without copying it into a byte array first
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.mapping.ParameterList;
+import com.github.sqlbatis.type.TypeHandlerRegistry;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of rendered rows sharing the same sql, created by {@link SqlTemplate#batch(Iterable, int)}.
+ * <p>
+ * Prepare the statement with {@link #getSql()} once, then {@link #addBatch(PreparedStatement)} adds every row.
+ *
+ * @author Laba Zhang
+ */
+public final class SqlBatch {
+    /**
+     * processed sql (may be with ?), shared by all rows
+     */
+    private final String sql;
+    /**
+     * ordered param values of each row, in the order of the input
+     */
+    private final List<ParameterList> parameters;
+
+    public SqlBatch(String sql, List<ParameterList> parameters) {
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<ParameterList> getParameters() {
+        return parameters;
+    }
+
+    public int size() {
+        return parameters.size();
+    }
+
+    /**
+     * bind every row to the PreparedStatement prepared from {@link #getSql()} and call {@link PreparedStatement#addBatch()},
+     * see {@link SqlBatis#getTypeHandlerRegistry()}
+     */
+    public void addBatch(PreparedStatement ps) throws SQLException {
+        addBatch(ps, SqlBatis.getTypeHandlerRegistry());
+    }
+
+    public void addBatch(PreparedStatement ps, TypeHandlerRegistry typeHandlerRegistry) throws SQLException {
+        for (ParameterList row : parameters) {
+            typeHandlerRegistry.setParameters(ps, row);
+            ps.addBatch();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SqlBatch{" +
+                "sql='" + sql + '\'' +
+                ", size=" + parameters.size() +
+                '}';
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.ParameterList;
+import com.github.sqlbatis.mapping.SqlSource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 逐行渲染参数，按渲染后的 SQL 分组，分组满 maxBatchSize 行时输出。
+ * <p>
+ * 只缓存未满的分组，最多 maxOpenBatches 个；出现新的 SQL 且分组数已满时，先输出最早的分组。
+ * 所以缓存的行数不超过 maxBatchSize * maxOpenBatches ，与输入的总行数无关。
+ * 输入读完后，按首次出现的顺序输出剩余的分组。
+ *
+ * @author Laba Zhang
+ */
+class SqlBatchIterator implements Iterator<SqlBatch> {
+
+    /**
+     * 语句 id ，用于报告渲染的指标，可能为 null
+     */
+    private final String id;
+    private final SqlSource sqlSource;
+    private final Iterator<? extends Map<String, Object>> source;
+    private final int maxBatchSize;
+    private final int maxOpenBatches;
+    /**
+     * 未满的分组，KEY 为 SQL 。相同形状的 SQL 由 DynamicSqlSource 缓存，通常是同一个 String 对象，比较很快
+     */
+    private final Map<String, List<ParameterList>> openBatches = new LinkedHashMap<>();
+    /**
+     * 可以输出的分组
+     */
+    private final ArrayDeque<SqlBatch> readyBatches = new ArrayDeque<>();
+
+    SqlBatchIterator(String id, SqlSource sqlSource, Iterator<? extends Map<String, Object>> source, int maxBatchSize, int maxOpenBatches) {
+        this.id = id;
+        this.sqlSource = sqlSource;
+        this.source = source;
+        this.maxBatchSize = maxBatchSize;
+        this.maxOpenBatches = maxOpenBatches;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (readyBatches.isEmpty() && source.hasNext()) {
+            add(SqlBatis.render(id, sqlSource, source.next()));
+        }
+        if (readyBatches.isEmpty() && !openBatches.isEmpty()) {
+            for (Map.Entry<String, List<ParameterList>> entry : openBatches.entrySet()) {
+                readyBatches.add(new SqlBatch(entry.getKey(), entry.getValue()));
+            }
+            openBatches.clear();
+        }
+        return !readyBatches.isEmpty();
+    }
+
+    @Override
+    public SqlBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return readyBatches.poll();
+    }
+
+    private void add(BoundSql boundSql) {
+        String sql = boundSql.getSql();
+        List<ParameterList> rows = openBatches.get(sql);
+        if (rows == null) {
+            if (openBatches.size() >= maxOpenBatches) {
+                Iterator<Map.Entry<String, List<ParameterList>>> iterator = openBatches.entrySet().iterator();
+                Map.Entry<String, List<ParameterList>> eldest = iterator.next();
+                iterator.remove();
+                readyBatches.add(new SqlBatch(eldest.getKey(), eldest.getValue()));
+            }
+            rows = new ArrayList<>(Math.min(maxBatchSize, 16));
+            openBatches.put(sql, rows);
+        }
+        rows.add(boundSql.getParameters());
+        if (rows.size() >= maxBatchSize) {
+            openBatches.remove(sql);
+            readyBatches.add(new SqlBatch(sql, rows));
+        }
+    }
+}
@@ -15,16 +15,24 @@
  */
 package com.github.sqlbatis;
 
+import com.github.sqlbatis.cache.SqlSourceCache;
 import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.SqlCommandType;
 import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.metrics.SqlMetricsListener;
 import com.github.sqlbatis.parsing.XNode;
 import com.github.sqlbatis.parsing.XPathParser;
+import com.github.sqlbatis.scripting.xmltags.DynamicSqlSource;
+import com.github.sqlbatis.scripting.xmltags.ListPadding;
+import com.github.sqlbatis.scripting.xmltags.VariantSqlSource;
 import com.github.sqlbatis.scripting.xmltags.XMLScriptBuilder;
+import com.github.sqlbatis.type.TypeHandlerRegistry;
 import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -38,11 +46,70 @@ public class SqlBatis {
      */
     private static final String SQL_TYPE = "select|insert|update|delete";
 
+    /**
+     * compiled sql source cache, keyed by xml text or statement id
+     */
+    private static volatile SqlSourceCache sqlSourceCache = new SqlSourceCache();
+
+    /**
+     * type handlers used by {@link SqlResult#bind(java.sql.PreparedStatement)}
+     */
+    private static volatile TypeHandlerRegistry typeHandlerRegistry = new TypeHandlerRegistry();
+
+    /**
+     * max number of if / when conditions of a template whose sql variants are precomputed, 0 to disable,
+     * see {@link VariantSqlSource}
+     */
+    private static volatile int maxVariantConditions = 0;
+
+    /**
+     * padding of IN list foreach without the padding attribute, null to disable, see {@link ListPadding}
+     */
+    private static volatile ListPadding listPadding;
+
+    /**
+     * listener of compilation and rendering, {@link SqlMetricsListener#NOOP} by default
+     */
+    private static volatile SqlMetricsListener metricsListener = SqlMetricsListener.NOOP;
+
+    /**
+     * id of the statement rendered by {@link #render(String, SqlSource, Object)} on the current thread,
+     * only set while a metrics listener is set
+     */
+    private static final ThreadLocal<String> RENDERING_ID = new ThreadLocal<>();
+
+    /**
+     * parse xml to sql, the compiled xml is cached by xml text, so the same xml only be parsed once
+     */
     public static SqlResult parseForSql(String xml, Map<String, Object> sqlParams) {
+        return parseForSql(xml, (Object) sqlParams);
+    }
+
+    /**
+     * parse xml to sql with a parameter object, which may be a map, a java bean or a record,
+     * the compiled xml is cached by xml text
+     */
+    public static SqlResult parseForSql(String xml, Object parameterObject) {
+        if (StringUtils.isBlank(xml)) {
+            throw new NullPointerException("xml must not null");
+        }
+        SqlSource sqlSource = sqlSourceCache.getSqlSource(xml, key -> compileSqlSource(null, key));
+        return getSqlResult(null, sqlSource, parameterObject);
+    }
+
+    /**
+     * parse xml to sql, the compiled xml is cached by the caller-supplied statement id,
+     * a statement id must always refer to the same xml
+     */
+    public static SqlResult parseForSql(String id, String xml, Map<String, Object> sqlParams) {
+        if (StringUtils.isBlank(id)) {
+            throw new NullPointerException("id must not null");
+        }
         if (StringUtils.isBlank(xml)) {
             throw new NullPointerException("xml must not null");
         }
-        return parseForSql(new XPathParser(xml), sqlParams);
+        SqlSource sqlSource = sqlSourceCache.getSqlSource(id, key -> compileSqlSource(id, xml));
+        return getSqlResult(id, sqlSource, sqlParams);
     }
 
     public static SqlResult parseForSql(Reader reader, Map<String, Object> sqlParams) {
@@ -73,7 +140,213 @@ public class SqlBatis {
     public static SqlResult parseForSql(XNode xNode, Map<String, Object> sqlParams) {
         XMLScriptBuilder builder = new XMLScriptBuilder(xNode);
         SqlSource sqlSource = builder.parseScriptNode();
-        BoundSql boundSql = sqlSource.getBoundSql(sqlParams);
-        return new SqlResult(boundSql.getSql(), boundSql.getOrderedParams());
+        return getSqlResult(xNode.getStringAttribute("id"), sqlSource, sqlParams);
+    }
+
+    /**
+     * compile xml to a reusable, thread safe {@link SqlTemplate}, render it with {@link SqlTemplate#render(Map)}
+     */
+    public static SqlTemplate compile(String xml) {
+        return compile(xml, false);
+    }
+
+    /**
+     * compile xml to a reusable {@link SqlTemplate}, in compact mode line breaks and redundant spaces are removed
+     * from the static text during compilation and from the dynamic fragments while rendering,
+     * so the rendered sql equals {@link SqlResult#getFormatSql()} and no formatting is needed afterwards.
+     * Note that whitespace inside string literals is collapsed as well
+     *
+     * @param xml     sql xml
+     * @param compact whether to render compact sql
+     */
+    public static SqlTemplate compile(String xml, boolean compact) {
+        if (StringUtils.isBlank(xml)) {
+            throw new NullPointerException("xml must not null");
+        }
+        return compile(new XPathParser(xml).evalNode(SQL_TYPE), compact);
+    }
+
+    public static SqlTemplate compile(Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader must not null");
+        }
+        return compile(new XPathParser(reader));
+    }
+
+    public static SqlTemplate compile(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new NullPointerException("inputStream must not null");
+        }
+        return compile(new XPathParser(inputStream));
+    }
+
+    public static SqlTemplate compile(XPathParser pathParser) {
+        return compile(pathParser.evalNode(SQL_TYPE));
+    }
+
+    public static SqlTemplate compile(XNode xNode) {
+        return compile(xNode, false);
+    }
+
+    public static SqlTemplate compile(XNode xNode, boolean compact) {
+        if (xNode == null) {
+            throw new NullPointerException("xNode must not null");
+        }
+        String id = xNode.getStringAttribute("id");
+        long start = System.nanoTime();
+        SqlSource sqlSource = compiled(id, new XMLScriptBuilder(xNode, compact).parseScriptNode(), start);
+        return new SqlTemplate(id, getSqlCommandType(xNode.getName()), sqlSource, compact);
+    }
+
+    public static SqlSourceCache getSqlSourceCache() {
+        return sqlSourceCache;
+    }
+
+    /**
+     * replace the compiled sql source cache, use {@code new SqlSourceCache(0)} to disable caching
+     */
+    public static void setSqlSourceCache(SqlSourceCache sqlSourceCache) {
+        if (sqlSourceCache == null) {
+            throw new NullPointerException("sqlSourceCache must not null");
+        }
+        SqlBatis.sqlSourceCache = sqlSourceCache;
+    }
+
+    public static TypeHandlerRegistry getTypeHandlerRegistry() {
+        return typeHandlerRegistry;
+    }
+
+    /**
+     * replace the type handlers used by {@link SqlResult#bind(java.sql.PreparedStatement)}
+     */
+    public static void setTypeHandlerRegistry(TypeHandlerRegistry typeHandlerRegistry) {
+        if (typeHandlerRegistry == null) {
+            throw new NullPointerException("typeHandlerRegistry must not null");
+        }
+        SqlBatis.typeHandlerRegistry = typeHandlerRegistry;
+    }
+
+    public static int getMaxVariantConditions() {
+        return maxVariantConditions;
+    }
+
+    /**
+     * precompute the sql of every branch combination for templates with at most maxVariantConditions
+     * if / when conditions and no foreach, bind or ${}, so rendering only evaluates the conditions and the params.
+     * A template with n conditions holds 2^n variants, see {@link VariantSqlSource#getMemoryUsage()}.
+     * Only affects templates compiled afterwards
+     *
+     * @param maxVariantConditions max number of conditions, 0 to disable, at most {@link VariantSqlSource#MAX_CONDITIONS}
+     */
+    public static void setMaxVariantConditions(int maxVariantConditions) {
+        if (maxVariantConditions < 0 || maxVariantConditions > VariantSqlSource.MAX_CONDITIONS) {
+            throw new IllegalArgumentException("maxVariantConditions must be between 0 and "
+                    + VariantSqlSource.MAX_CONDITIONS + ": " + maxVariantConditions);
+        }
+        SqlBatis.maxVariantConditions = maxVariantConditions;
+    }
+
+    public static ListPadding getListPadding() {
+        return listPadding;
+    }
+
+    /**
+     * pad the element count of every IN list foreach without the padding attribute, so an IN list of 1..n elements
+     * only produces a few distinct sql, e.g. {@link ListPadding#POWERS_OF_TWO}.
+     * The padded elements repeat the last element, so other loops such as the values of a batch insert are never padded
+     * by default, an IN list is a foreach with separator "," and close ")" whose open is "in (", or "(" after "in".
+     * Only affects templates compiled afterwards, {@code padding="none"} disables it for a single foreach
+     *
+     * @param listPadding padding, null to disable
+     */
+    public static void setListPadding(ListPadding listPadding) {
+        SqlBatis.listPadding = listPadding;
+    }
+
+    public static SqlMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * @return id of the statement being rendered on the current thread, null when unknown or no metrics listener is set
+     */
+    public static String getRenderingId() {
+        return RENDERING_ID.get();
+    }
+
+    /**
+     * listen to the compilation and rendering of every statement, e.g. to export latency histograms,
+     * see {@link com.github.sqlbatis.metrics.InMemoryMetricsListener}
+     *
+     * @param metricsListener listener, {@link SqlMetricsListener#NOOP} to disable
+     */
+    public static void setMetricsListener(SqlMetricsListener metricsListener) {
+        if (metricsListener == null) {
+            throw new NullPointerException("metricsListener must not null");
+        }
+        SqlBatis.metricsListener = metricsListener;
+    }
+
+    /**
+     * precompute the sql variants of a compiled sql source if enabled, see {@link #setMaxVariantConditions(int)}
+     */
+    public static SqlSource precompute(SqlSource sqlSource) {
+        return VariantSqlSource.precompute(sqlSource, maxVariantConditions);
+    }
+
+    /**
+     * precompute the sql variants of a just compiled sql source and report the compilation to the metrics listener
+     *
+     * @param id         statement id, may be null
+     * @param sqlSource  sql source returned by the script builder
+     * @param startNanos {@link System#nanoTime()} before the compilation
+     */
+    public static SqlSource compiled(String id, SqlSource sqlSource, long startNanos) {
+        SqlSource result = precompute(sqlSource);
+        SqlMetricsListener listener = metricsListener;
+        if (listener != SqlMetricsListener.NOOP) {
+            int nodeCount = sqlSource instanceof DynamicSqlSource ? ((DynamicSqlSource) sqlSource).getNodeCount() : 1;
+            listener.compiled(id, nodeCount, System.nanoTime() - startNanos);
+        }
+        return result;
+    }
+
+    private static SqlSource compileSqlSource(String id, String xml) {
+        long start = System.nanoTime();
+        XNode xNode = new XPathParser(xml).evalNode(SQL_TYPE);
+        return compiled(id, new XMLScriptBuilder(xNode).parseScriptNode(), start);
+    }
+
+    private static SqlCommandType getSqlCommandType(String nodeName) {
+        try {
+            return SqlCommandType.valueOf(nodeName.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return SqlCommandType.UNKNOWN;
+        }
+    }
+
+    private static SqlResult getSqlResult(String id, SqlSource sqlSource, Object parameterObject) {
+        BoundSql boundSql = render(id, sqlSource, parameterObject);
+        return new SqlResult(boundSql.getSql(), boundSql.getParameters());
+    }
+
+    /**
+     * render the sql source and report the rendering to the metrics listener
+     */
+    static BoundSql render(String id, SqlSource sqlSource, Object parameterObject) {
+        SqlMetricsListener listener = metricsListener;
+        if (listener == SqlMetricsListener.NOOP) {
+            return sqlSource.getBoundSql(parameterObject);
+        }
+        String previousId = RENDERING_ID.get();
+        RENDERING_ID.set(id);
+        try {
+            long start = System.nanoTime();
+            BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+            listener.rendered(id, System.nanoTime() - start, boundSql.getParameters().size(), boundSql.getSql().length());
+            return boundSql;
+        } finally {
+            RENDERING_ID.set(previousId);
+        }
     }
 }
\ No newline at end of file
@@ -16,7 +16,12 @@
 package com.github.sqlbatis;
 
 import com.github.sqlbatis.formatting.SqlFormatter;
+import com.github.sqlbatis.mapping.ParameterList;
+import com.github.sqlbatis.type.TypeHandlerRegistry;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -41,29 +46,84 @@ public class SqlResult {
      * the start number is 1, because the index of param in PrepareStatement sql is start from 1
      */
     private Map<Integer, Object> params;
+    /**
+     * ordered param values backed by an array, the start index is 0
+     */
+    private ParameterList parameters;
+    /**
+     * whether the sql is already compact, see {@link SqlBatis#compile(String, boolean)}
+     */
+    private boolean compact;
 
     public SqlResult(String sql, Map<Integer, Object> params) {
         this.sql = sql;
         this.params = params;
     }
 
+    public SqlResult(String sql, ParameterList parameters) {
+        this(sql, parameters, false);
+    }
+
+    /**
+     * @param compact whether the sql is already compact, then {@link #getFormatSql()} returns it as is
+     */
+    public SqlResult(String sql, ParameterList parameters, boolean compact) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.compact = compact;
+    }
+
     public String getSql() {
         return sql;
     }
 
+    /**
+     * sql without line breaks and redundant spaces, free for a template compiled in compact mode
+     */
     public String getFormatSql() {
-        return SqlFormatter.format(this.sql);
+        return compact ? sql : SqlFormatter.format(this.sql);
     }
 
     public void setSql(String sql) {
         this.sql = sql;
+        this.compact = false;
     }
 
+    /**
+     * the map view is created lazily from {@link #getParameters()} and is read-only,
+     * use {@link #setParams(Map)} to replace the params. Empty when there are no params
+     */
     public Map<Integer, Object> getParams() {
+        if (params == null) {
+            params = parameters == null ? Collections.emptyMap() : parameters.asMap();
+        }
         return params;
     }
 
     public void setParams(Map<Integer, Object> params) {
         this.params = params;
+        this.parameters = null;
+    }
+
+    /**
+     * ordered param values, the start index is 0, no boxing of index or entry object per param
+     */
+    public ParameterList getParameters() {
+        if (parameters == null) {
+            parameters = ParameterList.fromMap(params);
+        }
+        return parameters;
+    }
+
+    /**
+     * bind params to the PreparedStatement prepared from {@link #getSql()},
+     * each value is set by the setter of its type, see {@link SqlBatis#getTypeHandlerRegistry()}
+     */
+    public void bind(PreparedStatement ps) throws SQLException {
+        bind(ps, SqlBatis.getTypeHandlerRegistry());
+    }
+
+    public void bind(PreparedStatement ps, TypeHandlerRegistry typeHandlerRegistry) throws SQLException {
+        typeHandlerRegistry.setParameters(ps, getParameters());
     }
 }
\ No newline at end of file
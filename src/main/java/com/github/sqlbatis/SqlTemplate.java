@@ -0,0 +1,237 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.SqlCommandType;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.reflection.ArrayUtil;
+import com.github.sqlbatis.scripting.defaults.RawSqlSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled sql template, created by {@link SqlBatis#compile(String)}.
+ * <p>
+ * The template is immutable and thread safe, it can be held in a static field and rendered from many threads,
+ * the xml is never touched again after compilation.
+ *
+ * @author Laba Zhang
+ */
+public final class SqlTemplate {
+    /**
+     * default max rows of a {@link SqlBatch}
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    /**
+     * default max number of sql groups buffered while batching
+     */
+    public static final int DEFAULT_MAX_OPEN_BATCHES = 16;
+
+    /**
+     * statement id, the id attribute of the sql node, may be null
+     */
+    private final String id;
+    /**
+     * select | insert | update | delete
+     */
+    private final SqlCommandType sqlCommandType;
+    /**
+     * compiled sql source, {@link RawSqlSource} for static sql, DynamicSqlSource or VariantSqlSource for dynamic sql
+     */
+    private final SqlSource sqlSource;
+    /**
+     * whether the sql source renders compact sql, see {@link SqlBatis#compile(String, boolean)}
+     */
+    private final boolean compact;
+
+    public SqlTemplate(String id, SqlCommandType sqlCommandType, SqlSource sqlSource) {
+        this(id, sqlCommandType, sqlSource, false);
+    }
+
+    public SqlTemplate(String id, SqlCommandType sqlCommandType, SqlSource sqlSource, boolean compact) {
+        if (sqlSource == null) {
+            throw new NullPointerException("sqlSource must not null");
+        }
+        this.id = id;
+        this.sqlCommandType = sqlCommandType == null ? SqlCommandType.UNKNOWN : sqlCommandType;
+        this.sqlSource = sqlSource;
+        this.compact = compact;
+    }
+
+    /**
+     * render the template with params
+     *
+     * @param sqlParams params used by the template
+     * @return processed sql and ordered params
+     */
+    public SqlResult render(Map<String, Object> sqlParams) {
+        return render((Object) sqlParams);
+    }
+
+    /**
+     * render the template with a parameter object, which may be a map, a java bean or a record,
+     * nested properties such as {@code #{user.address.city}} are supported.
+     * A simple value such as an Integer is the value of every variable, a property missing from a bean is an error,
+     * see {@link com.github.sqlbatis.scripting.expression.ParameterProperties}
+     *
+     * @param parameterObject parameter object used by the template
+     * @return processed sql and ordered params
+     */
+    public SqlResult render(Object parameterObject) {
+        BoundSql boundSql = SqlBatis.render(id, sqlSource, parameterObject);
+        return new SqlResult(boundSql.getSql(), boundSql.getParameters(), compact);
+    }
+
+    /**
+     * render the template once per chunk of a collection param, e.g. an IN list too long for one statement.
+     * Combined with {@link com.github.sqlbatis.scripting.xmltags.ListPadding} whose largest bucket is maxSize,
+     * every chunk renders to one of a bounded set of sql.
+     *
+     * @param sqlParams  params used by the template, not modified
+     * @param collection name of the collection or array param to split
+     * @param maxSize    max number of elements per chunk
+     * @return one result per chunk, in order; a single result if the collection is missing or not larger than maxSize
+     */
+    public List<SqlResult> render(Map<String, Object> sqlParams, String collection, int maxSize) {
+        if (collection == null) {
+            throw new NullPointerException("collection must not null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        List<?> elements = asList(sqlParams == null ? null : sqlParams.get(collection));
+        if (elements == null || elements.size() <= maxSize) {
+            return Collections.singletonList(render(sqlParams));
+        }
+        List<SqlResult> results = new ArrayList<>((elements.size() + maxSize - 1) / maxSize);
+        Map<String, Object> chunkParams = new HashMap<>(sqlParams);
+        for (int from = 0; from < elements.size(); from += maxSize) {
+            chunkParams.put(collection, elements.subList(from, Math.min(from + maxSize, elements.size())));
+            results.add(render(chunkParams));
+        }
+        return results;
+    }
+
+    private static List<?> asList(Object value) {
+        if (value instanceof List) {
+            return (List<?>) value;
+        }
+        if (value instanceof Collection) {
+            return new ArrayList<>((Collection<?>) value);
+        }
+        if (value != null && value.getClass().isArray()) {
+            return ArrayUtil.asList(value);
+        }
+        return null;
+    }
+
+    /**
+     * render every param set and group the rows with identical sql into batches ready for
+     * {@link java.sql.PreparedStatement#addBatch()}, see {@link #batch(Iterable, int, int)}
+     */
+    public Iterable<SqlBatch> batch(Iterable<? extends Map<String, Object>> sqlParamsList) {
+        return batch(sqlParamsList, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_OPEN_BATCHES);
+    }
+
+    public Iterable<SqlBatch> batch(Iterable<? extends Map<String, Object>> sqlParamsList, int maxBatchSize) {
+        return batch(sqlParamsList, maxBatchSize, DEFAULT_MAX_OPEN_BATCHES);
+    }
+
+    /**
+     * render every param set and group the rows with identical sql into batches.
+     * <p>
+     * Param sets are rendered lazily while iterating, a batch is emitted as soon as it has maxBatchSize rows,
+     * so at most maxBatchSize * maxOpenBatches rows are buffered whatever the size of the input.
+     * Rows of one batch keep the input order, but rows with different sql may be reordered across batches.
+     *
+     * @param sqlParamsList  param sets, iterated once per iteration of the result
+     * @param maxBatchSize   max rows of a batch
+     * @param maxOpenBatches max number of distinct sql buffered, the eldest group is emitted early when exceeded
+     * @return batches, in the order they are filled
+     */
+    public Iterable<SqlBatch> batch(Iterable<? extends Map<String, Object>> sqlParamsList, int maxBatchSize, int maxOpenBatches) {
+        if (sqlParamsList == null) {
+            throw new NullPointerException("sqlParamsList must not null");
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (maxOpenBatches <= 0) {
+            throw new IllegalArgumentException("maxOpenBatches must be positive: " + maxOpenBatches);
+        }
+        return () -> new SqlBatchIterator(id, sqlSource, sqlParamsList.iterator(), maxBatchSize, maxOpenBatches);
+    }
+
+    /**
+     * whether the template contains dynamic tags or ${} expressions,
+     * tags with only static content (e.g. a {@code <where>} without {@code <if>}) are folded during compilation
+     */
+    public boolean isDynamic() {
+        return !isStatic();
+    }
+
+    /**
+     * whether the template is static, the sql of a static template is calculated during compilation
+     * and never changes between renders
+     */
+    public boolean isStatic() {
+        return sqlSource instanceof RawSqlSource;
+    }
+
+    /**
+     * the precomputed sql (may be with ?) of a static template, no rendering is needed
+     *
+     * @return sql, or null if the template is dynamic
+     */
+    public String getStaticSql() {
+        return isStatic() ? ((RawSqlSource) sqlSource).getSql() : null;
+    }
+
+    /**
+     * whether the rendered sql has no line breaks and redundant spaces
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public SqlCommandType getSqlCommandType() {
+        return sqlCommandType;
+    }
+
+    public SqlSource getSqlSource() {
+        return sqlSource;
+    }
+
+    @Override
+    public String toString() {
+        return "SqlTemplate{" +
+                "id='" + id + '\'' +
+                ", sqlCommandType=" + sqlCommandType +
+                ", dynamic=" + isDynamic() +
+                ", compact=" + compact +
+                '}';
+    }
+}
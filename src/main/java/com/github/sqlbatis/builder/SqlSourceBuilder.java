@@ -15,9 +15,12 @@
  */
 package com.github.sqlbatis.builder;
 
-import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.mapping.ParameterMapping;
 import com.github.sqlbatis.parsing.GenericTokenParser;
-import com.github.sqlbatis.parsing.TokenHandler;
+import com.github.sqlbatis.scripting.xmltags.BindingLayout;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 继承 BaseBuilder 抽象类，SqlSource 构建器，
@@ -40,32 +43,68 @@ public class SqlSourceBuilder extends BaseBuilder {
      * <p>
      * 感叹：设计模式真的是随手拈来。
      */
-    public SqlSource parse(String originalSql) {
-        // 1. 创建 ParameterMappingTokenHandler 对象
-        ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler();
-        // 2. 创建 GenericTokenParser 对象，并指定左右token符号，作为站位符查找边界。
-        GenericTokenParser parser = new GenericTokenParser("#{", "}", handler);
-        // 3. 执行解析，并会调用 ParameterMappingTokenHandler 的 handleToken 方法
-        GenericTokenParser.TokenResult result = parser.parseForResult(originalSql);
+    public StaticSqlSource parse(String originalSql) {
+        // 1. 创建 GenericTokenParser 对象，并指定左右token符号，作为站位符查找边界。
+        GenericTokenParser parser = new GenericTokenParser("#{", "}", null);
+        // 2. 拆分为文本片段和 #{} 的内容
+        List<String> parts = parser.split(originalSql);
+        // 3. 将 #{} 替换为 ? ，并解析对应的 ParameterMapping 对象
+        StringBuilder sql = new StringBuilder(originalSql == null ? 0 : originalSql.length());
+        List<ParameterMapping> parameterMappings = new ArrayList<>(parts.size() / 2);
+        for (int i = 0; i < parts.size(); i++) {
+            if ((i & 1) == 0) {
+                sql.append(parts.get(i));
+            } else {
+                sql.append('?');
+                parameterMappings.add(buildParameterMapping(parts.get(i)));
+            }
+        }
         // 4. 创建 StaticSqlSource 对象
-        return new StaticSqlSource(result.getSql(),result.getPlaceHolderParams());
+        return new StaticSqlSource(sql.toString(), parameterMappings);
     }
 
     /**
-     * 实现 TokenHandler 接口，继承 BaseBuilder 抽象类，
-     * 负责将匹配到的 #{ 和 } 对，替换成相应的 ? 占位符，
-     * 并获取该 ? 占位符对应的 org.apache.ibatis.mapping.ParameterMapping 对象。
+     * 解析 #{} 中的内容，成为 ParameterMapping 对象
+     * <p>
+     * 例如：{@code user.name,jdbcType=VARCHAR} ，逗号前为属性路径，逗号后为 key=value 形式的选项
+     *
+     * @param content #{} 中的内容
+     * @return ParameterMapping 对象
      */
-    private static class ParameterMappingTokenHandler extends BaseBuilder implements TokenHandler {
+    public static ParameterMapping buildParameterMapping(String content) {
+        return buildParameterMapping(content, null);
+    }
 
-        public ParameterMappingTokenHandler() {
-            super();
+    /**
+     * 解析语句中 #{} 的内容，属性路径引用的变量在编译时确定位置
+     *
+     * @param content #{} 中的内容
+     * @param layout  语句的变量表，为 null 时渲染时按变量名查找
+     * @return ParameterMapping 对象
+     */
+    public static ParameterMapping buildParameterMapping(String content, BindingLayout layout) {
+        int comma = content.indexOf(',');
+        String property = (comma < 0 ? content : content.substring(0, comma)).trim();
+        if (property.isEmpty()) {
+            throw new BuilderException("Parsing error in #{" + content + "}: missing property name.");
         }
-
-        @Override
-        public String handleToken(String content) {
-            // <1> 返回 ? 占位符
-            return "?";
+        ParameterMapping.Builder builder = new ParameterMapping.Builder(property).layout(layout);
+        while (comma >= 0) {
+            int next = content.indexOf(',', comma + 1);
+            String option = next < 0 ? content.substring(comma + 1) : content.substring(comma + 1, next);
+            int eq = option.indexOf('=');
+            if (eq < 0) {
+                throw new BuilderException("Parsing error in #{" + content + "}: expected key=value but was '" + option.trim() + "'.");
+            }
+            String name = option.substring(0, eq).trim();
+            String value = option.substring(eq + 1).trim();
+            if ("javaType".equals(name)) {
+                builder.javaType(value);
+            } else if ("jdbcType".equals(name)) {
+                builder.jdbcType(value);
+            }
+            comma = next;
         }
+        return builder.build();
     }
 }
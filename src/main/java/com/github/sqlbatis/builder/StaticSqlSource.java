@@ -16,13 +16,14 @@
 package com.github.sqlbatis.builder;
 
 import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.ParameterList;
+import com.github.sqlbatis.mapping.ParameterMapping;
 import com.github.sqlbatis.mapping.SqlSource;
-import com.github.sqlbatis.scripting.xmltags.ForEachSqlNode;
+import com.github.sqlbatis.type.SimpleTypeRegistry;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * 实现 SqlSource 接口，静态的 SqlSource 实现类。
@@ -34,71 +35,60 @@ import java.util.Map;
  */
 public class StaticSqlSource implements SqlSource {
 
+    private static final ParameterMapping[] NO_PARAMETERS = new ParameterMapping[0];
+
     /**
      * 静态的 SQL
      */
     private final String sql;
     /**
-     * 按照顺序存储动态SQL中 #{} 参数名称
+     * 按照 ? 的顺序存储的 #{} 对应的 ParameterMapping ，属性路径在编译时已经解析
      */
-    private List<String> placeHolderParams;
+    private final ParameterMapping[] parameterMappings;
 
     public StaticSqlSource(String sql) {
-        this.sql = sql;
-        placeHolderParams = new ArrayList<>();
+        this(sql, Collections.emptyList());
     }
 
-    public StaticSqlSource(String sql, List<String> placeHolderParams) {
+    public StaticSqlSource(String sql, List<ParameterMapping> parameterMappings) {
         this.sql = sql;
-        this.placeHolderParams = placeHolderParams;
+        this.parameterMappings = parameterMappings.toArray(NO_PARAMETERS);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<ParameterMapping> getParameterMappings() {
+        return Collections.unmodifiableList(Arrays.asList(parameterMappings));
     }
 
     /**
-     * 创建 BoundSql 对象。通过 parameterMappings 和 parameterObject 属性，可以设置 sql 上的每个占位符的值。
+     * 创建 BoundSql 对象。按顺序使用 parameterMappings 从 parameterObject 中获得每个占位符的值。
+     * <p>
+     * parameterObject 可以是 Map 或者 JavaBean ；为常用的简单类型（例如 Integer 、String）时，所有占位符都使用它本身的值
      *
      * @param parameterObject 参数对象
-     * @return
+     * @return BoundSql 对象
      */
     @Override
     public BoundSql getBoundSql(Object parameterObject) {
-        Map<Integer, Object> orderedParams = new HashMap<>(placeHolderParams.size());
-        if (placeHolderParams.size() > 0) {
-            Map object = (Map) parameterObject;
-            int lastIndex = 0;
-            int nowTermCount = 0;
-            String lastStr = "";
-            for (int i = 0; i < placeHolderParams.size(); i++) {
-                String placeHolderParam = placeHolderParams.get(i);
-                // 处理 foreach
-                if (placeHolderParam.startsWith(ForEachSqlNode.ITEM_PREFIX)) {
-                    //         -3        -2   -1
-                    // __frch_collection_item_0
-                    // to do: need to consider map and list
-                    String[] split = placeHolderParam.split("_");
-                    int index = Integer.parseInt(split[split.length - 1]);
-                    String paramName = split[split.length - 3];
-                    if(!lastStr.equals(paramName)) {
-                        lastIndex = lastIndex + nowTermCount;
-                        lastStr = paramName;
-                        nowTermCount = 1;
-                    } else {
-                        nowTermCount++;
-                    }
-                    List list = (List) object.get(paramName);
-                    index = index - lastIndex;
-                    if (index <= list.size()) {
-                        orderedParams.put(i + 1, list.get(index));
-                    } else {
-                        orderedParams.put(i + 1, null);
-                    }
-                } else {
-                    orderedParams.put(i + 1, object.getOrDefault(placeHolderParam, null));
+        int size = parameterMappings.length;
+        if (size == 0) {
+            return new BoundSql(sql, ParameterList.empty());
+        }
+        Object[] values = new Object[size];
+        if (parameterObject != null) {
+            if (SimpleTypeRegistry.isSimpleType(parameterObject.getClass())) {
+                Arrays.fill(values, parameterObject);
+            } else {
+                for (int i = 0; i < size; i++) {
+                    values[i] = parameterMappings[i].getValue(parameterObject);
                 }
             }
         }
-
         // 创建 BoundSql 对象
-        return new BoundSql(sql, orderedParams);
+        return new BoundSql(sql, new ParameterList(values, size));
     }
 
 }
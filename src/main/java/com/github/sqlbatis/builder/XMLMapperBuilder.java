@@ -0,0 +1,95 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.builder;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.mapping.SqlCommandType;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.parsing.XNode;
+import com.github.sqlbatis.parsing.XPathParser;
+import com.github.sqlbatis.scripting.xmltags.XMLScriptBuilder;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Mapper XML 构建器，一次解析整个 mapper 文件，将其中所有的 select | insert | update | delete 语句编译成 {@link SqlTemplate}。
+ * <pre>
+ * <mapper namespace="user">
+ *     <select id="findById">
+ *         select * from user where id = #{id}
+ *     </select>
+ *     <delete id="deleteById">
+ *         delete from user where id = #{id}
+ *     </delete>
+ * </mapper>
+ * </pre>
+ * 编译后语句的 id 为 namespace.id ，例如：user.findById 。没有 namespace 时直接使用 id 。
+ *
+ * @author Laba Zhang
+ */
+public class XMLMapperBuilder extends BaseBuilder {
+
+    /**
+     * 一次 XPath 查询获得根节点下的所有语句
+     */
+    private static final String STATEMENT_EXPRESSION = "/*/select|/*/insert|/*/update|/*/delete";
+
+    private final XPathParser parser;
+
+    public XMLMapperBuilder(XPathParser parser) {
+        super();
+        this.parser = parser;
+    }
+
+    /**
+     * 解析 mapper 文件
+     *
+     * @return 按文档顺序排列的语句
+     */
+    public List<SqlTemplate> parse() {
+        XNode root = parser.evalNode("/*");
+        if (root == null) {
+            throw new BuilderException("Mapper xml has no root element.");
+        }
+        String namespace = root.getStringAttribute("namespace");
+        List<XNode> statementNodes = parser.evalNodes(STATEMENT_EXPRESSION);
+        List<SqlTemplate> templates = new ArrayList<>(statementNodes.size());
+        for (XNode statementNode : statementNodes) {
+            String id = statementNode.getStringAttribute("id");
+            if (StringUtils.isBlank(id)) {
+                throw new BuilderException("Missing id attribute in <" + statementNode.getName() + "> of mapper '" + namespace + "'.");
+            }
+            // 以 namespace.id 编译，编译和渲染的指标使用同一个 id
+            String statementId = applyNamespace(namespace, id);
+            SqlCommandType sqlCommandType = SqlCommandType.valueOf(statementNode.getName().toUpperCase(Locale.ENGLISH));
+            long start = System.nanoTime();
+            SqlSource sqlSource = SqlBatis.compiled(statementId, new XMLScriptBuilder(statementNode).parseScriptNode(), start);
+            templates.add(new SqlTemplate(statementId, sqlCommandType, sqlSource));
+        }
+        return templates;
+    }
+
+    private static String applyNamespace(String namespace, String id) {
+        if (StringUtils.isBlank(namespace)) {
+            return id;
+        }
+        return namespace + "." + id;
+    }
+}
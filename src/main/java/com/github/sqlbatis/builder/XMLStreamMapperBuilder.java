@@ -0,0 +1,169 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.builder;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.mapping.SqlCommandType;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.scripting.xmltags.XMLStreamScriptBuilder;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 基于 StAX 的 Mapper XML 构建器，是 {@link XMLMapperBuilder} 的流式实现。
+ * <p>
+ * 对整个文档只做一次顺序扫描，使用 {@link XMLStreamScriptBuilder} 直接构建每条语句的 SqlNode 树，
+ * 不创建 DOM，编译结束后不保留任何 XML 结构，适合在启动时加载大量 mapper 文件。
+ * <p>
+ * 根元素本身是 select | insert | update | delete 时，将其作为唯一的一条语句编译。
+ *
+ * @author Laba Zhang
+ */
+public class XMLStreamMapperBuilder extends BaseBuilder {
+
+    /**
+     * 报告 CDATA 事件，CDATA 单独成为一个文本节点，与 DOM 的 CDATASection 一致
+     */
+    private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final XMLStreamReader reader;
+
+    public XMLStreamMapperBuilder(String xml) {
+        this(new StringReader(xml));
+    }
+
+    public XMLStreamMapperBuilder(Reader reader) {
+        super();
+        try {
+            this.reader = createFactory().createXMLStreamReader(reader);
+        } catch (XMLStreamException e) {
+            throw new BuilderException("Error creating xml stream reader.  Cause: " + e, e);
+        }
+    }
+
+    public XMLStreamMapperBuilder(InputStream inputStream) {
+        super();
+        try {
+            this.reader = createFactory().createXMLStreamReader(inputStream);
+        } catch (XMLStreamException e) {
+            throw new BuilderException("Error creating xml stream reader.  Cause: " + e, e);
+        }
+    }
+
+    /**
+     * 解析 mapper 文件
+     *
+     * @return 按文档顺序排列的语句
+     */
+    public List<SqlTemplate> parse() {
+        try {
+            return parseMapper();
+        } catch (XMLStreamException e) {
+            throw new BuilderException("Error parsing mapper xml.  Cause: " + e, e);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // ignore
+            }
+        }
+    }
+
+    private List<SqlTemplate> parseMapper() throws XMLStreamException {
+        List<SqlTemplate> templates = new ArrayList<>();
+        XMLStreamScriptBuilder scriptBuilder = new XMLStreamScriptBuilder();
+        // 1. 定位到根元素
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip prolog
+        }
+        if (!reader.isStartElement()) {
+            throw new BuilderException("Mapper xml has no root element.");
+        }
+        if (isStatement(reader.getLocalName())) {
+            templates.add(parseStatement(scriptBuilder, null));
+            return templates;
+        }
+        String namespace = reader.getAttributeValue(null, "namespace");
+        // 2. 遍历根元素的子元素，编译语句，跳过其它元素
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (isStatement(reader.getLocalName())) {
+                templates.add(parseStatement(scriptBuilder, namespace));
+            } else {
+                XMLStreamScriptBuilder.skipElement(reader);
+            }
+        }
+        return templates;
+    }
+
+    private SqlTemplate parseStatement(XMLStreamScriptBuilder scriptBuilder, String namespace) throws XMLStreamException {
+        String nodeName = reader.getLocalName();
+        String id = reader.getAttributeValue(null, "id");
+        if (namespace != null && StringUtils.isBlank(id)) {
+            throw new BuilderException("Missing id attribute in <" + nodeName + "> of mapper '" + namespace + "'.");
+        }
+        SqlCommandType sqlCommandType = SqlCommandType.valueOf(nodeName.toUpperCase(Locale.ENGLISH));
+        String statementId = applyNamespace(namespace, id);
+        long start = System.nanoTime();
+        SqlSource sqlSource = SqlBatis.compiled(statementId, scriptBuilder.parseScriptNode(reader), start);
+        return new SqlTemplate(statementId, sqlCommandType, sqlSource);
+    }
+
+    private static boolean isStatement(String nodeName) {
+        return "select".equals(nodeName) || "insert".equals(nodeName)
+                || "update".equals(nodeName) || "delete".equals(nodeName);
+    }
+
+    private static String applyNamespace(String namespace, String id) {
+        if (StringUtils.isBlank(namespace)) {
+            return id;
+        }
+        return namespace + "." + id;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        // 与 XPathParser 一致，不校验 DTD，并且不加载外部实体
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        // JDK 自带的实现默认把 CDATA 作为 CHARACTERS 事件，与前后的文本合并，需要开启才会产生 CDATA 事件
+        if (factory.isPropertySupported(REPORT_CDATA_EVENT)) {
+            factory.setProperty(REPORT_CDATA_EVENT, true);
+        }
+        return factory;
+    }
+}
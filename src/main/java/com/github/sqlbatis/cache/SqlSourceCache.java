@@ -0,0 +1,180 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.cache;
+
+import com.github.sqlbatis.mapping.SqlSource;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 已编译 SqlSource 的缓存。
+ * <p>
+ * KEY 为 XML 模板文本，或者调用方指定的语句 id；VALUE 为解析好的 {@link SqlSource}。
+ * 命中缓存时，只需要执行 {@link SqlSource#getBoundSql(Object)}，不会再创建 XPathParser / XMLScriptBuilder。
+ * <p>
+ * 读操作不加锁。容量超出 {@link #getMaxSize()} 时，使用 CLOCK（second chance）算法淘汰最近未被访问的条目。
+ *
+ * @author Laba Zhang
+ */
+public class SqlSourceCache {
+
+    /**
+     * 默认最大缓存条目数
+     */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    /**
+     * 最大缓存条目数，小于等于 0 时表示不缓存
+     */
+    private final int maxSize;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    /**
+     * CLOCK 的时钟指针，在多次淘汰之间保持位置，只在 synchronized (this) 内使用
+     */
+    private Iterator<Map.Entry<String, Entry>> hand;
+
+    public SqlSourceCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public SqlSourceCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 获得 key 对应的 SqlSource，不存在时使用 compiler 编译并放入缓存
+     *
+     * @param key      模板文本或语句 id
+     * @param compiler 编译函数
+     * @return SqlSource
+     */
+    public SqlSource getSqlSource(String key, Function<String, SqlSource> compiler) {
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            hitCount.increment();
+            // 已标记时不再写，避免热点条目上的缓存行竞争
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.sqlSource;
+        }
+        missCount.increment();
+        SqlSource sqlSource = compiler.apply(key);
+        if (maxSize > 0) {
+            // 并发编译同一模板时以先放入的为准
+            Entry existing = cache.putIfAbsent(key, new Entry(sqlSource));
+            if (existing != null) {
+                return existing.sqlSource;
+            }
+            evictIfNecessary(key);
+        }
+        return sqlSource;
+    }
+
+    public SqlSource getSqlSource(String key) {
+        Entry entry = cache.get(key);
+        return entry == null ? null : entry.sqlSource;
+    }
+
+    public void putSqlSource(String key, SqlSource sqlSource) {
+        if (maxSize > 0) {
+            cache.put(key, new Entry(sqlSource));
+            evictIfNecessary(key);
+        }
+    }
+
+    public SqlSource removeSqlSource(String key) {
+        Entry entry = cache.remove(key);
+        return entry == null ? null : entry.sqlSource;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 淘汰超出容量的条目。时钟指针从上一次停下的位置继续遍历，清除访问标记，第一个未被标记的条目被淘汰；
+     * 到达末尾后从头开始，所以每个条目在被淘汰前都有一次机会。
+     *
+     * @param newKey 刚放入的 key，不参与本次淘汰
+     */
+    private void evictIfNecessary(String newKey) {
+        if (cache.size() <= maxSize) {
+            return;
+        }
+        synchronized (this) {
+            while (cache.size() > maxSize) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = cache.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, Entry> next = hand.next();
+                Entry entry = next.getValue();
+                if (maxSize > 1 && next.getKey().equals(newKey)) {
+                    continue;
+                }
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else if (cache.remove(next.getKey(), entry)) {
+                    // 弱一致的迭代器可能返回已经被删除或替换的条目，只淘汰仍在缓存中的条目
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final SqlSource sqlSource;
+        /**
+         * 最近是否被访问
+         */
+        private volatile boolean referenced;
+
+        private Entry(SqlSource sqlSource) {
+            this.sqlSource = sqlSource;
+        }
+    }
+}
@@ -2,19 +2,167 @@ package com.github.sqlbatis.formatting;
 
 /**
  * 将SQL进行格式化
+ * <p>
+ * 引号（' 、" 、`）内的字面量原样保留；单行注释（--）以换行结束，注释后的空白字符替换为一个换行，避免注释掉后面的SQL
  *
  * @author Laba Zhang
  */
 public class SqlFormatter {
 
     /**
-     * 移除换行及多余空格
+     * 移除换行及多余空格，连续的空白字符（空格、\t 、\n 、\x0B 、\f 、\r）替换为一个空格。
+     * <p>
+     * 不需要替换时直接返回原字符串
      *
      * @param sql sql
      * @return 处理后的SQL
      */
     public static String format(String sql) {
-        sql = sql.replaceAll("[\\s\n ]+", " ");
-        return sql;
+        int length = sql.length();
+        int i = 0;
+        // 1. 是否存在需要替换的空白字符：非空格的空白字符，或者连续的空白字符
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (isWhitespace(c) && (c != ' ' || (i + 1 < length && isWhitespace(sql.charAt(i + 1))))) {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            return sql;
+        }
+        // 2. 字面量和注释可能在该位置之前开始，从头复制
+        StringBuilder builder = new StringBuilder(length);
+        collapse(builder, sql);
+        return builder.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * 以空格分隔，将 sql 追加到 builder 中，首尾的空白字符不会被追加。
+     * <p>
+     * sql 中间的内容原样追加：紧凑模式下模板中的文本在编译时已经由 {@link #format(String)} 处理，
+     * 剩下的只有 ${} 的值，不能修改。sql 以注释结尾时，会追加一个换行
+     *
+     * @param builder 已追加的SQL
+     * @param sql     待追加的SQL
+     */
+    public static void appendCompact(StringBuilder builder, String sql) {
+        if (sql == null) {
+            sql = "null";
+        }
+        int start = 0;
+        int end = sql.length();
+        while (start < end && isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(sql.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        if (builder.length() > 0) {
+            builder.append(' ');
+        }
+        builder.append(sql, start, end);
+        if (endsWithComment(sql, start, end)) {
+            builder.append('\n');
+        }
+    }
+
+    /**
+     * 连续的空白字符替换为一个空格，字面量原样复制，注释后的空白字符替换为一个换行
+     */
+    private static void collapse(StringBuilder builder, String sql) {
+        int length = sql.length();
+        // 待追加的空白字符，0 表示没有
+        char whitespace = 0;
+        boolean comment = false;
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (isWhitespace(c)) {
+                if (whitespace == 0) {
+                    whitespace = comment ? '\n' : ' ';
+                }
+                i++;
+                continue;
+            }
+            if (whitespace != 0) {
+                builder.append(whitespace);
+                whitespace = 0;
+            }
+            comment = isComment(sql, i);
+            int end = skipToken(sql, i);
+            builder.append(sql, i, end);
+            i = end;
+        }
+        if (whitespace != 0) {
+            builder.append(whitespace);
+        }
+    }
+
+    /**
+     * @return sql[start, end) 是否以单行注释结尾
+     */
+    private static boolean endsWithComment(String sql, int start, int end) {
+        int i = start;
+        while (i < end) {
+            if (isComment(sql, i)) {
+                int next = skipToken(sql, i);
+                if (next >= end) {
+                    return true;
+                }
+                i = next;
+            } else {
+                i = skipToken(sql, i);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isComment(String sql, int i) {
+        return sql.charAt(i) == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-';
+    }
+
+    /**
+     * @return 从 start 开始的字面量、注释或者单个字符之后的位置
+     */
+    private static int skipToken(String sql, int start) {
+        char c = sql.charAt(start);
+        if (c == '\'' || c == '"' || c == '`') {
+            return skipQuoted(sql, start, c);
+        }
+        if (isComment(sql, start)) {
+            int end = sql.indexOf('\n', start);
+            return end < 0 ? sql.length() : end;
+        }
+        return start + 1;
+    }
+
+    /**
+     * @return 结束引号之后的位置，没有结束引号时为 sql 的长度。反斜杠转义下一个字符，两个连续的引号视为两个字面量
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 与正则表达式的 \s 一致
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -17,9 +17,6 @@ package com.github.sqlbatis.mapping;
 
 import com.github.sqlbatis.SqlResult;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,24 +41,38 @@ public class BoundSql {
      */
     private final String sql;
     /**
-     * 排序后的参数 {@link SqlResult#setParams(Map)}
+     * 按 ? 的顺序存储的参数值
      */
-    private Map<Integer, Object> orderedParams;
+    private final ParameterList parameters;
 
     public BoundSql(String sql) {
-        this(sql, new HashMap<>());
+        this(sql, ParameterList.empty());
     }
 
     public BoundSql(String sql, Map<Integer, Object> orderedParams) {
+        this(sql, ParameterList.fromMap(orderedParams));
+    }
+
+    public BoundSql(String sql, ParameterList parameters) {
         this.sql = sql;
-        this.orderedParams = orderedParams;
+        this.parameters = parameters;
     }
 
     public String getSql() {
         return sql;
     }
 
+    /**
+     * @return 按 ? 的顺序存储的参数值，下标从 0 开始
+     */
+    public ParameterList getParameters() {
+        return parameters;
+    }
+
+    /**
+     * 排序后的参数 {@link SqlResult#setParams(Map)}，下标从 1 开始的只读视图
+     */
     public Map<Integer, Object> getOrderedParams() {
-        return orderedParams;
+        return parameters.asMap();
     }
 }
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.mapping;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * 按 ? 的顺序存储的参数值，基于数组，不可修改。
+ * <p>
+ * 下标从 0 开始；{@link #asMap()} 返回下标从 1 开始的 Map 视图，与 PreparedStatement 的参数下标一致，
+ * 用于兼容 {@code Map<Integer, Object>} 形式的参数。
+ *
+ * @author Laba Zhang
+ */
+public final class ParameterList extends AbstractList<Object> implements RandomAccess {
+
+    private static final Object[] EMPTY = new Object[0];
+    private static final ParameterList EMPTY_LIST = new ParameterList(EMPTY, 0);
+
+    private final Object[] values;
+    private final int size;
+    /**
+     * Map 视图，第一次使用时创建
+     */
+    private Map<Integer, Object> mapView;
+
+    /**
+     * 直接使用数组的前 size 个元素，不复制。调用方不能再修改数组
+     *
+     * @param values 参数值
+     * @param size   参数个数
+     */
+    public ParameterList(Object[] values, int size) {
+        if (size < 0 || size > values.length) {
+            throw new IndexOutOfBoundsException("size: " + size + ", length: " + values.length);
+        }
+        this.values = values;
+        this.size = size;
+    }
+
+    public static ParameterList empty() {
+        return EMPTY_LIST;
+    }
+
+    /**
+     * 将下标从 1 开始的 Map 转换为 ParameterList ，缺少的下标为 null
+     *
+     * @param orderedParams 下标从 1 开始的参数
+     * @return ParameterList
+     */
+    public static ParameterList fromMap(Map<Integer, Object> orderedParams) {
+        if (orderedParams == null || orderedParams.isEmpty()) {
+            return EMPTY_LIST;
+        }
+        if (orderedParams instanceof MapView) {
+            return ((MapView) orderedParams).list;
+        }
+        int size = 0;
+        for (Integer index : orderedParams.keySet()) {
+            size = Math.max(size, index);
+        }
+        Object[] values = new Object[size];
+        for (Map.Entry<Integer, Object> entry : orderedParams.entrySet()) {
+            if (entry.getKey() > 0) {
+                values[entry.getKey() - 1] = entry.getValue();
+            }
+        }
+        return new ParameterList(values, size);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] copy = new Object[size];
+        System.arraycopy(values, 0, copy, 0, size);
+        return copy;
+    }
+
+    /**
+     * @return 下标从 1 开始的只读 Map 视图
+     */
+    public Map<Integer, Object> asMap() {
+        if (mapView == null) {
+            mapView = new MapView(this);
+        }
+        return mapView;
+    }
+
+    /**
+     * 下标从 1 开始的只读 Map 视图，get 直接访问数组，遍历时才创建 Entry
+     */
+    private static final class MapView extends AbstractMap<Integer, Object> {
+        private final ParameterList list;
+
+        private MapView(ParameterList list) {
+            this.list = list;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (key instanceof Integer) {
+                int index = (Integer) key;
+                if (index > 0 && index <= list.size) {
+                    return list.values[index - 1];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && (Integer) key > 0 && (Integer) key <= list.size;
+        }
+
+        @Override
+        public int size() {
+            return list.size;
+        }
+
+        @Override
+        public Set<Entry<Integer, Object>> entrySet() {
+            return new AbstractSet<Entry<Integer, Object>>() {
+                @Override
+                public Iterator<Entry<Integer, Object>> iterator() {
+                    return new Iterator<Entry<Integer, Object>>() {
+                        private int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < list.size;
+                        }
+
+                        @Override
+                        public Entry<Integer, Object> next() {
+                            if (index >= list.size) {
+                                throw new NoSuchElementException();
+                            }
+                            Object value = list.values[index];
+                            index++;
+                            return new SimpleImmutableEntry<>(index, value);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return list.size;
+                }
+            };
+        }
+    }
+}
@@ -15,8 +15,14 @@
  */
 package com.github.sqlbatis.mapping;
 
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
+import com.github.sqlbatis.scripting.xmltags.BindingLayout;
+
 /**
  * 参数映射。
+ * <p>
+ * 对应 SQL 中的一个 #{} ，例如 #{user.name,jdbcType=VARCHAR} 。属性路径在编译时解析为 {@link Expression} 。
  *
  * @author Clinton Begin
  */
@@ -32,10 +38,51 @@ public class ParameterMapping {
      */
     private String javaType;
 
+    /**
+     * JDBC 类型
+     */
+    private String jdbcType;
+
+    /**
+     * 属性路径对应的表达式，中间对象为 null 时返回 null
+     */
+    private Expression expression;
 
     private ParameterMapping() {
     }
 
+    public static class Builder {
+        private final ParameterMapping parameterMapping = new ParameterMapping();
+        private BindingLayout layout;
+
+        public Builder(String property) {
+            parameterMapping.property = property;
+        }
+
+        public Builder javaType(String javaType) {
+            parameterMapping.javaType = javaType;
+            return this;
+        }
+
+        public Builder jdbcType(String jdbcType) {
+            parameterMapping.jdbcType = jdbcType;
+            return this;
+        }
+
+        /**
+         * @param layout 语句的变量表，属性路径引用的变量在编译时确定位置，见 {@link ExpressionParser#parseProperty(String, BindingLayout)}
+         */
+        public Builder layout(BindingLayout layout) {
+            this.layout = layout;
+            return this;
+        }
+
+        public ParameterMapping build() {
+            parameterMapping.expression = ExpressionParser.parseProperty(parameterMapping.property, layout);
+            return parameterMapping;
+        }
+    }
+
     public String getProperty() {
         return property;
     }
@@ -49,12 +96,26 @@ public class ParameterMapping {
         return javaType;
     }
 
+    public String getJdbcType() {
+        return jdbcType;
+    }
+
+    /**
+     * 获得参数值
+     *
+     * @param parameterObject 参数对象，通常为 DynamicContext 的 bindings
+     * @return 参数值
+     */
+    public Object getValue(Object parameterObject) {
+        return expression.getValue(parameterObject);
+    }
 
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("ParameterMapping{");
         sb.append("property='").append(property).append('\'');
         sb.append(", javaType=").append(javaType);
+        sb.append(", jdbcType=").append(jdbcType);
         sb.append('}');
         return sb.toString();
     }
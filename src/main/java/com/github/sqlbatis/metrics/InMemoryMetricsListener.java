@@ -0,0 +1,173 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在内存中汇总指标的监听器，按语句 id 记录编译、渲染和每个 &lt;foreach&gt; 的元素个数。
+ * 未指定 id 的语句汇总在 {@link #ANONYMOUS} 下。
+ * <p>
+ * 可以定期读取后导出到监控系统，也可以直接用于测试
+ *
+ * @author Laba Zhang
+ */
+public class InMemoryMetricsListener implements SqlMetricsListener {
+
+    /**
+     * 未指定 id 的语句
+     */
+    public static final String ANONYMOUS = "";
+
+    private final Map<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+    private final LongAdder ognlCacheHitCount = new LongAdder();
+    private final LongAdder ognlCacheMissCount = new LongAdder();
+
+    @Override
+    public void compiled(String id, int nodeCount, long nanos) {
+        StatementMetrics metrics = getOrCreate(id);
+        metrics.compileCount.increment();
+        metrics.compileLatency.record(nanos);
+        metrics.nodeCount = nodeCount;
+    }
+
+    @Override
+    public void rendered(String id, long nanos, int parameterCount, int sqlLength) {
+        StatementMetrics metrics = getOrCreate(id);
+        metrics.renderLatency.record(nanos);
+        metrics.parameterCount.record(parameterCount);
+        metrics.sqlLength.record(sqlLength);
+    }
+
+    @Override
+    public void looped(String id, String collection, int size) {
+        Map<String, Histogram> loopSizes = getOrCreate(id).loopSizes;
+        Histogram histogram = loopSizes.get(collection);
+        if (histogram == null) {
+            histogram = loopSizes.computeIfAbsent(collection, key -> new Histogram());
+        }
+        histogram.record(size);
+    }
+
+    @Override
+    public void ognlCacheAccessed(String expression, boolean hit) {
+        if (hit) {
+            ognlCacheHitCount.increment();
+        } else {
+            ognlCacheMissCount.increment();
+        }
+    }
+
+    /**
+     * @param id 语句 id ，null 表示未指定 id 的语句
+     * @return 语句的指标，没有记录时返回 null
+     */
+    public StatementMetrics getStatement(String id) {
+        return statements.get(id == null ? ANONYMOUS : id);
+    }
+
+    public Map<String, StatementMetrics> getStatements() {
+        return Collections.unmodifiableMap(statements);
+    }
+
+    public long getOgnlCacheHitCount() {
+        return ognlCacheHitCount.sum();
+    }
+
+    public long getOgnlCacheMissCount() {
+        return ognlCacheMissCount.sum();
+    }
+
+    public void clear() {
+        statements.clear();
+        ognlCacheHitCount.reset();
+        ognlCacheMissCount.reset();
+    }
+
+    private StatementMetrics getOrCreate(String id) {
+        String key = id == null ? ANONYMOUS : id;
+        // 先 get ，命中时不进入 computeIfAbsent 的锁
+        StatementMetrics metrics = statements.get(key);
+        return metrics != null ? metrics : statements.computeIfAbsent(key, k -> new StatementMetrics());
+    }
+
+    /**
+     * 一个语句的指标，耗时的单位为纳秒
+     */
+    public static final class StatementMetrics {
+        private final LongAdder compileCount = new LongAdder();
+        private final Histogram compileLatency = new Histogram();
+        private final Histogram renderLatency = new Histogram();
+        private final Histogram parameterCount = new Histogram();
+        private final Histogram sqlLength = new Histogram();
+        private final Map<String, Histogram> loopSizes = new ConcurrentHashMap<>();
+        private volatile int nodeCount;
+
+        public long getCompileCount() {
+            return compileCount.sum();
+        }
+
+        public Histogram getCompileLatency() {
+            return compileLatency;
+        }
+
+        public long getRenderCount() {
+            return renderLatency.getCount();
+        }
+
+        public Histogram getRenderLatency() {
+            return renderLatency;
+        }
+
+        public Histogram getParameterCount() {
+            return parameterCount;
+        }
+
+        public Histogram getSqlLength() {
+            return sqlLength;
+        }
+
+        /**
+         * @return KEY 为 &lt;foreach&gt; 的集合表达式
+         */
+        public Map<String, Histogram> getLoopSizes() {
+            return Collections.unmodifiableMap(loopSizes);
+        }
+
+        /**
+         * @return 最近一次编译的 SqlNode 个数
+         */
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        @Override
+        public String toString() {
+            return "StatementMetrics{" +
+                    "compileCount=" + getCompileCount() +
+                    ", nodeCount=" + nodeCount +
+                    ", renderCount=" + getRenderCount() +
+                    ", renderLatency=" + renderLatency +
+                    ", parameterCount=" + parameterCount +
+                    ", sqlLength=" + sqlLength +
+                    ", loopSizes=" + loopSizes +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.metrics;
+
+/**
+ * 编译和渲染的监听器，用于导出每个语句的耗时、参数个数等指标。
+ * <p>
+ * 通过 {@link com.github.sqlbatis.SqlBatis#setMetricsListener(SqlMetricsListener)} 设置，默认为 {@link #NOOP} ，
+ * 此时不会调用 {@link System#nanoTime()} 。方法可能被多个线程并发调用，实现必须是线程安全的，并且应尽量轻量。
+ * 语句 id 为 {@link com.github.sqlbatis.SqlTemplate#getId()} 或 parseForSql 的 id ，未指定时为 null
+ *
+ * @author Laba Zhang
+ */
+public interface SqlMetricsListener {
+
+    /**
+     * 不做任何事情的监听器
+     */
+    SqlMetricsListener NOOP = new SqlMetricsListener() {
+    };
+
+    /**
+     * 编译了一个语句
+     *
+     * @param id        语句 id
+     * @param nodeCount 优化后的 SqlNode 个数，静态 SQL 为 1
+     * @param nanos     耗时，纳秒
+     */
+    default void compiled(String id, int nodeCount, long nanos) {
+    }
+
+    /**
+     * 渲染了一个语句
+     *
+     * @param id             语句 id
+     * @param nanos          耗时，纳秒
+     * @param parameterCount 参数个数
+     * @param sqlLength      SQL 的长度
+     */
+    default void rendered(String id, long nanos, int parameterCount, int sqlLength) {
+    }
+
+    /**
+     * 遍历了一个 &lt;foreach&gt; 的集合
+     *
+     * @param id         语句 id ，不经过 SqlTemplate / parseForSql 渲染时为 null
+     * @param collection 集合的表达式
+     * @param size       元素个数，不包括补齐的元素
+     */
+    default void looped(String id, String collection, int size) {
+    }
+
+    /**
+     * 访问了 OGNL 表达式的缓存
+     *
+     * @param expression 表达式
+     * @param hit        是否命中
+     */
+    default void ognlCacheAccessed(String expression, boolean hit) {
+    }
+}
@@ -15,9 +15,8 @@
  */
 package com.github.sqlbatis.parsing;
 
-import com.github.sqlbatis.mapping.ParameterMapping;
-
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -57,14 +56,45 @@ public class GenericTokenParser {
         if (text == null || text.isEmpty()) {
             return new TokenResult("");
         }
+        List<String> parts = split(text);
+        if (parts.size() == 1) {
+            return new TokenResult(parts.get(0));
+        }
+        List<String> placeHolderParams = new ArrayList<>(parts.size() / 2);
+        final StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < parts.size(); i++) {
+            if ((i & 1) == 0) {
+                builder.append(parts.get(i));
+            } else {
+                // 将 expression 提交给 handler 处理 ，并将处理结果添加到 builder 中
+                String expression = parts.get(i);
+                builder.append(handler.handleToken(expression));
+                placeHolderParams.add(expression);
+            }
+        }
+        return new TokenResult(builder.toString(), placeHolderParams);
+    }
+
+    /**
+     * 将文本拆分成文本片段和 token 表达式，拆分规则（包括转义）与 {@link #parseForResult(String)} 一致，不调用 handler 。
+     * <p>
+     * 例如：{@code "id = #{id} and name = #{name}"} => ["id = ", "id", " and name = ", "name", ""]
+     *
+     * @param text 需要拆分的数据
+     * @return 偶数下标为文本片段，奇数下标为 token 表达式，所以长度总是奇数
+     */
+    public List<String> split(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.singletonList("");
+        }
         // search open token
         // 寻找开始的 openToken 的位置
         int start = text.indexOf(openToken);
         if (start == -1) {
-            return new TokenResult(text);
+            return Collections.singletonList(text);
         }
 
-        List<String> placeHolderParams = new ArrayList<>();
+        List<String> parts = new ArrayList<>();
         char[] src = text.toCharArray();
         int offset = 0;
         final StringBuilder builder = new StringBuilder();
@@ -117,9 +147,10 @@ public class GenericTokenParser {
                     builder.append(src, start, src.length - start);
                     offset = src.length;
                 } else {
-                    // closeToken 找到，将 expression 提交给 handler 处理 ，并将处理结果添加到 builder 中
-                    builder.append(handler.handleToken(expression.toString()));
-                    placeHolderParams.add(expression.toString());
+                    // closeToken 找到，结束当前文本片段，并记录 expression
+                    parts.add(builder.toString());
+                    builder.setLength(0);
+                    parts.add(expression.toString());
                     // 修改 offset
                     offset = end + closeToken.length();
                 }
@@ -131,7 +162,8 @@ public class GenericTokenParser {
         if (offset < src.length) {
             builder.append(src, offset, src.length - offset);
         }
-        return new TokenResult(builder.toString(), placeHolderParams);
+        parts.add(builder.toString());
+        return parts;
     }
 
     public static class TokenResult {
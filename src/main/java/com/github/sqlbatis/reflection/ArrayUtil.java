@@ -15,10 +15,14 @@
  */
 package com.github.sqlbatis.reflection;
 
+import java.lang.reflect.Array;
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
 
 /**
- * Provides hashCode, equals and toString methods that can handle array.
+ * Provides hashCode, equals, toString and asList methods that can handle array.
  */
 public class ArrayUtil {
 
@@ -149,4 +153,60 @@ public class ArrayUtil {
     }
   }
 
+  /**
+   * Returns a fixed-size, read-only list view of {@code array}. The array is not copied,
+   * elements of a primitive array are boxed when they are read.
+   *
+   * @param array
+   *          An array, may be a primitive array.
+   * @return A list view of the {@code array}.
+   * @throws IllegalArgumentException
+   *           if {@code array} is not an array
+   */
+  public static List<Object> asList(Object array) {
+    if (array instanceof Object[]) {
+      return Arrays.asList((Object[]) array);
+    }
+    if (array == null || !array.getClass().isArray()) {
+      throw new IllegalArgumentException("Argument is not an array: " + array);
+    }
+    return new PrimitiveArrayList(array);
+  }
+
+  private static final class PrimitiveArrayList extends AbstractList<Object> implements RandomAccess {
+    private final Object array;
+    private final int size;
+
+    private PrimitiveArrayList(Object array) {
+      this.array = array;
+      this.size = Array.getLength(array);
+    }
+
+    @Override
+    public Object get(int index) {
+      if (array instanceof int[]) {
+        return ((int[]) array)[index];
+      } else if (array instanceof long[]) {
+        return ((long[]) array)[index];
+      } else if (array instanceof short[]) {
+        return ((short[]) array)[index];
+      } else if (array instanceof char[]) {
+        return ((char[]) array)[index];
+      } else if (array instanceof byte[]) {
+        return ((byte[]) array)[index];
+      } else if (array instanceof boolean[]) {
+        return ((boolean[]) array)[index];
+      } else if (array instanceof float[]) {
+        return ((float[]) array)[index];
+      } else {
+        return ((double[]) array)[index];
+      }
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
 }
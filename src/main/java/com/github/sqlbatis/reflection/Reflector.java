@@ -0,0 +1,268 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.reflection;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类的属性访问器，按类缓存在 {@link ClassValue} 中，类被卸载时缓存随之释放。
+ * <p>
+ * 属性按 getXxx() 、isXxx() 、record 的 xxx() 、public 字段的顺序查找，第一次访问时才创建访问器。
+ * 访问器通过 {@link LambdaMetafactory} 生成，调用时和直接调用 getter 一样，没有反射的开销；
+ * getter 所在的类对本类的 ClassLoader 不可见，或者不是 public 类时，使用 {@link MethodHandle} 。
+ * 非 public 类（例如包内可见的 JavaBean）的 public getter 没有 public 的父类或接口可以调用时，通过 setAccessible 访问。
+ *
+ * @author Laba Zhang
+ */
+public final class Reflector {
+
+  private static final ClassValue<Reflector> REFLECTORS = new ClassValue<Reflector>() {
+    @Override
+    protected Reflector computeValue(Class<?> type) {
+      return new Reflector(type);
+    }
+  };
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  /**
+   * 属性不存在时的占位对象
+   */
+  private static final Getter NO_GETTER = target -> {
+    throw new IllegalStateException();
+  };
+
+  private final Class<?> type;
+  /**
+   * 属性名 -> 访问器
+   */
+  private final Map<String, Getter> getters = new ConcurrentHashMap<>();
+
+  private Reflector(Class<?> type) {
+    this.type = type;
+  }
+
+  public static Reflector forClass(Class<?> type) {
+    return REFLECTORS.get(type);
+  }
+
+  public Class<?> getType() {
+    return type;
+  }
+
+  /**
+   * 获得属性的访问器
+   *
+   * @param name 属性名
+   * @return 访问器，属性不存在时返回 null
+   */
+  public Getter getGetter(String name) {
+    Getter getter = getters.get(name);
+    if (getter == null) {
+      getter = getters.computeIfAbsent(name, this::createGetter);
+    }
+    return getter == NO_GETTER ? null : getter;
+  }
+
+  public boolean hasGetter(String name) {
+    return getGetter(name) != null;
+  }
+
+  private Getter createGetter(String name) {
+    if (name.isEmpty()) {
+      return NO_GETTER;
+    }
+    try {
+      Method method = findGetterMethod(name);
+      if (method != null) {
+        return createGetter(method);
+      }
+      Field field = findField(name);
+      if (field != null) {
+        return new MethodHandleGetter(LOOKUP.unreflectGetter(field).asType(GETTER_TYPE));
+      }
+    } catch (IllegalAccessException e) {
+      // 没有访问权限时，视为属性不存在
+    }
+    return NO_GETTER;
+  }
+
+  private Method findGetterMethod(String name) {
+    String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    String[] candidates = isRecord(type)
+        ? new String[]{"get" + capitalized, "is" + capitalized, name}
+        : new String[]{"get" + capitalized, "is" + capitalized};
+    for (String methodName : candidates) {
+      for (Method method : type.getMethods()) {
+        if (method.getName().equals(methodName) && method.getParameterCount() == 0
+            && !Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class) {
+          Method accessible = getAccessibleMethod(method);
+          if (accessible == null) {
+            accessible = setAccessible(method) ? method : null;
+          }
+          if (accessible != null) {
+            return accessible;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private Field findField(String name) {
+    try {
+      Field field = type.getField(name);
+      if (!Modifier.isStatic(field.getModifiers())
+          && (Modifier.isPublic(field.getDeclaringClass().getModifiers()) || setAccessible(field))) {
+        return field;
+      }
+    } catch (NoSuchFieldException e) {
+      // ignore
+    }
+    return null;
+  }
+
+  /**
+   * 允许访问非 public 类中的 public 成员
+   *
+   * @return 是否成功，例如模块没有开放该类所在的包时失败
+   */
+  private static boolean setAccessible(AccessibleObject member) {
+    try {
+      member.setAccessible(true);
+      return true;
+    } catch (RuntimeException e) {
+      // InaccessibleObjectException 或 SecurityException
+      return false;
+    }
+  }
+
+  private static Getter createGetter(Method method) throws IllegalAccessException {
+    MethodHandle handle = LOOKUP.unreflect(method);
+    // 生成的访问器直接调用 getter ，只有 public 类中的方法可以链接
+    if (Modifier.isPublic(method.getDeclaringClass().getModifiers())
+        && isVisible(method.getDeclaringClass()) && isVisible(method.getReturnType())) {
+      try {
+        CallSite site = LambdaMetafactory.metafactory(LOOKUP, "getValue", MethodType.methodType(Getter.class),
+            GETTER_TYPE, handle, handle.type().wrap());
+        return (Getter) site.getTarget().invokeExact();
+      } catch (Throwable e) {
+        // 无法生成时使用 MethodHandle
+      }
+    }
+    return new MethodHandleGetter(handle.asType(GETTER_TYPE));
+  }
+
+  /**
+   * 生成的访问器定义在本类的 ClassLoader 中，只有 getter 涉及的类对它可见时才能链接
+   */
+  private static boolean isVisible(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    if (type.isPrimitive()) {
+      return true;
+    }
+    try {
+      return Class.forName(type.getName(), false, Reflector.class.getClassLoader()) == type;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  private static boolean isRecord(Class<?> type) {
+    Class<?> superclass = type.getSuperclass();
+    return superclass != null && "java.lang.Record".equals(superclass.getName());
+  }
+
+  /**
+   * 非 public 类（例如 Collections 的内部类）的方法无法直接调用，需要找到 public 的父类或接口中声明的同一个方法
+   *
+   * @param method 方法
+   * @return 可以调用的方法，找不到时返回 null
+   */
+  public static Method getAccessibleMethod(Method method) {
+    if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+      return method;
+    }
+    return findPublicMethod(method.getDeclaringClass(), method.getName(), method.getParameterTypes());
+  }
+
+  private static Method findPublicMethod(Class<?> type, String name, Class<?>[] parameterTypes) {
+    if (type == null) {
+      return null;
+    }
+    if (Modifier.isPublic(type.getModifiers())) {
+      try {
+        return type.getMethod(name, parameterTypes);
+      } catch (NoSuchMethodException e) {
+        // ignore
+      }
+    }
+    for (Class<?> anInterface : type.getInterfaces()) {
+      Method method = findPublicMethod(anInterface, name, parameterTypes);
+      if (method != null) {
+        return method;
+      }
+    }
+    return findPublicMethod(type.getSuperclass(), name, parameterTypes);
+  }
+
+  /**
+   * 属性访问器
+   */
+  @FunctionalInterface
+  public interface Getter {
+
+    /**
+     * 获得属性值，getter 抛出的异常原样抛出
+     *
+     * @param target 对象，不为 null
+     * @return 属性值
+     */
+    Object getValue(Object target);
+  }
+
+  private static final class MethodHandleGetter implements Getter {
+    private final MethodHandle handle;
+
+    private MethodHandleGetter(MethodHandle handle) {
+      this.handle = handle;
+    }
+
+    @Override
+    public Object getValue(Object target) {
+      try {
+        return handle.invokeExact(target);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new UndeclaredThrowableException(e);
+      }
+    }
+  }
+}
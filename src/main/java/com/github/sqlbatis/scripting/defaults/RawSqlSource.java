@@ -16,12 +16,18 @@
 package com.github.sqlbatis.scripting.defaults;
 
 import com.github.sqlbatis.builder.SqlSourceBuilder;
+import com.github.sqlbatis.builder.StaticSqlSource;
+import com.github.sqlbatis.formatting.SqlFormatter;
 import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.ParameterMapping;
 import com.github.sqlbatis.mapping.SqlSource;
 import com.github.sqlbatis.scripting.xmltags.DynamicContext;
 import com.github.sqlbatis.scripting.xmltags.DynamicSqlSource;
 import com.github.sqlbatis.scripting.xmltags.SqlNode;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Static SqlSource. It is faster than {@link DynamicSqlSource} because mappings are
  * calculated during startup.
@@ -35,11 +41,19 @@ public class RawSqlSource implements SqlSource {
     /**
      * SqlSource 对象
      */
-    private final SqlSource sqlSource;
+    private final StaticSqlSource sqlSource;
 
     public RawSqlSource(SqlNode rootSqlNode) {
-        // 1. 获得 Sql：getSql()
-        this(getSql(rootSqlNode));
+        this(rootSqlNode, false);
+    }
+
+    /**
+     * @param rootSqlNode 根 SqlNode 对象
+     * @param compact     是否生成紧凑的 SQL ：移除换行及多余空格
+     */
+    public RawSqlSource(SqlNode rootSqlNode, boolean compact) {
+        // 1. 获得 Sql 和 #{} 参数名：getSqlSource()
+        this.sqlSource = getSqlSource(rootSqlNode, compact);
     }
 
     /**
@@ -57,16 +71,52 @@ public class RawSqlSource implements SqlSource {
     }
 
     /**
-     * @param rootSqlNode
-     * @return
+     * 使用已经解析好的 SQL 和 ParameterMapping 创建，不再扫描 #{} ，见 SqlSourceCodec
+     *
+     * @param sql               #{} 已经替换为 ? 的 SQL
+     * @param parameterMappings 按顺序存储的 ParameterMapping
+     */
+    public RawSqlSource(String sql, List<ParameterMapping> parameterMappings) {
+        this.sqlSource = new StaticSqlSource(sql, parameterMappings);
+    }
+
+    /**
+     * 应用 rootSqlNode 生成 SQL 。#{} 在编译时已经替换为 ? ，这里按顺序记录 #{} 对应的 ParameterMapping
+     *
+     * @param rootSqlNode 根 SqlNode 对象
+     * @param compact     是否生成紧凑的 SQL
+     * @return StaticSqlSource 对象
      */
-    private static String getSql(SqlNode rootSqlNode) {
+    private static StaticSqlSource getSqlSource(SqlNode rootSqlNode, boolean compact) {
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
         // 创建 DynamicContext 对象
-        DynamicContext context = new DynamicContext(null);
+        DynamicContext context = new DynamicContext(null) {
+            @Override
+            public void appendParameter(ParameterMapping parameterMapping) {
+                parameterMappings.add(parameterMapping);
+            }
+        };
         // 将 DynamicContext 应用 rootSqlNode，相当于生成动态 SQL 。
         rootSqlNode.apply(context);
         // 获得 sql
-        return context.getSql();
+        String sql = compact ? SqlFormatter.format(context.getSql()) : context.getSql();
+        return new StaticSqlSource(sql, parameterMappings);
+    }
+
+    /**
+     * 获得预先计算好的 SQL（可能包含 ? 占位符）
+     *
+     * @return sql
+     */
+    public String getSql() {
+        return sqlSource.getSql();
+    }
+
+    /**
+     * @return 按顺序存储的 #{} 对应的 ParameterMapping
+     */
+    public List<ParameterMapping> getParameterMappings() {
+        return sqlSource.getParameterMappings();
     }
 
     /**
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Node;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 使用 javassist 把语法树编译为 {@link Node} 的子类，生成的类与 {@link ExpressionOps} 在同一个包中。
+ * <p>
+ * 只在 {@link CompiledExpression} 中使用，javassist 不可用时加载本类失败，表达式继续解释执行
+ *
+ * @author Laba Zhang
+ */
+final class BytecodeCompiler {
+
+    private static final String CLASS_NAME_PREFIX = BytecodeCompiler.class.getPackage().getName() + ".CompiledNode$";
+    private static final ClassPool POOL = new ClassPool(true);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    static {
+        POOL.appendClassPath(new LoaderClassPath(BytecodeCompiler.class.getClassLoader()));
+    }
+
+    private BytecodeCompiler() {
+        // Prevent Instantiation of Static Class
+    }
+
+    /**
+     * @return 编译后的节点，与 node 的求值结果一致
+     */
+    static Node compile(Node node) throws Exception {
+        CodeWriter out = new CodeWriter();
+        String result = node.compile(out);
+        String source = out.toSource(result);
+        Class<?> type;
+        // ClassPool 不是线程安全的
+        synchronized (POOL) {
+            CtClass ctClass = POOL.makeClass(CLASS_NAME_PREFIX + COUNTER.incrementAndGet(), POOL.get(Node.class.getName()));
+            try {
+                ctClass.addField(CtField.make("private final Object[] c;", ctClass));
+                ctClass.addConstructor(CtNewConstructor.make("public CompiledNode(Object[] c) { this.c = c; }", ctClass));
+                ctClass.addMethod(CtNewMethod.make("Object getValue(Object root) " + source, ctClass));
+                ctClass.addMethod(CtNewMethod.make("String compile(" + CodeWriter.class.getName() + " out) { throw new UnsupportedOperationException(); }", ctClass));
+                type = ctClass.toClass(ExpressionNodes.class);
+            } finally {
+                ctClass.detach();
+            }
+        }
+        return (Node) type.getConstructor(Object[].class).newInstance((Object) out.getConstants());
+    }
+}
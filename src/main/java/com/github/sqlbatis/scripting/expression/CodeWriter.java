@@ -0,0 +1,107 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.scripting.xmltags.DynamicContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 生成语法树节点对应的 Java 源码，由 {@link BytecodeCompiler} 编译为字节码。
+ * <p>
+ * 生成的代码调用与解释执行相同的 {@link ExpressionOps} 方法，求值结果、求值顺序和异常都与解释执行一致。
+ * 节点的值保存在方法开头声明的局部变量中，常量、属性名和变量的位置保存在数组 c 中
+ *
+ * @author Laba Zhang
+ */
+final class CodeWriter {
+
+    static final String OPS = ExpressionOps.class.getName();
+    static final String CONTEXT_MAP = DynamicContext.ContextMap.class.getName();
+
+    private final List<Object> constants = new ArrayList<>();
+    private final StringBuilder declarations = new StringBuilder();
+    private final StringBuilder body = new StringBuilder();
+    private int locals;
+    private boolean bindings;
+
+    /**
+     * @return 读取常量的代码，null 直接内联
+     */
+    String constant(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        constants.add(value);
+        return "c[" + (constants.size() - 1) + "]";
+    }
+
+    /**
+     * @return 读取常量并转换为 type 的代码
+     */
+    String constant(Object value, Class<?> type) {
+        return "((" + type.getName() + ") " + constant(value) + ")";
+    }
+
+    /**
+     * @return 新的 Object 类型的局部变量
+     */
+    String local() {
+        String name = "v" + locals++;
+        declarations.append("Object ").append(name).append(" = null;");
+        return name;
+    }
+
+    /**
+     * @return 新的 Object[] 类型的局部变量，在当前位置创建数组
+     */
+    String array(int length) {
+        String name = "a" + locals++;
+        declarations.append("Object[] ").append(name).append(" = null;");
+        body.append(name).append(" = new Object[").append(length).append("];");
+        return name;
+    }
+
+    /**
+     * @return root 为 ContextMap 时是它本身，否则为 null 的局部变量
+     */
+    String bindings() {
+        bindings = true;
+        return "m";
+    }
+
+    void line(String statement) {
+        body.append(statement);
+    }
+
+    Object[] getConstants() {
+        return constants.toArray();
+    }
+
+    /**
+     * @param result 表达式的值
+     * @return getValue 方法体
+     */
+    String toSource(String result) {
+        StringBuilder source = new StringBuilder("{");
+        if (bindings) {
+            source.append(CONTEXT_MAP).append(" m = null;")
+                    .append("if (root instanceof ").append(CONTEXT_MAP).append(") { m = (").append(CONTEXT_MAP).append(") root; }");
+        }
+        return source.append(declarations).append(body).append("return ").append(result).append(";}").toString();
+    }
+}
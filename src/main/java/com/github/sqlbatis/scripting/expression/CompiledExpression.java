@@ -0,0 +1,126 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Node;
+import com.github.sqlbatis.scripting.xmltags.OgnlCache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内置引擎编译后的表达式。
+ * <p>
+ * 先解释执行语法树，求值次数达到 {@link OgnlCache#getCompileThreshold()} 后由 {@link BytecodeCompiler} 编译为字节码。
+ * 生成的代码与解释执行调用相同的方法，不需要类型守卫，也不会回退；编译失败时一直解释执行
+ *
+ * @author Laba Zhang
+ */
+final class CompiledExpression implements Expression {
+
+    private static final int INTERPRETED = 0;
+    private static final int COMPILING = 1;
+    private static final int COMPILED = 2;
+    /**
+     * 编译失败，不再编译
+     */
+    private static final int INTERPRETED_ONLY = 3;
+
+    static final LongAdder compiledCount = new LongAdder();
+    static final LongAdder compileFailureCount = new LongAdder();
+
+    private final String expression;
+    private final Node node;
+    /**
+     * 编译后的节点，未编译时为 null
+     */
+    private volatile Node compiled;
+    /**
+     * 解释执行的次数，不需要精确
+     */
+    private volatile int invocations;
+    private final AtomicInteger state = new AtomicInteger(INTERPRETED);
+
+    CompiledExpression(String expression, Node node) {
+        this.expression = expression;
+        this.node = node;
+    }
+
+    @Override
+    public Object getValue(Object root) {
+        try {
+            Node current = compiled;
+            if (current == null) {
+                current = shouldCompile() ? compile() : node;
+            }
+            return current.getValue(root);
+        } catch (RuntimeException e) {
+            // 与 OgnlCache#getValue 的异常保持一致
+            throw new BuilderException("Error evaluating expression '" + expression + "'. Cause: " + e, e);
+        }
+    }
+
+    /**
+     * 记录一次解释执行
+     *
+     * @return 是否达到编译的阈值
+     */
+    private boolean shouldCompile() {
+        int threshold = OgnlCache.getCompileThreshold();
+        if (threshold <= 0 || state.get() != INTERPRETED) {
+            return false;
+        }
+        int current = invocations;
+        if (current < threshold) {
+            invocations = current + 1;
+        }
+        return current + 1 >= threshold;
+    }
+
+    /**
+     * 编译语法树，只由一个线程执行
+     *
+     * @return 编译后的节点，其它线程正在编译或编译失败时返回解释执行的节点
+     */
+    private Node compile() {
+        if (!state.compareAndSet(INTERPRETED, COMPILING)) {
+            return node;
+        }
+        try {
+            Node result = BytecodeCompiler.compile(node);
+            compiled = result;
+            state.set(COMPILED);
+            compiledCount.increment();
+            return result;
+        } catch (Exception | LinkageError e) {
+            // 例如 javassist 不可用、生成的方法过大
+            state.set(INTERPRETED_ONLY);
+            compileFailureCount.increment();
+            return node;
+        }
+    }
+
+    @Override
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
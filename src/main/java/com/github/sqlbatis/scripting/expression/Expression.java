@@ -0,0 +1,40 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+/**
+ * 编译后的表达式，用于 &lt;if test&gt;、&lt;when test&gt;、&lt;bind value&gt;、&lt;foreach collection&gt; 和 ${} 。
+ * <p>
+ * 表达式只在编译期解析一次，之后可以被多个线程并发求值。
+ *
+ * @author Laba Zhang
+ * @see ExpressionParser#parse(String)
+ */
+public interface Expression {
+
+    /**
+     * 计算表达式的值
+     *
+     * @param root 根对象，通常为 DynamicContext 的 bindings
+     * @return 表达式的值
+     */
+    Object getValue(Object root);
+
+    /**
+     * @return 原始表达式
+     */
+    String getExpression();
+}
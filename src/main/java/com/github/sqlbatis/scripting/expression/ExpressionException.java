@@ -0,0 +1,36 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.scripting.ScriptingException;
+
+/**
+ * 内置表达式求值时的异常，会被 {@link CompiledExpression} 包装为 BuilderException
+ *
+ * @author Laba Zhang
+ */
+class ExpressionException extends ScriptingException {
+
+    private static final long serialVersionUID = 2911548360468862231L;
+
+    ExpressionException(String message) {
+        super(message);
+    }
+
+    ExpressionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
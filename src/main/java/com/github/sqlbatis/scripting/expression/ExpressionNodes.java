@@ -0,0 +1,522 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.scripting.xmltags.BindingLayout;
+import com.github.sqlbatis.scripting.xmltags.DynamicContext;
+
+/**
+ * 内置表达式的语法树节点
+ *
+ * @author Laba Zhang
+ */
+final class ExpressionNodes {
+
+    private ExpressionNodes() {
+        // Prevent Instantiation of Static Class
+    }
+
+    abstract static class Node {
+
+        abstract Object getValue(Object root);
+
+        /**
+         * 生成与 {@link #getValue(Object)} 一致的代码
+         *
+         * @return 节点的值，局部变量或常量
+         */
+        abstract String compile(CodeWriter out);
+    }
+
+    static final class Const extends Node {
+        private final Object value;
+
+        Const(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            return value;
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            return out.constant(value);
+        }
+    }
+
+    /**
+     * 根对象本身，用于以变量的值为根对象的属性路径
+     */
+    static final class Root extends Node {
+
+        @Override
+        Object getValue(Object root) {
+            return root;
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            return "root";
+        }
+    }
+
+    /**
+     * 根对象的属性：name
+     */
+    static final class RootProperty extends Node {
+        private final String name;
+
+        RootProperty(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            return ExpressionOps.getRootProperty(root, name);
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String result = out.local();
+            out.line(result + " = " + CodeWriter.OPS + ".getRootProperty(root, " + out.constant(name, String.class) + ");");
+            return result;
+        }
+    }
+
+    /**
+     * 编译时已经确定位置的变量，根对象为 ContextMap 时按下标读取，否则与 {@link RootProperty} 一致
+     */
+    static final class Variable extends Node {
+        private final BindingLayout.Slot slot;
+
+        Variable(BindingLayout.Slot slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            if (root instanceof DynamicContext.ContextMap) {
+                return ((DynamicContext.ContextMap) root).resolve(slot);
+            }
+            return ExpressionOps.getRootProperty(root, slot.getName());
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String bindings = out.bindings();
+            String result = out.local();
+            out.line("if (" + bindings + " != null) { " + result + " = " + bindings + ".resolve(" + out.constant(slot, BindingLayout.Slot.class) + "); }"
+                    + " else { " + result + " = " + CodeWriter.OPS + ".getRootProperty(root, " + out.constant(slot.getName(), String.class) + "); }");
+            return result;
+        }
+    }
+
+    /**
+     * 属性：user.name
+     */
+    static final class Property extends Node {
+        private final Node target;
+        private final String name;
+        private final boolean nullSafe;
+
+        Property(Node target, String name, boolean nullSafe) {
+            this.target = target;
+            this.name = name;
+            this.nullSafe = nullSafe;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            Object source = target.getValue(root);
+            if (source == null && nullSafe) {
+                return null;
+            }
+            return ExpressionOps.getProperty(source, name);
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String source = target.compile(out);
+            String result = out.local();
+            String get = result + " = " + CodeWriter.OPS + ".getProperty(" + source + ", " + out.constant(name, String.class) + ");";
+            out.line(nullSafe ? "if (" + source + " != null) { " + get + " }" : get);
+            return result;
+        }
+    }
+
+    /**
+     * 下标：list[0]、map['key']
+     */
+    static final class Index extends Node {
+        private final Node target;
+        private final Node index;
+        private final boolean nullSafe;
+
+        Index(Node target, Node index, boolean nullSafe) {
+            this.target = target;
+            this.index = index;
+            this.nullSafe = nullSafe;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            Object source = target.getValue(root);
+            if (source == null && nullSafe) {
+                return null;
+            }
+            return ExpressionOps.getIndex(source, index.getValue(root));
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String source = target.compile(out);
+            String result = out.local();
+            if (nullSafe) {
+                out.line("if (" + source + " != null) {");
+            }
+            out.line(result + " = " + CodeWriter.OPS + ".getIndex(" + source + ", " + index.compile(out) + ");");
+            if (nullSafe) {
+                out.line("}");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 方法调用：name.trim()，没有 target 时调用根对象的方法
+     */
+    static final class MethodCall extends Node {
+        private final Node target;
+        private final String name;
+        private final Node[] args;
+        private final boolean nullSafe;
+
+        MethodCall(Node target, String name, Node[] args, boolean nullSafe) {
+            this.target = target;
+            this.name = name;
+            this.args = args;
+            this.nullSafe = nullSafe;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            Object source = target == null ? root : target.getValue(root);
+            if (source == null && nullSafe) {
+                return null;
+            }
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                values[i] = args[i].getValue(root);
+            }
+            return ExpressionOps.invoke(source, name, values);
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String source = target == null ? "root" : target.compile(out);
+            String result = out.local();
+            if (nullSafe) {
+                out.line("if (" + source + " != null) {");
+            }
+            String values = out.array(args.length);
+            for (int i = 0; i < args.length; i++) {
+                out.line(values + "[" + i + "] = " + args[i].compile(out) + ";");
+            }
+            out.line(result + " = " + CodeWriter.OPS + ".invoke(" + source + ", " + out.constant(name, String.class) + ", " + values + ");");
+            if (nullSafe) {
+                out.line("}");
+            }
+            return result;
+        }
+    }
+
+    static final class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            return !ExpressionOps.booleanValue(operand.getValue(root));
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String value = operand.compile(out);
+            String result = out.local();
+            out.line(result + " = Boolean.valueOf(!" + CodeWriter.OPS + ".booleanValue(" + value + "));");
+            return result;
+        }
+    }
+
+    static final class Negate extends Node {
+        private final Node operand;
+
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            return ExpressionOps.negate(operand.getValue(root));
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String value = operand.compile(out);
+            String result = out.local();
+            out.line(result + " = " + CodeWriter.OPS + ".negate(" + value + ");");
+            return result;
+        }
+    }
+
+    /**
+     * and / &amp;&amp; ，与 OGNL 一致，返回最后一个被计算的操作数
+     */
+    static final class And extends Node {
+        private final Node left;
+        private final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            Object value = left.getValue(root);
+            if (!ExpressionOps.booleanValue(value)) {
+                return value;
+            }
+            return right.getValue(root);
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String value = left.compile(out);
+            String result = out.local();
+            out.line(result + " = " + value + ";");
+            out.line("if (" + CodeWriter.OPS + ".booleanValue(" + value + ")) {");
+            out.line(result + " = " + right.compile(out) + ";");
+            out.line("}");
+            return result;
+        }
+    }
+
+    /**
+     * or / || ，与 OGNL 一致，返回最后一个被计算的操作数
+     */
+    static final class Or extends Node {
+        private final Node left;
+        private final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            Object value = left.getValue(root);
+            if (ExpressionOps.booleanValue(value)) {
+                return value;
+            }
+            return right.getValue(root);
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String value = left.compile(out);
+            String result = out.local();
+            out.line(result + " = " + value + ";");
+            out.line("if (!" + CodeWriter.OPS + ".booleanValue(" + value + ")) {");
+            out.line(result + " = " + right.compile(out) + ";");
+            out.line("}");
+            return result;
+        }
+    }
+
+    /**
+     * == / eq 、 != / neq
+     */
+    static final class Equal extends Node {
+        private final Node left;
+        private final Node right;
+        private final boolean negated;
+
+        Equal(Node left, Node right, boolean negated) {
+            this.left = left;
+            this.right = right;
+            this.negated = negated;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            return ExpressionOps.equal(left.getValue(root), right.getValue(root)) != negated;
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String l = left.compile(out);
+            String r = right.compile(out);
+            String result = out.local();
+            // 与 null 比较时 ExpressionOps.equal 等价于 ==
+            String test = "null".equals(l) || "null".equals(r) ? l + " == " + r : CodeWriter.OPS + ".equal(" + l + ", " + r + ")";
+            out.line(result + " = Boolean.valueOf(" + (negated ? "!(" + test + ")" : test) + ");");
+            return result;
+        }
+    }
+
+    /**
+     * 关系运算：&lt; 、&lt;= 、&gt; 、&gt;=
+     */
+    static final class Compare extends Node {
+        static final int LT = 0;
+        static final int LTE = 1;
+        static final int GT = 2;
+        static final int GTE = 3;
+
+        private final Node left;
+        private final Node right;
+        private final int operator;
+
+        Compare(Node left, Node right, int operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            int result = ExpressionOps.compare(left.getValue(root), right.getValue(root));
+            switch (operator) {
+                case LT:
+                    return result < 0;
+                case LTE:
+                    return result <= 0;
+                case GT:
+                    return result > 0;
+                default:
+                    return result >= 0;
+            }
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String l = left.compile(out);
+            String r = right.compile(out);
+            String result = out.local();
+            String[] operators = {"<", "<=", ">", ">="};
+            out.line(result + " = Boolean.valueOf(" + CodeWriter.OPS + ".compare(" + l + ", " + r + ") " + operators[operator] + " 0);");
+            return result;
+        }
+    }
+
+    /**
+     * 算术运算：+ 、- 、* 、/ 、%
+     */
+    static final class Arithmetic extends Node {
+        private final Node left;
+        private final Node right;
+        private final char operator;
+
+        Arithmetic(Node left, Node right, char operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            Object l = left.getValue(root);
+            Object r = right.getValue(root);
+            switch (operator) {
+                case '+':
+                    return ExpressionOps.add(l, r);
+                case '-':
+                    return ExpressionOps.subtract(l, r);
+                case '*':
+                    return ExpressionOps.multiply(l, r);
+                case '/':
+                    return ExpressionOps.divide(l, r);
+                default:
+                    return ExpressionOps.remainder(l, r);
+            }
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String l = left.compile(out);
+            String r = right.compile(out);
+            String result = out.local();
+            String method;
+            switch (operator) {
+                case '+':
+                    method = "add";
+                    break;
+                case '-':
+                    method = "subtract";
+                    break;
+                case '*':
+                    method = "multiply";
+                    break;
+                case '/':
+                    method = "divide";
+                    break;
+                default:
+                    method = "remainder";
+            }
+            out.line(result + " = " + CodeWriter.OPS + "." + method + "(" + l + ", " + r + ");");
+            return result;
+        }
+    }
+
+    /**
+     * 三元运算：test ? a : b
+     */
+    static final class Conditional extends Node {
+        private final Node test;
+        private final Node whenTrue;
+        private final Node whenFalse;
+
+        Conditional(Node test, Node whenTrue, Node whenFalse) {
+            this.test = test;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        Object getValue(Object root) {
+            return ExpressionOps.booleanValue(test.getValue(root)) ? whenTrue.getValue(root) : whenFalse.getValue(root);
+        }
+
+        @Override
+        String compile(CodeWriter out) {
+            String value = test.compile(out);
+            String result = out.local();
+            out.line("if (" + CodeWriter.OPS + ".booleanValue(" + value + ")) {");
+            out.line(result + " = " + whenTrue.compile(out) + ";");
+            out.line("} else {");
+            out.line(result + " = " + whenFalse.compile(out) + ";");
+            out.line("}");
+            return result;
+        }
+    }
+}
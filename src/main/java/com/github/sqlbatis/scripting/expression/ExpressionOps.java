@@ -0,0 +1,584 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.reflection.ArrayUtil;
+import com.github.sqlbatis.reflection.ExceptionUtil;
+import com.github.sqlbatis.reflection.Reflector;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 表达式的运算规则，与 OGNL 的 OgnlOps 保持一致。
+ * <p>
+ * OGNL 会抛出异常的少数情况（例如字符与字符串比较、枚举与字符串比较）在这里按字符串比较处理。
+ *
+ * @author Laba Zhang
+ */
+final class ExpressionOps {
+
+    /**
+     * 与 DynamicContext.PARAMETER_OBJECT_KEY 一致
+     */
+    private static final String PARAMETER_OBJECT_KEY = "_parameter";
+
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int BIG_INTEGER = 2;
+    private static final int DOUBLE = 3;
+    private static final int BIG_DECIMAL = 4;
+
+    /**
+     * 方法的缓存，KEY：类 -> 方法名/参数个数
+     */
+    private static final Map<Class<?>, Map<String, List<Method>>> METHOD_CACHE = new ConcurrentHashMap<>();
+
+    private ExpressionOps() {
+        // Prevent Instantiation of Static Class
+    }
+
+    // ====== 逻辑运算 ======
+
+    /**
+     * 与 OgnlOps#booleanValue 一致：null 为 false，数字和字符不等于 0 为 true，其它非空对象都为 true
+     */
+    static boolean booleanValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Character) {
+            return (Character) value != 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        }
+        return true;
+    }
+
+    // ====== 比较运算 ======
+
+    static boolean equal(Object left, Object right) {
+        if (left == right) {
+            return true;
+        }
+        if (left == null || right == null) {
+            return false;
+        }
+        if (left.getClass().isArray() && right.getClass().isArray()) {
+            return ArrayUtil.equals(left, right);
+        }
+        if (isNumeric(left) && isNumeric(right)) {
+            return compareNumbers(left, right) == 0;
+        }
+        if (left.equals(right)) {
+            return true;
+        }
+        if (isNumeric(left) || isNumeric(right)) {
+            if (left instanceof Character || right instanceof Character) {
+                return left.toString().equals(right.toString());
+            }
+            try {
+                return compareNumbers(left, right) == 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (left instanceof Enum || right instanceof Enum) {
+            return stringValue(left).equals(stringValue(right));
+        }
+        if (left instanceof Comparable && left.getClass().isAssignableFrom(right.getClass())) {
+            return compareComparable(left, right) == 0;
+        }
+        return false;
+    }
+
+    /**
+     * 与 OgnlOps#compareWithConversion 一致：只要有一方为数字，就按数字比较，null 和空字符串视为 0
+     */
+    static int compare(Object left, Object right) {
+        if (left == right) {
+            return 0;
+        }
+        boolean numeric = isNumeric(left) || isNumeric(right);
+        if (!numeric || left instanceof Character && right instanceof String || left instanceof String && right instanceof Character) {
+            if (left == null || right == null) {
+                throw new IllegalArgumentException("invalid comparison: " + left + " and " + right);
+            }
+            if (left instanceof Enum || right instanceof Enum || left instanceof Character || right instanceof Character) {
+                return stringValue(left).compareTo(stringValue(right));
+            }
+            if (left instanceof Comparable && left.getClass().isAssignableFrom(right.getClass())) {
+                return compareComparable(left, right);
+            }
+            if (right instanceof Comparable && right.getClass().isAssignableFrom(left.getClass())) {
+                return -compareComparable(right, left);
+            }
+            throw new IllegalArgumentException("invalid comparison: " + left.getClass().getName() + " and " + right.getClass().getName());
+        }
+        return compareNumbers(left, right);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareComparable(Object left, Object right) {
+        return ((Comparable) left).compareTo(right);
+    }
+
+    private static int compareNumbers(Object left, Object right) {
+        Number l = toNumber(left);
+        Number r = toNumber(right);
+        switch (numericType(l, r)) {
+            case INT:
+            case LONG:
+                return Long.compare(l.longValue(), r.longValue());
+            case BIG_INTEGER:
+                return toBigInteger(l).compareTo(toBigInteger(r));
+            case BIG_DECIMAL:
+                return toBigDecimal(l).compareTo(toBigDecimal(r));
+            default:
+                return Double.compare(l.doubleValue(), r.doubleValue());
+        }
+    }
+
+    // ====== 算术运算 ======
+
+    static Object add(Object left, Object right) {
+        boolean leftNumeric = isNumeric(left) && !(left instanceof Character);
+        boolean rightNumeric = isNumeric(right) && !(right instanceof Character);
+        if (!leftNumeric || !rightNumeric) {
+            if (leftNumeric && right == null || rightNumeric && left == null) {
+                throw new NullPointerException("Can't add values " + left + " , " + right);
+            }
+            // 字符串拼接，null 拼接为 "null"
+            return stringValue(left) + stringValue(right);
+        }
+        Number l = toNumber(left);
+        Number r = toNumber(right);
+        switch (numericType(l, r)) {
+            case INT:
+                return l.intValue() + r.intValue();
+            case LONG:
+                return l.longValue() + r.longValue();
+            case BIG_INTEGER:
+                return toBigInteger(l).add(toBigInteger(r));
+            case BIG_DECIMAL:
+                return toBigDecimal(l).add(toBigDecimal(r));
+            default:
+                return l.doubleValue() + r.doubleValue();
+        }
+    }
+
+    static Object subtract(Object left, Object right) {
+        Number l = toNumber(left);
+        Number r = toNumber(right);
+        switch (numericType(l, r)) {
+            case INT:
+                return l.intValue() - r.intValue();
+            case LONG:
+                return l.longValue() - r.longValue();
+            case BIG_INTEGER:
+                return toBigInteger(l).subtract(toBigInteger(r));
+            case BIG_DECIMAL:
+                return toBigDecimal(l).subtract(toBigDecimal(r));
+            default:
+                return l.doubleValue() - r.doubleValue();
+        }
+    }
+
+    static Object multiply(Object left, Object right) {
+        Number l = toNumber(left);
+        Number r = toNumber(right);
+        switch (numericType(l, r)) {
+            case INT:
+                return l.intValue() * r.intValue();
+            case LONG:
+                return l.longValue() * r.longValue();
+            case BIG_INTEGER:
+                return toBigInteger(l).multiply(toBigInteger(r));
+            case BIG_DECIMAL:
+                return toBigDecimal(l).multiply(toBigDecimal(r));
+            default:
+                return l.doubleValue() * r.doubleValue();
+        }
+    }
+
+    static Object divide(Object left, Object right) {
+        Number l = toNumber(left);
+        Number r = toNumber(right);
+        switch (numericType(l, r)) {
+            case INT:
+                return l.intValue() / r.intValue();
+            case LONG:
+                return l.longValue() / r.longValue();
+            case BIG_INTEGER:
+                return toBigInteger(l).divide(toBigInteger(r));
+            case BIG_DECIMAL:
+                return toBigDecimal(l).divide(toBigDecimal(r), RoundingMode.HALF_EVEN);
+            default:
+                return l.doubleValue() / r.doubleValue();
+        }
+    }
+
+    static Object remainder(Object left, Object right) {
+        Number l = toNumber(left);
+        Number r = toNumber(right);
+        switch (numericType(l, r)) {
+            case INT:
+                return l.intValue() % r.intValue();
+            case LONG:
+                return l.longValue() % r.longValue();
+            case BIG_INTEGER:
+            case BIG_DECIMAL:
+                return toBigInteger(l).remainder(toBigInteger(r));
+            default:
+                return l.doubleValue() % r.doubleValue();
+        }
+    }
+
+    static Object negate(Object value) {
+        Number n = toNumber(value);
+        switch (numericType(n, n)) {
+            case INT:
+                return -n.intValue();
+            case LONG:
+                return -n.longValue();
+            case BIG_INTEGER:
+                return toBigInteger(n).negate();
+            case BIG_DECIMAL:
+                return toBigDecimal(n).negate();
+            default:
+                return -n.doubleValue();
+        }
+    }
+
+    private static boolean isNumeric(Object value) {
+        return value instanceof Number || value instanceof Character || value instanceof Boolean;
+    }
+
+    /**
+     * 与 OgnlOps 一致：null 和空字符串为 0 ，布尔值为 1 或 0 ，字符为其编码
+     */
+    private static Number toNumber(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        if (value instanceof Character) {
+            return (int) (Character) value;
+        }
+        String s = value.toString().trim();
+        if (s.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return new BigDecimal(s);
+        }
+    }
+
+    private static int numericType(Number left, Number right) {
+        return Math.max(numericType(left), numericType(right)) == BIG_INTEGER
+                && (numericType(left) == DOUBLE || numericType(right) == DOUBLE)
+                ? BIG_DECIMAL : Math.max(numericType(left), numericType(right));
+    }
+
+    private static int numericType(Number value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return INT;
+        }
+        if (value instanceof Long) {
+            return LONG;
+        }
+        if (value instanceof BigInteger) {
+            return BIG_INTEGER;
+        }
+        if (value instanceof BigDecimal) {
+            return BIG_DECIMAL;
+        }
+        return DOUBLE;
+    }
+
+    private static BigInteger toBigInteger(Number value) {
+        if (value instanceof BigInteger) {
+            return (BigInteger) value;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toBigInteger();
+        }
+        return BigInteger.valueOf(value.longValue());
+    }
+
+    private static BigDecimal toBigDecimal(Number value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return BigDecimal.valueOf(value.doubleValue());
+        }
+        return BigDecimal.valueOf(value.longValue());
+    }
+
+    static String stringValue(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return String.valueOf(value);
+    }
+
+    // ====== 属性和方法 ======
+
+    /**
+     * 获得根对象的属性，与 DynamicContext.ContextAccessor 一致：先从 bindings 中获取，没有再按 {@link ParameterProperties}
+     * 从 _parameter 中获取。根对象不是 Map 时，它本身就是参数对象
+     */
+    static Object getRootProperty(Object root, String name) {
+        if (root instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) root;
+            Object result = map.get(name);
+            if (result != null || map.containsKey(name)) {
+                return result;
+            }
+            return ParameterProperties.get(map.get(PARAMETER_OBJECT_KEY), name);
+        }
+        return ParameterProperties.get(root, name);
+    }
+
+    /**
+     * 获得对象的属性，Map 、集合和数组的特殊属性与 OGNL 的 PropertyAccessor 一致
+     */
+    static Object getProperty(Object target, String name) {
+        if (target == null) {
+            throw new ExpressionException("source is null for getProperty(null, \"" + name + "\")");
+        }
+        if (target instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) target;
+            switch (name) {
+                case "size":
+                    return map.size();
+                case "keys":
+                case "keySet":
+                    return map.keySet();
+                case "values":
+                    return map.values();
+                case "isEmpty":
+                    return map.isEmpty();
+                default:
+                    return map.get(name);
+            }
+        }
+        if (target instanceof Collection) {
+            Collection<?> collection = (Collection<?>) target;
+            switch (name) {
+                case "size":
+                    return collection.size();
+                case "isEmpty":
+                case "empty":
+                    return collection.isEmpty();
+                case "iterator":
+                    return collection.iterator();
+                default:
+                    break;
+            }
+        } else if (target.getClass().isArray() && "length".equals(name)) {
+            return Array.getLength(target);
+        }
+        return getBeanProperty(target, name);
+    }
+
+    /**
+     * 获得下标对应的值：list[0]、array[0]、map['key']、bean['name']
+     */
+    static Object getIndex(Object target, Object index) {
+        if (target == null) {
+            throw new ExpressionException("source is null for getProperty(null, " + index + ")");
+        }
+        if (target instanceof Map) {
+            return ((Map<?, ?>) target).get(index);
+        }
+        if (index instanceof Number) {
+            int i = ((Number) index).intValue();
+            if (target instanceof List) {
+                return ((List<?>) target).get(i);
+            }
+            if (target.getClass().isArray()) {
+                return Array.get(target, i);
+            }
+        }
+        if (index instanceof String) {
+            return getProperty(target, (String) index);
+        }
+        throw new ExpressionException("Can't index " + target.getClass().getName() + " with " + index);
+    }
+
+    private static Object getBeanProperty(Object target, String name) {
+        Reflector.Getter getter = Reflector.forClass(target.getClass()).getGetter(name);
+        if (getter == null) {
+            throw new ExpressionException("No such property '" + name + "' in " + target.getClass().getName());
+        }
+        return getValue(getter, target, name);
+    }
+
+    private static Object getValue(Reflector.Getter getter, Object target, String name) {
+        try {
+            return getter.getValue(target);
+        } catch (Exception e) {
+            throw new ExpressionException("Error getting property '" + name + "' of " + target.getClass().getName(), ExceptionUtil.unwrapThrowable(e));
+        }
+    }
+
+    /**
+     * 调用对象的 public 方法，按参数个数和参数类型选择重载的方法
+     */
+    static Object invoke(Object target, String name, Object[] args) {
+        if (target == null) {
+            throw new ExpressionException("source is null for method call " + name + "()");
+        }
+        Class<?> type = target.getClass();
+        List<Method> candidates = METHOD_CACHE
+                .computeIfAbsent(type, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name + "/" + args.length, k -> findMethods(type, name, args.length));
+        for (Method method : candidates) {
+            Object[] converted = convertArgs(method.getParameterTypes(), args);
+            if (converted != null) {
+                try {
+                    return method.invoke(target, converted);
+                } catch (Exception e) {
+                    throw new ExpressionException("Error invoking method '" + name + "' of " + type.getName(), ExceptionUtil.unwrapThrowable(e));
+                }
+            }
+        }
+        throw new ExpressionException("No such method '" + name + "' with " + args.length + " arguments in " + type.getName());
+    }
+
+    private static List<Method> findMethods(Class<?> type, String name, int parameterCount) {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == parameterCount && !method.isBridge()) {
+                Method accessible = Reflector.getAccessibleMethod(method);
+                if (accessible != null) {
+                    methods.add(accessible);
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * 将参数转换为方法的参数类型，无法转换时返回 null
+     */
+    private static Object[] convertArgs(Class<?>[] parameterTypes, Object[] args) {
+        Object[] converted = args;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+            Object arg = args[i];
+            if (arg == null) {
+                if (parameterType.isPrimitive()) {
+                    return null;
+                }
+                continue;
+            }
+            Class<?> boxed = box(parameterType);
+            if (boxed.isInstance(arg)) {
+                continue;
+            }
+            Object value;
+            if (arg instanceof Number && Number.class.isAssignableFrom(boxed)) {
+                value = convertNumber((Number) arg, boxed);
+            } else if (arg instanceof Character && (boxed == String.class || boxed == CharSequence.class)) {
+                value = arg.toString();
+            } else if (arg instanceof String && boxed == Character.class && ((String) arg).length() == 1) {
+                value = ((String) arg).charAt(0);
+            } else {
+                return null;
+            }
+            if (value == null) {
+                return null;
+            }
+            if (converted == args) {
+                converted = args.clone();
+            }
+            converted[i] = value;
+        }
+        return converted;
+    }
+
+    private static Object convertNumber(Number value, Class<?> type) {
+        if (type == Integer.class) {
+            return value.intValue();
+        } else if (type == Long.class) {
+            return value.longValue();
+        } else if (type == Double.class) {
+            return value.doubleValue();
+        } else if (type == Float.class) {
+            return value.floatValue();
+        } else if (type == Short.class) {
+            return value.shortValue();
+        } else if (type == Byte.class) {
+            return value.byteValue();
+        } else if (type == BigDecimal.class) {
+            return toBigDecimal(value);
+        } else if (type == BigInteger.class) {
+            return toBigInteger(value);
+        } else if (type == Number.class) {
+            return value;
+        }
+        return null;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == char.class) {
+            return Character.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        }
+        return Void.class;
+    }
+}
@@ -0,0 +1,613 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.And;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Arithmetic;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Compare;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Conditional;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Const;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Equal;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Index;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.MethodCall;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Negate;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Node;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Not;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Or;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Property;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Root;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.RootProperty;
+import com.github.sqlbatis.scripting.expression.ExpressionNodes.Variable;
+import com.github.sqlbatis.scripting.xmltags.BindingLayout;
+import com.github.sqlbatis.scripting.xmltags.OgnlCache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 表达式解析器，将表达式编译为 {@link Expression} 。
+ * <p>
+ * 内置引擎支持动态 SQL 中常用的 OGNL 子集：
+ * <ul>
+ *     <li>属性、下标和方法调用：user.name 、list[0] 、map['key'] 、name.trim()</li>
+ *     <li>逻辑运算：and 、or 、not 、&amp;&amp; 、|| 、!</li>
+ *     <li>比较运算：== 、!= 、&lt; 、&lt;= 、&gt; 、&gt;= 、eq 、neq 、lt 、lte 、gt 、gte</li>
+ *     <li>算术运算：+ 、- 、* 、/ 、%</li>
+ *     <li>三元运算 、常量（null 、true 、false 、数字 、字符串 、字符）</li>
+ * </ul>
+ * 其它语法（例如 #this 、@Class@method() 、in 、集合投影）交给 OGNL 处理，见 {@link OgnlExpression} 。
+ * <p>
+ * 设置 {@link OgnlCache#setCompileThreshold(int)} 后，内置引擎的表达式求值次数达到阈值时编译为字节码（需要 javassist），
+ * 见 {@link #getCompiledCount()} 。
+ *
+ * @author Laba Zhang
+ */
+public final class ExpressionParser {
+
+    /**
+     * 内置引擎不支持的 OGNL 关键字
+     */
+    private static final Set<String> UNSUPPORTED_KEYWORDS = new HashSet<>(Arrays.asList(
+            "in", "instanceof", "new", "shl", "shr", "ushr", "band", "bor", "xor"));
+
+    private ExpressionParser() {
+        // Prevent Instantiation of Static Class
+    }
+
+    /**
+     * 解析表达式。内置引擎不支持的表达式返回 {@link OgnlExpression} ，由 OGNL 在求值时解析
+     *
+     * @param expression 表达式
+     * @return 编译后的表达式
+     */
+    public static Expression parse(String expression) {
+        return parse(expression, null);
+    }
+
+    /**
+     * 解析语句中的表达式，引用的变量在编译时从变量表中获得位置，渲染时按下标读取
+     *
+     * @param expression 表达式
+     * @param layout     语句的变量表，为 null 时渲染时按变量名查找
+     * @return 编译后的表达式
+     */
+    public static Expression parse(String expression, BindingLayout layout) {
+        if (expression == null) {
+            return new OgnlExpression(null);
+        }
+        try {
+            Parser parser = new Parser(expression, layout);
+            Node node = parser.parseExpression();
+            parser.expectEnd();
+            return new CompiledExpression(expression, node);
+        } catch (UnsupportedSyntaxException e) {
+            return new OgnlExpression(expression);
+        }
+    }
+
+    /**
+     * 解析 #{} 中的属性路径，例如 user.address.city 、list[0] 。
+     * <p>
+     * 与 {@link #parse(String)} 不同，路径中间的对象为 null 时返回 null ，而不是抛出异常
+     *
+     * @param property 属性路径
+     * @return 编译后的表达式
+     */
+    public static Expression parseProperty(String property) {
+        return parseProperty(property, null);
+    }
+
+    /**
+     * 与 {@link #parseProperty(String)} 一致，引用的变量在编译时从变量表中获得位置
+     *
+     * @param property 属性路径
+     * @param layout   语句的变量表，为 null 时渲染时按变量名查找
+     * @return 编译后的表达式
+     */
+    public static Expression parseProperty(String property, BindingLayout layout) {
+        if (property == null) {
+            return new OgnlExpression(null);
+        }
+        try {
+            Parser parser = new Parser(property, layout);
+            parser.nullSafe = true;
+            Node node = parser.parseExpression();
+            parser.expectEnd();
+            return new CompiledExpression(property, node);
+        } catch (UnsupportedSyntaxException e) {
+            return new OgnlExpression(property);
+        }
+    }
+
+    /**
+     * 解析以变量开头的属性路径，返回的表达式以变量的值作为根对象，与 {@link #parseProperty(String)} 一样是 null 安全的。
+     * <p>
+     * 例如：variable 为 item 时，{@code item} 返回变量的值本身，{@code item.name} 返回变量的值的 name 属性
+     *
+     * @param property 属性路径
+     * @param variable 变量名
+     * @return 编译后的表达式；property 不以 variable 开头或者内置引擎不支持时返回 null
+     */
+    public static Expression parseMemberPath(String property, String variable) {
+        if (property == null || variable == null || !property.startsWith(variable)) {
+            return null;
+        }
+        try {
+            Parser parser = new Parser(property, null);
+            parser.nullSafe = true;
+            parser.pos = variable.length();
+            parser.skipWhitespace();
+            // 变量名只是 property 中某个标识符的前缀，例如 items.size
+            if (parser.pos < property.length() && property.charAt(parser.pos) != '.' && property.charAt(parser.pos) != '[') {
+                return null;
+            }
+            Node node = parser.parsePostfix(new Root());
+            parser.expectEnd();
+            return new CompiledExpression(property, node);
+        } catch (UnsupportedSyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 编译为字节码的内置引擎表达式个数
+     */
+    public static long getCompiledCount() {
+        return CompiledExpression.compiledCount.sum();
+    }
+
+    public static long getCompileFailureCount() {
+        return CompiledExpression.compileFailureCount.sum();
+    }
+
+    /**
+     * 内置引擎无法解析时抛出，不记录堆栈
+     */
+    private static final class UnsupportedSyntaxException extends RuntimeException {
+        private static final long serialVersionUID = -4214305410718938224L;
+        private static final UnsupportedSyntaxException INSTANCE = new UnsupportedSyntaxException();
+
+        private UnsupportedSyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 递归下降解析器，优先级从低到高：三元 、or 、and 、相等 、关系 、加减 、乘除 、一元 、后缀 、基本
+     */
+    private static final class Parser {
+
+        private final String text;
+        /**
+         * 语句的变量表，为 null 时变量按名字查找
+         */
+        private final BindingLayout layout;
+        private int pos;
+        /**
+         * 属性 、下标和方法调用的对象为 null 时返回 null
+         */
+        private boolean nullSafe;
+
+        private Parser(String text, BindingLayout layout) {
+            this.text = text;
+            this.layout = layout;
+        }
+
+        Node parseExpression() {
+            Node test = parseOr();
+            if (accept("?")) {
+                Node whenTrue = parseExpression();
+                expect(":");
+                Node whenFalse = parseExpression();
+                return new Conditional(test, whenTrue, whenFalse);
+            }
+            return test;
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw unsupported();
+            }
+        }
+
+        private Node parseOr() {
+            Node left = parseAnd();
+            while (accept("||") || acceptKeyword("or")) {
+                left = new Or(left, parseAnd());
+            }
+            return left;
+        }
+
+        private Node parseAnd() {
+            Node left = parseEquality();
+            while (accept("&&") || acceptKeyword("and")) {
+                left = new And(left, parseEquality());
+            }
+            return left;
+        }
+
+        private Node parseEquality() {
+            Node left = parseRelational();
+            while (true) {
+                if (accept("==") || acceptKeyword("eq")) {
+                    left = new Equal(left, parseRelational(), false);
+                } else if (accept("!=") || acceptKeyword("neq")) {
+                    left = new Equal(left, parseRelational(), true);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseRelational() {
+            Node left = parseAdditive();
+            while (true) {
+                if (accept("<=") || acceptKeyword("lte")) {
+                    left = new Compare(left, parseAdditive(), Compare.LTE);
+                } else if (accept("<") || acceptKeyword("lt")) {
+                    left = new Compare(left, parseAdditive(), Compare.LT);
+                } else if (accept(">=") || acceptKeyword("gte")) {
+                    left = new Compare(left, parseAdditive(), Compare.GTE);
+                } else if (accept(">") || acceptKeyword("gt")) {
+                    left = new Compare(left, parseAdditive(), Compare.GT);
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseAdditive() {
+            Node left = parseMultiplicative();
+            while (true) {
+                if (accept("+")) {
+                    left = new Arithmetic(left, parseMultiplicative(), '+');
+                } else if (accept("-")) {
+                    left = new Arithmetic(left, parseMultiplicative(), '-');
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseMultiplicative() {
+            Node left = parseUnary();
+            while (true) {
+                if (accept("*")) {
+                    left = new Arithmetic(left, parseUnary(), '*');
+                } else if (accept("/")) {
+                    left = new Arithmetic(left, parseUnary(), '/');
+                } else if (accept("%")) {
+                    left = new Arithmetic(left, parseUnary(), '%');
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseUnary() {
+            if (accept("!") || acceptKeyword("not")) {
+                return new Not(parseUnary());
+            }
+            if (accept("-")) {
+                return new Negate(parseUnary());
+            }
+            return parsePostfix(parsePrimary());
+        }
+
+        private Node parsePostfix(Node node) {
+            while (true) {
+                if (accept(".")) {
+                    String name = parseIdentifier();
+                    node = accept("(") ? new MethodCall(node, name, parseArguments(), nullSafe) : new Property(node, name, nullSafe);
+                } else if (accept("[")) {
+                    Node index = parseExpression();
+                    expect("]");
+                    node = new Index(node, index, nullSafe);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node parsePrimary() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw unsupported();
+            }
+            char c = text.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Node node = parseExpression();
+                expect(")");
+                return node;
+            }
+            if (c == '\'' || c == '"') {
+                return new Const(parseString(c));
+            }
+            if (c >= '0' && c <= '9') {
+                return new Const(parseNumber());
+            }
+            String name = parseIdentifier();
+            switch (name) {
+                case "null":
+                    return new Const(null);
+                case "true":
+                    return new Const(Boolean.TRUE);
+                case "false":
+                    return new Const(Boolean.FALSE);
+                default:
+                    break;
+            }
+            if (accept("(")) {
+                return new MethodCall(null, name, parseArguments(), false);
+            }
+            return layout == null ? new RootProperty(name) : new Variable(layout.slot(name));
+        }
+
+        private Node[] parseArguments() {
+            List<Node> args = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    args.add(parseExpression());
+                } while (accept(","));
+                expect(")");
+            }
+            return args.toArray(new Node[0]);
+        }
+
+        private String parseIdentifier() {
+            skipWhitespace();
+            int start = pos;
+            if (pos < text.length() && Character.isJavaIdentifierStart(text.charAt(pos))) {
+                pos++;
+                while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+                    pos++;
+                }
+            }
+            if (start == pos) {
+                throw unsupported();
+            }
+            String name = text.substring(start, pos);
+            if (isOperatorKeyword(name) || UNSUPPORTED_KEYWORDS.contains(name)) {
+                throw unsupported();
+            }
+            return name;
+        }
+
+        /**
+         * 与 OGNL 一致：单引号中只有一个字符时为 Character ，否则为 String
+         */
+        private Object parseString(char quote) {
+            StringBuilder builder = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == quote) {
+                    if (quote == '\'' && builder.length() == 1) {
+                        return builder.charAt(0);
+                    }
+                    return builder.toString();
+                }
+                if (c == '\\') {
+                    if (pos >= text.length()) {
+                        break;
+                    }
+                    char escaped = text.charAt(pos++);
+                    switch (escaped) {
+                        case 'n':
+                            builder.append('\n');
+                            break;
+                        case 't':
+                            builder.append('\t');
+                            break;
+                        case 'r':
+                            builder.append('\r');
+                            break;
+                        case 'b':
+                            builder.append('\b');
+                            break;
+                        case 'f':
+                            builder.append('\f');
+                            break;
+                        case 'u':
+                            if (pos + 4 > text.length()) {
+                                throw unsupported();
+                            }
+                            try {
+                                builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                            } catch (NumberFormatException e) {
+                                throw unsupported();
+                            }
+                            pos += 4;
+                            break;
+                        case '\\':
+                        case '\'':
+                        case '"':
+                            builder.append(escaped);
+                            break;
+                        default:
+                            throw unsupported();
+                    }
+                } else {
+                    builder.append(c);
+                }
+            }
+            // 字符串未结束
+            throw unsupported();
+        }
+
+        /**
+         * 整数为 Integer（超出范围为 Long），小数为 Double ，后缀 L 、F 、D 、B（BigDecimal）、H（BigInteger）
+         */
+        private Object parseNumber() {
+            int start = pos;
+            if (text.startsWith("0x", pos) || text.startsWith("0X", pos)) {
+                pos += 2;
+                while (pos < text.length() && Character.digit(text.charAt(pos), 16) >= 0) {
+                    pos++;
+                }
+                String hex = text.substring(start + 2, pos);
+                if (hex.isEmpty()) {
+                    throw unsupported();
+                }
+                return toInteger(new BigInteger(hex, 16), integerSuffix());
+            }
+            skipDigits();
+            boolean decimal = false;
+            if (pos + 1 < text.length() && text.charAt(pos) == '.' && Character.isDigit(text.charAt(pos + 1))) {
+                decimal = true;
+                pos++;
+                skipDigits();
+            }
+            if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+                decimal = true;
+                pos++;
+                if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                    pos++;
+                }
+                int exponent = pos;
+                skipDigits();
+                if (exponent == pos) {
+                    throw unsupported();
+                }
+            }
+            String digits = text.substring(start, pos);
+            // 八进制交给 OGNL
+            if (!decimal && digits.length() > 1 && digits.charAt(0) == '0') {
+                throw unsupported();
+            }
+            char suffix = pos < text.length() ? Character.toUpperCase(text.charAt(pos)) : 0;
+            switch (suffix) {
+                case 'B':
+                    pos++;
+                    return new BigDecimal(digits);
+                case 'D':
+                    pos++;
+                    return Double.valueOf(digits);
+                case 'F':
+                    pos++;
+                    return Float.valueOf(digits);
+                default:
+                    if (decimal) {
+                        return Double.valueOf(digits);
+                    }
+                    return toInteger(new BigInteger(digits), integerSuffix());
+            }
+        }
+
+        private char integerSuffix() {
+            char suffix = pos < text.length() ? Character.toUpperCase(text.charAt(pos)) : 0;
+            if (suffix == 'L' || suffix == 'H') {
+                pos++;
+                return suffix;
+            }
+            return 0;
+        }
+
+        private Object toInteger(BigInteger value, char suffix) {
+            if (suffix == 'H') {
+                return value;
+            }
+            if (suffix == 'L' || value.bitLength() >= 32) {
+                if (value.bitLength() >= 64) {
+                    throw unsupported();
+                }
+                return value.longValue();
+            }
+            return value.intValue();
+        }
+
+        private void skipDigits() {
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        /**
+         * 匹配运算符。! 、&lt; 、&gt; 不能匹配 != 、&lt;= 、&gt;= 的前缀；单独的 = 、&amp; 、| 无法匹配，最终交给 OGNL
+         */
+        private boolean accept(String operator) {
+            skipWhitespace();
+            if (!text.startsWith(operator, pos)) {
+                return false;
+            }
+            int end = pos + operator.length();
+            char next = end < text.length() ? text.charAt(end) : 0;
+            switch (operator) {
+                case "!":
+                case "<":
+                case ">":
+                    if (next == '=') {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pos = end;
+            return true;
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            skipWhitespace();
+            int end = pos + keyword.length();
+            if (!text.startsWith(keyword, pos) || end < text.length() && Character.isJavaIdentifierPart(text.charAt(end))) {
+                return false;
+            }
+            pos = end;
+            return true;
+        }
+
+        private void expect(String operator) {
+            if (!accept(operator)) {
+                throw unsupported();
+            }
+        }
+
+        private boolean isOperatorKeyword(String name) {
+            switch (name) {
+                case "and":
+                case "or":
+                case "not":
+                case "eq":
+                case "neq":
+                case "lt":
+                case "lte":
+                case "gt":
+                case "gte":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private UnsupportedSyntaxException unsupported() {
+            return UnsupportedSyntaxException.INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.scripting.ScriptingException;
+import com.github.sqlbatis.type.SimpleTypeRegistry;
+
+import java.util.Map;
+
+/**
+ * 从参数对象中获得变量的规则，#{} 和 OGNL 表达式、静态和动态 SQL 共用：
+ * <ul>
+ * <li>参数对象为 null 时，值为 null</li>
+ * <li>参数对象为 Map 时，为同名的值，不存在时为 null</li>
+ * <li>参数对象为简单类型（例如 Integer 、String）时，任何变量都是参数对象本身，例如只有一个参数时的 #{id}</li>
+ * <li>其它参数对象为同名属性的值，属性不存在时抛出异常</li>
+ * </ul>
+ *
+ * @author Laba Zhang
+ */
+public final class ParameterProperties {
+
+    private ParameterProperties() {
+        // Prevent Instantiation of Static Class
+    }
+
+    /**
+     * @param parameterObject 参数对象
+     * @param name            变量名
+     * @return 变量的值
+     * @throws ScriptingException 参数对象没有该属性，或者 getter 抛出异常
+     */
+    public static Object get(Object parameterObject, String name) {
+        if (parameterObject == null) {
+            return null;
+        }
+        if (parameterObject instanceof Map) {
+            return ((Map<?, ?>) parameterObject).get(name);
+        }
+        if (SimpleTypeRegistry.isSimpleType(parameterObject.getClass())) {
+            return parameterObject;
+        }
+        return ExpressionOps.getProperty(parameterObject, name);
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.mapping.ParameterMapping;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 变量表：编译时为 &lt;bind&gt; 的 name 、&lt;foreach&gt; 的 item / index 分配下标，
+ * 渲染时这些变量直接按下标存放在 {@link DynamicContext} 的 bindings 数组中，不需要创建 HashMap 。
+ * <p>
+ * 表达式和 #{} 引用的变量在编译时同样分配下标（见 {@link #slot(String)}），渲染时按下标读取，不再按变量名查找；
+ * 没有绑定的变量从参数对象中获得。
+ * <p>
+ * 由 XMLScriptBuilder / XMLStreamScriptBuilder 在编译一条语句时创建，编译结束后不再修改。
+ * {@link DynamicContext#PARAMETER_OBJECT_KEY} 和 TextSqlNode 使用的 value 总是占用前两个下标。
+ *
+ * @author Laba Zhang
+ */
+public final class BindingLayout {
+
+    /**
+     * 变量名，下标即变量的位置
+     */
+    private String[] names = new String[8];
+    private int size;
+    /**
+     * 由 &lt;bind&gt; / &lt;foreach&gt; 声明的变量的下标，其余的下标只被引用
+     */
+    private final BitSet declared = new BitSet();
+    /**
+     * 编译时 #{} 引用的、当时还没有注册的变量，见 {@link #reference(SqlNode)}
+     */
+    private Set<String> references;
+
+    public BindingLayout() {
+        register(DynamicContext.PARAMETER_OBJECT_KEY);
+        register("value");
+    }
+
+    /**
+     * 注册声明的变量，同名的变量共用一个下标。
+     * <p>
+     * &lt;foreach&gt; 在解析完子节点后才注册 item / index ，子节点中之前记录的引用指向循环变量，不再检查
+     *
+     * @param name 变量名，为 null 时返回 null
+     * @return 变量对应的位置
+     */
+    public Slot register(String name) {
+        if (name == null) {
+            return null;
+        }
+        if (references != null) {
+            references.remove(name);
+        }
+        Slot slot = slot(name);
+        declared.set(slot.getIndex());
+        return slot;
+    }
+
+    /**
+     * 获得表达式或 #{} 引用的变量的位置，变量还没有注册时分配一个下标，但不视为声明。
+     * <p>
+     * 只能在编译时调用，渲染时变量表的大小不能再改变
+     *
+     * @param name 变量名
+     * @return 变量对应的位置
+     */
+    public Slot slot(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size << 1);
+            }
+            index = size;
+            names[size++] = name;
+        }
+        return new Slot(this, index, name);
+    }
+
+    /**
+     * 注册 &lt;bind&gt; 声明的变量。之前的 #{} 已经引用了同名的变量时编译失败，否则它会绑定参数对象中的值或 null
+     *
+     * @param name 变量名
+     * @return 变量对应的位置
+     */
+    public Slot declare(String name) {
+        if (references != null && references.contains(name)) {
+            throw new BuilderException("#{" + name + "} is used before <bind name=\"" + name + "\">");
+        }
+        return register(name);
+    }
+
+    /**
+     * 记录文本节点中 #{} 引用的变量，按文档顺序在创建节点时调用
+     *
+     * @param node StaticTextSqlNode 或 TextSqlNode ，其它节点忽略
+     */
+    void reference(SqlNode node) {
+        if (node instanceof StaticTextSqlNode) {
+            reference(((StaticTextSqlNode) node).getParameterizedText());
+        } else if (node instanceof TextSqlNode && !((TextSqlNode) node).isLateParameters()) {
+            Object[] segments = ((TextSqlNode) node).getSegments();
+            for (int i = 0; i < segments.length; i += 2) {
+                reference((ParameterizedText) segments[i]);
+            }
+        }
+    }
+
+    private void reference(ParameterizedText text) {
+        for (ParameterMapping parameterMapping : text.getParameterMappings()) {
+            String property = parameterMapping.getProperty();
+            int end = 0;
+            while (end < property.length() && Character.isJavaIdentifierPart(property.charAt(end))) {
+                end++;
+            }
+            String name = property.substring(0, end);
+            // 已经声明的变量（例如之前的 <bind>）可以再次声明
+            int index = indexOf(name);
+            if (!name.isEmpty() && (index < 0 || !declared.get(index))) {
+                if (references == null) {
+                    references = new HashSet<>();
+                }
+                references.add(name);
+            }
+        }
+    }
+
+    /**
+     * @param name 变量名
+     * @return 变量的下标，未注册时返回 -1
+     */
+    int indexOf(Object name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 变量在某个 BindingLayout 中的位置。
+     * 节点在不同变量表的 DynamicContext 中渲染时（例如手动创建的 DynamicContext），按变量名绑定
+     */
+    public static final class Slot {
+        private final BindingLayout layout;
+        private final int index;
+        private final String name;
+
+        private Slot(BindingLayout layout, int index, String name) {
+            this.layout = layout;
+            this.index = index;
+            this.name = name;
+        }
+
+        BindingLayout getLayout() {
+            return layout;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -37,6 +37,14 @@ public class ChooseSqlNode implements SqlNode {
         this.defaultSqlNode = defaultSqlNode;
     }
 
+    List<SqlNode> getIfSqlNodes() {
+        return ifSqlNodes;
+    }
+
+    SqlNode getDefaultSqlNode() {
+        return defaultSqlNode;
+    }
+
     @Override
     public boolean apply(DynamicContext context) {
         // 1. 先判断  <when /> 标签中，是否有符合条件的节点。
@@ -15,16 +15,29 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
+import com.github.sqlbatis.formatting.SqlFormatter;
+import com.github.sqlbatis.mapping.ParameterList;
+import com.github.sqlbatis.mapping.ParameterMapping;
+import com.github.sqlbatis.scripting.expression.ParameterProperties;
+import com.github.sqlbatis.type.SimpleTypeRegistry;
 import ognl.OgnlContext;
 import ognl.OgnlRuntime;
 import ognl.PropertyAccessor;
 
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.StringJoiner;
+import java.util.Set;
 
 /**
  * 动态 SQL ，用于每次执行 SQL 操作时，记录动态 SQL 处理后的最终 SQL 字符串。
+ * <p>
+ * &lt;bind&gt; 和 &lt;foreach&gt; 绑定的变量只保存在 bindings 中，不会写入调用方传入的参数对象。
+ * {@link DynamicSqlSource} 使用的 DynamicContext 从线程本地的池中获得，渲染结束后归还，
+ * 稳定状态下每次渲染只需要创建参数值数组和 SQL 字符串。
  *
  * @author Clinton Begin
  */
@@ -35,23 +48,62 @@ public class DynamicContext {
      */
     public static final String PARAMETER_OBJECT_KEY = "_parameter";
 
+    private static final Object[] EMPTY_VALUES = new Object[0];
+    /**
+     * 每个线程最多缓存的 DynamicContext 个数。渲染一次最多同时使用两个（记录形状和回放），多出的用于嵌套渲染
+     */
+    private static final int POOL_SIZE = 4;
+    /**
+     * 归还时 SQL 缓冲区超过该容量则丢弃，避免大 SQL 长期占用内存
+     */
+    private static final int MAX_POOLED_SQL_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<ContextPool> POOL = ThreadLocal.withInitial(ContextPool::new);
+
     static {
         // 设置 OGNL 的属性访问器。其中，OgnlRuntime 是 ognl 库中的类。并且，ContextMap 对应的访问器是 ContextAccessor 类。
         OgnlRuntime.setPropertyAccessor(ContextMap.class, new ContextAccessor());
     }
 
     /**
-     * 上下文的参数集合
+     * 上下文的参数集合，委托给其他 DynamicContext 的子类为 null
      */
     private final ContextMap bindings;
     /**
-     * 生成后的 SQL
+     * 生成后的 SQL ，片段之间使用空格分隔
      */
-    private final StringJoiner sqlBuilder = new StringJoiner(" ");
+    private StringBuilder sqlBuilder;
+    /**
+     * 已添加的 SQL 片段个数
+     */
+    private int sqlCount;
+    /**
+     * 是否在追加时移除换行及多余空格，见 {@link SqlFormatter#appendCompact(StringBuilder, String)}
+     */
+    private boolean compact;
     /**
      * 唯一编号。
      */
     private int uniqueNumber = 0;
+    /**
+     * SQL 的形状，为 null 时不记录
+     */
+    private SqlShape shape;
+    /**
+     * 池中的 DynamicContext 记录形状时复用的 SqlShape
+     */
+    private SqlShape recordingShape;
+    /**
+     * 按 ? 的顺序记录的参数值，容量不足时扩容
+     */
+    private Object[] parameterValues = EMPTY_VALUES;
+    /**
+     * 参数个数
+     */
+    private int parameterCount;
+    /**
+     * 上一次渲染的参数个数，用于确定参数值数组的初始容量
+     */
+    private int parameterCountHint;
 
     /**
      * DynamicContext 构造器
@@ -59,10 +111,93 @@ public class DynamicContext {
      * @param parameterObject 当需要使用到 OGNL 表达式时，parameterObject 非空
      */
     public DynamicContext(Object parameterObject) {
-        // 初始化 bindings 参数
-        bindings = new ContextMap();
-        // 添加 bindings 的默认值
-        bindings.put(PARAMETER_OBJECT_KEY, parameterObject);
+        this(parameterObject, null);
+    }
+
+    /**
+     * DynamicContext 构造器
+     * <p>
+     * shape 为记录模式时，节点只计算表达式并记录形状，不生成 SQL ；shape 为回放模式时，节点按记录的形状生成 SQL 。
+     *
+     * @param parameterObject 参数对象
+     * @param shape           SQL 的形状
+     */
+    public DynamicContext(Object parameterObject, SqlShape shape) {
+        this(new BindingLayout(), parameterObject, shape);
+    }
+
+    DynamicContext(BindingLayout layout, Object parameterObject, SqlShape shape) {
+        this.shape = shape;
+        this.sqlBuilder = new StringBuilder();
+        // 初始化 bindings 参数，并添加 bindings 的默认值
+        this.bindings = new ContextMap(layout, parameterObject);
+    }
+
+    /**
+     * 委托给其他 DynamicContext 的子类使用，不创建 bindings 和 SQL 缓冲区
+     */
+    DynamicContext() {
+        this.bindings = null;
+    }
+
+    /**
+     * 从当前线程的池中获得 DynamicContext ，使用结束后需要调用 {@link #release()} 归还
+     *
+     * @param layout          变量表
+     * @param parameterObject 参数对象
+     * @param shape           SQL 的形状
+     * @param compact         是否生成紧凑的 SQL
+     * @return DynamicContext
+     */
+    static DynamicContext acquire(BindingLayout layout, Object parameterObject, SqlShape shape, boolean compact) {
+        DynamicContext context = POOL.get().poll();
+        if (context == null) {
+            context = new DynamicContext(layout, parameterObject, shape);
+        } else {
+            context.bindings.reset(layout, parameterObject);
+            context.shape = shape;
+        }
+        context.compact = compact;
+        return context;
+    }
+
+    /**
+     * 从当前线程的池中获得记录形状的 DynamicContext ，形状对象随 DynamicContext 复用，
+     * 需要在归还之后保留的形状应使用 {@link SqlShape#copy()}
+     *
+     * @param layout          变量表
+     * @param parameterObject 参数对象
+     * @return DynamicContext
+     */
+    static DynamicContext acquireRecording(BindingLayout layout, Object parameterObject) {
+        DynamicContext context = acquire(layout, parameterObject, null, false);
+        if (context.recordingShape == null) {
+            context.recordingShape = new SqlShape();
+        } else {
+            context.recordingShape.reset();
+        }
+        context.shape = context.recordingShape;
+        return context;
+    }
+
+    /**
+     * 归还到当前线程的池中。归还后不能再使用，已经返回的 SQL 和参数值不受影响
+     */
+    void release() {
+        bindings.clear();
+        shape = null;
+        if (sqlBuilder.capacity() > MAX_POOLED_SQL_CAPACITY) {
+            sqlBuilder = new StringBuilder();
+        } else {
+            sqlBuilder.setLength(0);
+        }
+        sqlCount = 0;
+        compact = false;
+        uniqueNumber = 0;
+        parameterValues = EMPTY_VALUES;
+        parameterCountHint = parameterCount;
+        parameterCount = 0;
+        POOL.get().offer(this);
     }
 
     public Map<String, Object> getBindings() {
@@ -70,66 +205,351 @@ public class DynamicContext {
     }
 
     public void bind(String name, Object value) {
-        bindings.put(name, value);
-        if (bindings.get(PARAMETER_OBJECT_KEY) instanceof Map) {
-            ((Map) bindings.get(PARAMETER_OBJECT_KEY)).put(name, value);
+        getBindings().put(name, value);
+    }
+
+    /**
+     * 按编译时分配的位置绑定变量
+     *
+     * @param slot  变量的位置
+     * @param value 变量的值
+     */
+    public void bind(BindingLayout.Slot slot, Object value) {
+        Map<String, Object> map = getBindings();
+        if (map instanceof ContextMap) {
+            ((ContextMap) map).set(slot, value);
+        } else {
+            map.put(slot.getName(), value);
+        }
+    }
+
+    /**
+     * 移除绑定的变量
+     *
+     * @param slot 变量的位置
+     */
+    public void unbind(BindingLayout.Slot slot) {
+        Map<String, Object> map = getBindings();
+        if (map instanceof ContextMap) {
+            ((ContextMap) map).unset(slot);
+        } else {
+            map.remove(slot.getName());
         }
     }
 
     public void appendSql(String sql) {
-        sqlBuilder.add(sql);
+        if (shape == null || shape.isReplaying()) {
+            if (compact) {
+                SqlFormatter.appendCompact(sqlBuilder, sql);
+                return;
+            }
+            if (sqlCount++ > 0) {
+                sqlBuilder.append(' ');
+            }
+            sqlBuilder.append(sql);
+        }
     }
 
     public String getSql() {
         return sqlBuilder.toString().trim();
     }
 
+    /**
+     * 计算 #{} 的值，并按顺序记录。对应的 ? 已经由调用方添加到 SQL 中。回放时不计算参数值
+     *
+     * @param parameterMapping #{} 对应的 ParameterMapping
+     */
+    public void appendParameter(ParameterMapping parameterMapping) {
+        if (!isReplaying()) {
+            addParameterValue(parameterMapping.getValue(getBindings()));
+        }
+    }
+
+    /**
+     * 按顺序记录参数值
+     *
+     * @param value 参数值
+     */
+    public void addParameterValue(Object value) {
+        if (parameterCount == parameterValues.length) {
+            parameterValues = Arrays.copyOf(parameterValues, Math.max(Math.max(8, parameterCountHint), parameterCount << 1));
+        }
+        parameterValues[parameterCount++] = value;
+    }
+
+    /**
+     * 返回的 ParameterList 直接使用内部数组，不复制。已记录的参数值不会再被修改
+     *
+     * @return 按 ? 的顺序记录的参数值
+     */
+    public ParameterList getParameterValues() {
+        return new ParameterList(parameterValues, parameterCount);
+    }
+
     public int getUniqueNumber() {
         return uniqueNumber++;
     }
 
+    public SqlShape getShape() {
+        return shape;
+    }
+
     /**
-     * ContextMap ，是 DynamicContext 的内部静态类，继承 HashMap 类，上下文的参数集合。
+     * @return 是否生成紧凑的 SQL
      */
-    static class ContextMap extends HashMap<String, Object> {
-        private static final long serialVersionUID = 2977601501966151582L;
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return 是否只记录形状，不生成 SQL
+     */
+    public boolean isShapeOnly() {
+        SqlShape shape = getShape();
+        return shape != null && !shape.isReplaying();
+    }
 
-        public ContextMap() {
+    /**
+     * @return 是否按记录的形状回放，不计算表达式
+     */
+    public boolean isReplaying() {
+        SqlShape shape = getShape();
+        return shape != null && shape.isReplaying();
+    }
+
+    /**
+     * 线程本地的 DynamicContext 池
+     */
+    private static final class ContextPool {
+        private final DynamicContext[] contexts = new DynamicContext[POOL_SIZE];
+        private int size;
+
+        DynamicContext poll() {
+            return size == 0 ? null : contexts[--size];
         }
 
-        @Override
-        public Object get(Object key) {
-            String strKey = (String) key;
-            // 如果有 key 对应的值，直接获得
-            if (super.containsKey(strKey)) {
-                return super.get(strKey);
+        void offer(DynamicContext context) {
+            if (size < contexts.length) {
+                contexts[size++] = context;
             }
-            return null;
         }
     }
 
     /**
-     * ContextAccessor ，是 DynamicContext 的内部静态类，实现 ognl.PropertyAccessor 接口，上下文访问器。
+     * ContextMap ，是 DynamicContext 的内部静态类，上下文的参数集合。
+     * <p>
+     * {@link BindingLayout} 中注册的变量按下标保存在数组中，其他变量保存在按需创建的 HashMap 中。
+     * <p>
+     * 类和 {@link #resolve(Object)} 为 public ，供 OGNL 编译生成的字节码调用，见 {@link OgnlCache#setCompileThreshold(int)}
      */
-    static class ContextAccessor implements PropertyAccessor {
+    public static class ContextMap extends AbstractMap<String, Object> {
+        /**
+         * 未绑定的标记，与绑定了 null 区分
+         */
+        private static final Object UNBOUND = new Object();
+        /**
+         * {@link #peek(Object)} 不调用 getter 就无法获得的值
+         */
+        static final Object OPAQUE = new Object();
+
+        private BindingLayout layout;
+        private Object[] values;
+        /**
+         * 不在 layout 中的变量
+         */
+        private Map<String, Object> others;
+        /**
+         * 以本对象为 root 的 OGNL Context ，第一次使用 OGNL 时创建，随 DynamicContext 复用
+         */
+        private OgnlContext ognlContext;
+
+        ContextMap(BindingLayout layout, Object parameterObject) {
+            this.values = new Object[layout.size()];
+            reset(layout, parameterObject);
+        }
+
+        void reset(BindingLayout layout, Object parameterObject) {
+            this.layout = layout;
+            if (values.length < layout.size()) {
+                values = new Object[layout.size()];
+            }
+            clear();
+            values[0] = parameterObject;
+        }
+
+        void set(BindingLayout.Slot slot, Object value) {
+            if (slot.getLayout() == layout) {
+                values[slot.getIndex()] = value;
+            } else {
+                put(slot.getName(), value);
+            }
+        }
+
+        void unset(BindingLayout.Slot slot) {
+            if (slot.getLayout() == layout) {
+                values[slot.getIndex()] = UNBOUND;
+            } else {
+                remove(slot.getName());
+            }
+        }
 
         @Override
-        public Object getProperty(Map context, Object target, Object name) {
-            Map map = (Map) target;
+        public Object get(Object key) {
+            int index = layout.indexOf(key);
+            if (index >= 0) {
+                Object value = values[index];
+                return value == UNBOUND ? null : value;
+            }
+            return others == null ? null : others.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            int index = layout.indexOf(key);
+            if (index >= 0) {
+                return values[index] != UNBOUND;
+            }
+            return others != null && others.containsKey(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            int index = layout.indexOf(key);
+            if (index >= 0) {
+                Object old = values[index];
+                values[index] = value;
+                return old == UNBOUND ? null : old;
+            }
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            return others.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            int index = layout.indexOf(key);
+            if (index >= 0) {
+                Object old = values[index];
+                values[index] = UNBOUND;
+                return old == UNBOUND ? null : old;
+            }
+            return others == null ? null : others.remove(key);
+        }
 
+        /**
+         * 按 OGNL 的规则获得变量：优先从 bindings 中获得，没有时按 {@link ParameterProperties} 从参数对象中获得，
+         * 与 #{} 的规则一致
+         *
+         * @param name 变量名
+         * @return 变量的值
+         */
+        public Object resolve(Object name) {
             // 优先从 ContextMap 中，获得属性
-            Object result = map.get(name);
-            if (map.containsKey(name) || result != null) {
+            Object result = get(name);
+            if (result != null || containsKey(name)) {
                 return result;
             }
+            // 如果没有，则从 PARAMETER_OBJECT_KEY 对应的参数对象中获得
+            return ParameterProperties.get(get(PARAMETER_OBJECT_KEY), String.valueOf(name));
+        }
 
-            // 如果没有，则从 PARAMETER_OBJECT_KEY 对应的 Map 中，获得属性
-            Object parameterObject = map.get(PARAMETER_OBJECT_KEY);
-            if (parameterObject instanceof Map) {
-                return ((Map) parameterObject).get(name);
+        /**
+         * 与 {@link #resolve(Object)} 一致，编译时已经确定变量的位置，直接按下标读取。
+         * 变量属于其他变量表时（例如手动创建的 DynamicContext），按变量名获得
+         *
+         * @param slot 变量的位置，见 {@link BindingLayout#slot(String)}
+         * @return 变量的值
+         */
+        public Object resolve(BindingLayout.Slot slot) {
+            if (slot.getLayout() != layout) {
+                return resolve(slot.getName());
             }
+            Object result = values[slot.getIndex()];
+            if (result != UNBOUND) {
+                return result;
+            }
+            Object parameterObject = values[0];
+            return ParameterProperties.get(parameterObject == UNBOUND ? null : parameterObject, slot.getName());
+        }
 
-            return null;
+        /**
+         * 与 {@link #resolve(Object)} 一致，但只读取 bindings 、Map 类型和简单类型的参数，不调用参数对象的 getter
+         *
+         * @param name 变量名
+         * @return 变量的值，需要从参数对象的属性中获得时返回 {@link #OPAQUE}
+         */
+        Object peek(Object name) {
+            Object result = get(name);
+            if (result != null || containsKey(name)) {
+                return result;
+            }
+            Object parameterObject = get(PARAMETER_OBJECT_KEY);
+            if (parameterObject == null || parameterObject instanceof Map || SimpleTypeRegistry.isSimpleType(parameterObject.getClass())) {
+                return ParameterProperties.get(parameterObject, String.valueOf(name));
+            }
+            return OPAQUE;
+        }
+
+        /**
+         * @return 所有 OGNL 表达式共用的 Context ，root 始终是本对象
+         */
+        OgnlContext getOgnlContext() {
+            if (ognlContext == null) {
+                ognlContext = OgnlCache.createContext(this);
+            }
+            return ognlContext;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(values, UNBOUND);
+            if (others != null) {
+                others.clear();
+            }
+            // 清除表达式中定义的 #变量 和求值状态，保留 MemberAccess 和 ClassResolver
+            if (ognlContext != null) {
+                ognlContext.clear();
+            }
+        }
+
+        @Override
+        public int size() {
+            int size = others == null ? 0 : others.size();
+            for (int i = 0; i < layout.size(); i++) {
+                if (values[i] != UNBOUND) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        /**
+         * @return 当前绑定的快照，修改不会反映到 ContextMap 中
+         */
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            for (int i = 0; i < layout.size(); i++) {
+                if (values[i] != UNBOUND) {
+                    snapshot.put(layout.getName(i), values[i]);
+                }
+            }
+            if (others != null) {
+                snapshot.putAll(others);
+            }
+            return Collections.unmodifiableMap(snapshot).entrySet();
+        }
+    }
+
+    /**
+     * ContextAccessor ，是 DynamicContext 的内部静态类，实现 ognl.PropertyAccessor 接口，上下文访问器。
+     */
+    static class ContextAccessor implements PropertyAccessor {
+
+        @Override
+        public Object getProperty(Map context, Object target, Object name) {
+            return ((ContextMap) target).resolve(name);
         }
 
         @Override
@@ -138,9 +558,14 @@ public class DynamicContext {
             map.put(name, value);
         }
 
+        /**
+         * 编译后的表达式调用 {@link ContextMap#resolve(Object)} ，index 为带引号的属性名
+         */
         @Override
-        public String getSourceAccessor(OgnlContext arg0, Object arg1, Object arg2) {
-            return null;
+        public String getSourceAccessor(OgnlContext context, Object target, Object index) {
+            context.setCurrentAccessor(ContextMap.class);
+            context.setCurrentType(Object.class);
+            return ".resolve(" + index + ")";
         }
 
         @Override
@@ -15,41 +15,145 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
-import com.github.sqlbatis.builder.SqlSourceBuilder;
 import com.github.sqlbatis.mapping.BoundSql;
 import com.github.sqlbatis.mapping.SqlSource;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 实现 SqlSource 接口，动态的 SqlSource 实现类。
  * <p>
  * 适用于使用了 OGNL 表达式，或者使用了 ${} 表达式的 SQL ，
  * 所以它是动态的，需要在每次执行 #getBoundSql(Object parameterObject) 方法，根据参数，生成对应的 SQL 。
+ * <p>
+ * 生成的 SQL 文本只取决于 {@link SqlShape}，所以按形状缓存 SQL ，相同形状的调用只需要计算条件和获得参数值。
  *
  * @author Clinton Begin
  */
 public class DynamicSqlSource implements SqlSource {
 
+    /**
+     * 默认最多缓存的形状个数
+     */
+    public static final int DEFAULT_MAX_SHAPES = 256;
+
     /**
      * 根 SqlNode 对象
      */
     private final SqlNode rootSqlNode;
+    /**
+     * 语句的变量表，与编译 rootSqlNode 时使用的一致
+     */
+    private final BindingLayout layout;
+    /**
+     * 最多缓存的形状个数，超出后新的形状不再缓存
+     */
+    private final int maxShapes;
+    /**
+     * 是否生成紧凑的 SQL ：移除换行及多余空格
+     */
+    private final boolean compact;
+    /**
+     * 形状的缓存
+     * <p>
+     * KEY：{@link SqlShape}
+     * VALUE：该形状对应的 SQL（#{} 已经替换为 ?）
+     */
+    private final Map<SqlShape, String> shapeCache = new ConcurrentHashMap<>();
 
     public DynamicSqlSource(SqlNode rootSqlNode) {
+        this(rootSqlNode, DEFAULT_MAX_SHAPES);
+    }
+
+    public DynamicSqlSource(SqlNode rootSqlNode, int maxShapes) {
+        this(rootSqlNode, new BindingLayout(), maxShapes);
+    }
+
+    public DynamicSqlSource(SqlNode rootSqlNode, BindingLayout layout) {
+        this(rootSqlNode, layout, DEFAULT_MAX_SHAPES);
+    }
+
+    public DynamicSqlSource(SqlNode rootSqlNode, BindingLayout layout, int maxShapes) {
+        this(rootSqlNode, layout, maxShapes, false);
+    }
+
+    /**
+     * @param compact 是否生成紧凑的 SQL 。形状的 SQL 只在第一次生成时压缩空白，之后直接使用缓存
+     */
+    public DynamicSqlSource(SqlNode rootSqlNode, BindingLayout layout, int maxShapes, boolean compact) {
         this.rootSqlNode = rootSqlNode;
+        this.layout = layout;
+        this.maxShapes = maxShapes;
+        this.compact = compact;
     }
 
     @Override
     public BoundSql getBoundSql(Object parameterObject) {
-        // 1. 创建DynamicContext，并应用 rootSqlNode，相当于生成动态 SQL 。
-        DynamicContext context = new DynamicContext(parameterObject);
-        rootSqlNode.apply(context);
-        // 2. 创建 SqlSourceBuilder 对象
-        SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder();
-        // 3. 将占位符“#{}”，替换为“?”，并获取该占位符对应的 ParameterMapping 对象。
-        // 同时创建SqlSource对象，类型是 StaticSqlSource 类。
-        SqlSource sqlSource = sqlSourceParser.parse(context.getSql());
-        // 4. 返回 BoundSql 对象return boundSql;
-        return sqlSource.getBoundSql(parameterObject);
+        // 1. 计算 if / foreach / ${} / #{} ，记录形状和参数值，不生成 SQL 。DynamicContext 和 SqlShape 都从线程本地的池中获得
+        DynamicContext context = DynamicContext.acquireRecording(layout, parameterObject);
+        try {
+            rootSqlNode.apply(context);
+            SqlShape shape = context.getShape();
+            // 2. 命中缓存时，直接使用缓存的 SQL
+            String sql = shapeCache.get(shape);
+            if (sql == null) {
+                sql = replay(parameterObject, shape);
+            }
+            // 3. 返回 BoundSql 对象，参数值数组不会被池中的 DynamicContext 再次使用
+            return new BoundSql(sql, context.getParameterValues());
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 未命中缓存，按记录的形状回放生成 SQL ，回放时不会再次计算表达式。
+     * #{} 在编译时已经替换为 ? ，不需要再解析
+     */
+    private String replay(Object parameterObject, SqlShape shape) {
+        DynamicContext replayContext = DynamicContext.acquire(layout, parameterObject, shape.replay(), compact);
+        try {
+            rootSqlNode.apply(replayContext);
+            String sql = replayContext.getSql();
+            // 记录形状的 SqlShape 会被复用，缓存中放入副本
+            if (shapeCache.size() < maxShapes) {
+                shapeCache.putIfAbsent(shape.copy(), sql);
+            }
+            return sql;
+        } finally {
+            replayContext.release();
+        }
+    }
+
+    SqlNode getRootSqlNode() {
+        return rootSqlNode;
+    }
+
+    BindingLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return SqlNode 树中的节点个数
+     */
+    public int getNodeCount() {
+        return SqlNodeOptimizer.countNodes(rootSqlNode);
+    }
+
+    int getMaxShapes() {
+        return maxShapes;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return 已缓存的形状个数
+     */
+    public int getShapeCacheSize() {
+        return shapeCache.size();
     }
 
 }
@@ -16,11 +16,11 @@
 package com.github.sqlbatis.scripting.xmltags;
 
 import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.reflection.ArrayUtil;
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
 
-import java.lang.reflect.Array;
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -38,8 +38,19 @@ public class ExpressionEvaluator {
      * @return 是否为 true
      */
     public boolean evaluateBoolean(String expression, Object parameterObject) {
+        return evaluateBoolean(ExpressionParser.parse(expression), parameterObject);
+    }
+
+    /**
+     * 使用编译后的表达式判断是否为 true ，避免每次求值时查找表达式缓存
+     *
+     * @param expression      编译后的表达式
+     * @param parameterObject 参数对象
+     * @return 是否为 true
+     */
+    public boolean evaluateBoolean(Expression expression, Object parameterObject) {
         // 获得表达式对应的值，即获取 parameterObject 对象，此 expression 表达式的值。
-        Object value = OgnlCache.getValue(expression, parameterObject);
+        Object value = expression.getValue(parameterObject);
         // 如果是 Boolean 类型，直接判断
         if (value instanceof Boolean) {
             return (Boolean) value;
@@ -71,33 +82,37 @@ public class ExpressionEvaluator {
      * @return 迭代器对象
      */
     public Iterable<?> evaluateIterable(String expression, Object parameterObject) {
+        return evaluateIterable(ExpressionParser.parse(expression), parameterObject);
+    }
+
+    /**
+     * 使用编译后的表达式获得遍历的集合的 Iterable 对象
+     *
+     * @param expression      编译后的表达式
+     * @param parameterObject 参数对象
+     * @return 迭代器对象
+     */
+    public Iterable<?> evaluateIterable(Expression expression, Object parameterObject) {
         // parameterObject 兑现，通过表达式 expression 计算的值
-        Object value = OgnlCache.getValue(expression, parameterObject);
+        Object value = expression.getValue(parameterObject);
         if (value == null) {
-            throw new BuilderException("The expression '" + expression + "' evaluated to a null value.");
+            throw new BuilderException("The expression '" + expression.getExpression() + "' evaluated to a null value.");
         }
         // 如果是 Iterable 类型，直接返回
         if (value instanceof Iterable) {
             return (Iterable<?>) value;
         }
-        // 如果是数组类型，则返回数组
+        // 如果是数组类型，则返回数组的 List 视图，不复制数组。
+        // the array may be primitive, so Arrays.asList() may throw
+        // a ClassCastException (issue 209).
         if (value.getClass().isArray()) {
-            // the array may be primitive, so Arrays.asList() may throw
-            // a ClassCastException (issue 209).  Do the work manually
-            // Curse primitives! :) (JGB)
-            int size = Array.getLength(value);
-            List<Object> answer = new ArrayList<>();
-            for (int i = 0; i < size; i++) {
-                Object o = Array.get(value, i);
-                answer.add(o);
-            }
-            return answer;
+            return ArrayUtil.asList(value);
         }
         // 如果是 Map 类型，则返回 Map.entrySet 集合
         if (value instanceof Map) {
             return ((Map) value).entrySet();
         }
-        throw new BuilderException("Error evaluating expression '" + expression + "'.  Return value (" + value + ") was not iterable.");
+        throw new BuilderException("Error evaluating expression '" + expression.getExpression() + "'.  Return value (" + value + ") was not iterable.");
     }
 
 }
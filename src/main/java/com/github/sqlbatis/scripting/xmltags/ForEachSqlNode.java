@@ -15,9 +15,17 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
-import com.github.sqlbatis.parsing.GenericTokenParser;
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.mapping.ParameterMapping;
+import com.github.sqlbatis.metrics.SqlMetricsListener;
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * 实现 SqlNode 接口，<foreach /> 标签的 SqlNode 实现类。
@@ -25,13 +33,25 @@ import java.util.Map;
  * @author Clinton Begin
  */
 public class ForEachSqlNode implements SqlNode {
-    public static final String ITEM_PREFIX = "__frch_";
+
+    /**
+     * open 以 in ( 结尾，例如 open="id in ("
+     */
+    private static final Pattern IN_OPEN = Pattern.compile("(?is)(.*\\W)?in\\s*\\(");
+    /**
+     * 循环之前的文本以 in 结尾，例如 where id in &lt;foreach open="(" ...&gt;
+     */
+    private static final Pattern IN_KEYWORD = Pattern.compile("(?is)(.*\\W)?in\\s*");
 
     private final ExpressionEvaluator evaluator;
     /**
      * 集合的表达式
      */
     private final String collectionExpression;
+    /**
+     * 编译后的集合表达式
+     */
+    private final Expression collection;
     private final SqlNode contents;
     private final String open;
     private final String close;
@@ -44,6 +64,19 @@ public class ForEachSqlNode implements SqlNode {
      * 索引变量
      */
     private final String index;
+    /**
+     * item / index 在 bindings 中的位置，未指定时为 null
+     */
+    private final BindingLayout.Slot itemSlot;
+    private final BindingLayout.Slot indexSlot;
+    /**
+     * 循环体只包含静态文本时不为 null ，此时直接从集合元素上取参数值
+     */
+    private final SimpleBody simpleBody;
+    /**
+     * 元素个数的补齐规则，为 null 时不补齐
+     */
+    private final ListPadding padding;
 
     /**
      * <pre>
@@ -67,14 +100,116 @@ public class ForEachSqlNode implements SqlNode {
      */
     public ForEachSqlNode(SqlNode contents, String collectionExpression,
                           String index, String item, String open, String close, String separator) {
+        this(contents, collectionExpression, index, item, open, close, separator, new BindingLayout());
+    }
+
+    /**
+     * @param layout 语句的变量表，item / index 在其中分配位置
+     */
+    public ForEachSqlNode(SqlNode contents, String collectionExpression, String index, String item,
+                          String open, String close, String separator, BindingLayout layout) {
+        this(contents, collectionExpression, index, item, open, close, separator, layout, null);
+    }
+
+    /**
+     * @param padding 元素个数的补齐规则，为 null 时不补齐，见 {@link ListPadding}
+     */
+    public ForEachSqlNode(SqlNode contents, String collectionExpression, String index, String item,
+                          String open, String close, String separator, BindingLayout layout, ListPadding padding) {
         this.evaluator = new ExpressionEvaluator();
         this.collectionExpression = collectionExpression;
+        this.collection = ExpressionParser.parse(collectionExpression, layout);
         this.contents = contents;
         this.open = open;
         this.close = close;
         this.separator = separator;
         this.index = index;
         this.item = item;
+        this.indexSlot = layout.register(index);
+        this.itemSlot = layout.register(item);
+        this.simpleBody = SimpleBody.of(contents, item, index);
+        this.padding = padding;
+    }
+
+    /**
+     * 复制 source 的配置，内含的 SqlNode 替换为 contents ，item / index 使用相同的位置
+     */
+    private ForEachSqlNode(ForEachSqlNode source, SqlNode contents) {
+        this.evaluator = source.evaluator;
+        this.collectionExpression = source.collectionExpression;
+        this.collection = source.collection;
+        this.contents = contents;
+        this.open = source.open;
+        this.close = source.close;
+        this.separator = source.separator;
+        this.index = source.index;
+        this.item = source.item;
+        this.indexSlot = source.indexSlot;
+        this.itemSlot = source.itemSlot;
+        this.simpleBody = SimpleBody.of(contents, item, index);
+        this.padding = source.padding;
+    }
+
+    /**
+     * 未指定 padding 属性时使用的补齐规则：全局的补齐规则 {@link SqlBatis#getListPadding()} 只用于 IN 列表，
+     * 即 in 之后以 ( 开始、以 , 分隔、以 ) 结束的循环。其它循环重复元素会改变语义，例如批量 INSERT 的 values ，不补齐
+     *
+     * @param preceding 同一层级中，循环之前已经解析的节点
+     * @return 补齐规则，为 null 时不补齐
+     */
+    static ListPadding defaultPadding(List<SqlNode> preceding, String open, String separator, String close) {
+        ListPadding padding = SqlBatis.getListPadding();
+        if (padding == null || open == null || separator == null || close == null
+                || !",".equals(separator.trim()) || !")".equals(close.trim())) {
+            return null;
+        }
+        String trimmedOpen = open.trim();
+        if (IN_OPEN.matcher(trimmedOpen).matches()) {
+            return padding;
+        }
+        if (!"(".equals(trimmedOpen) || preceding.isEmpty()) {
+            return null;
+        }
+        SqlNode previous = preceding.get(preceding.size() - 1);
+        String text = previous instanceof StaticTextSqlNode ? ((StaticTextSqlNode) previous).getParameterizedText().getSql()
+                : previous instanceof TextSqlNode ? ((TextSqlNode) previous).getText() : null;
+        return text != null && IN_KEYWORD.matcher(text).matches() ? padding : null;
+    }
+
+    SqlNode getContents() {
+        return contents;
+    }
+
+    ForEachSqlNode withContents(SqlNode contents) {
+        return new ForEachSqlNode(this, contents);
+    }
+
+    String getCollectionExpression() {
+        return collectionExpression;
+    }
+
+    String getIndex() {
+        return index;
+    }
+
+    String getItem() {
+        return item;
+    }
+
+    String getOpen() {
+        return open;
+    }
+
+    String getClose() {
+        return close;
+    }
+
+    String getSeparator() {
+        return separator;
+    }
+
+    ListPadding getPadding() {
+        return padding;
     }
 
     /**
@@ -94,69 +229,204 @@ public class ForEachSqlNode implements SqlNode {
      */
     @Override
     public boolean apply(DynamicContext context) {
+        SqlShape shape = context.getShape();
+        if (shape != null && shape.isReplaying()) {
+            return replay(context, shape.nextLoopSize());
+        }
         Map<String, Object> bindings = context.getBindings();
         // 1. 获得遍历的集合的 Iterable 对象，用于遍历。
-        final Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+        final Iterable<?> iterable = evaluator.evaluateIterable(collection, bindings);
+        if (simpleBody != null) {
+            return applySimpleBody(context, shape, iterable);
+        }
+        if (shape != null) {
+            return recordShape(context, shape, iterable);
+        }
         if (!iterable.iterator().hasNext()) {
+            looped(0);
             return true;
         }
         boolean first = true;
         // 2. 添加 open 到 SQL 中
         applyOpen(context);
         int i = 0;
+        // 3. 所有元素共用一个 PrefixedContext ，每个元素开始时重置分隔符
+        PrefixedContext prefixedContext = new PrefixedContext(context);
+        Object last = null;
         // 遍历 for 循环中的内容
         for (Object o : iterable) {
-            // 3. 记录原始的 context 对象，为什么呢？因为 <4> 处，会生成新的 context 对象。
-            DynamicContext oldContext = context;
-            // 4. 生成新的 context
-            if (first || separator == null) {
-                context = new PrefixedContext(context, "");
-            } else {
-                context = new PrefixedContext(context, separator);
-            }
-            // 5. 获得唯一编号
-            int uniqueNumber = context.getUniqueNumber();
+            // 4. 非首个元素时，才使用 separator 作为前缀
+            prefixedContext.reset(first || separator == null ? "" : separator);
             // Issue #709
-            // 6. 绑定到 context 中
-            if (o instanceof Map.Entry) {
-                @SuppressWarnings("unchecked")
-                Map.Entry<Object, Object> mapEntry = (Map.Entry<Object, Object>) o;
-                applyIndex(context, mapEntry.getKey(), uniqueNumber);
-                applyItem(context, mapEntry.getValue(), uniqueNumber);
-            } else {
-                applyIndex(context, i, uniqueNumber);
-                applyItem(context, o, uniqueNumber);
+            // 5. 绑定到 context 中。#{} 在当前元素处理时就已经求值，不再需要 __frch_ 开头的唯一绑定
+            bindItem(context, i, o);
+            // 6. 执行 contents 的应用，此处 contents 就是上述示例的 " #{item}" 。
+            // #{item} 在编译时已经替换为 ? ，参数值直接从当前绑定的 item 获得
+            contents.apply(prefixedContext);
+            // 7. 判断 prefix 是否已经插入，如果是，则 first 会被设置为 false 。
+            if (first) {
+                first = !prefixedContext.isPrefixApplied();
             }
-            // 7. 执行 contents 的应用，此处 contents 就是上述示例的 " #{item}" 。
-            //另外，进一步将 context 对象，封装成 FilteredDynamicContext 对象。
-            contents.apply(new FilteredDynamicContext(context, index, item, collectionExpression, uniqueNumber));
-            // 8. 判断 prefix 是否已经插入，如果是，则 first 会被设置为 false 。
+            last = o;
+            i++;
+        }
+        looped(i);
+        // 补齐时重复最后一个元素
+        int lastIndex = i - 1;
+        for (int size = padded(i); i < size; i++) {
+            bindItem(context, lastIndex, last);
+            prefixedContext.reset(first || separator == null ? "" : separator);
+            contents.apply(prefixedContext);
             if (first) {
-                first = !((PrefixedContext) context).isPrefixApplied();
+                first = !prefixedContext.isPrefixApplied();
             }
-            // 9. 恢复原始的 context 对象
-            context = oldContext;
+        }
+        // 8. 添加 close 到 SQL 中
+        applyClose(context);
+        // 9. 移除 index 和 item 对应的绑定
+        unbindItem(context);
+        return true;
+    }
+
+    /**
+     * 循环体只包含静态文本：不创建 PrefixedContext ，也不绑定 item 和 index ，按元素直接追加 SQL 片段和参数值。
+     * 只记录形状时不追加 SQL
+     */
+    private boolean applySimpleBody(DynamicContext context, SqlShape shape, Iterable<?> iterable) {
+        int position = shape == null ? -1 : shape.addLoop();
+        boolean appendSql = shape == null;
+        int i = 0;
+        Object last = null;
+        for (Object o : iterable) {
+            appendSimpleBody(context, appendSql, i, i, o);
+            last = o;
+            i++;
+        }
+        looped(i);
+        // 补齐时重复最后一个元素，包括它的 index
+        int lastIndex = i - 1;
+        for (int size = padded(i); i < size; i++) {
+            appendSimpleBody(context, appendSql, i, lastIndex, last);
+        }
+        if (appendSql && i > 0) {
+            applyClose(context);
+        }
+        if (shape != null) {
+            shape.setLoopSize(position, i);
+        }
+        return true;
+    }
+
+    /**
+     * 追加第 position 个元素，补齐的元素 position 与 index 不同
+     */
+    private void appendSimpleBody(DynamicContext context, boolean appendSql, int position, int index, Object o) {
+        if (appendSql) {
+            if (position == 0) {
+                applyOpen(context);
+            }
+            simpleBody.appendSql(context, position == 0 || separator == null ? "" : separator);
+        }
+        if (o instanceof Map.Entry) {
+            Map.Entry<?, ?> mapEntry = (Map.Entry<?, ?>) o;
+            simpleBody.appendParameters(context, mapEntry.getKey(), mapEntry.getValue());
+        } else {
+            simpleBody.appendParameters(context, index, o);
+        }
+    }
+
+    /**
+     * 报告遍历的元素个数，回放时不报告
+     */
+    private void looped(int size) {
+        SqlMetricsListener listener = SqlBatis.getMetricsListener();
+        if (listener != SqlMetricsListener.NOOP) {
+            listener.looped(SqlBatis.getRenderingId(), collectionExpression, size);
+        }
+    }
+
+    /**
+     * @return 补齐后的元素个数
+     */
+    private int padded(int size) {
+        return padding == null ? size : padding.pad(size);
+    }
+
+    /**
+     * 只记录形状：绑定 item 和 index 后计算内部的分支，不生成 SQL
+     */
+    private boolean recordShape(DynamicContext context, SqlShape shape, Iterable<?> iterable) {
+        int position = shape.addLoop();
+        int i = 0;
+        Object last = null;
+        for (Object o : iterable) {
+            bindItem(context, i, o);
+            contents.apply(context);
+            last = o;
             i++;
         }
-        // 10. 添加 close 到 SQL 中
+        looped(i);
+        int lastIndex = i - 1;
+        for (int size = padded(i); i < size; i++) {
+            bindItem(context, lastIndex, last);
+            contents.apply(context);
+        }
+        shape.setLoopSize(position, i);
+        unbindItem(context);
+        return true;
+    }
+
+    /**
+     * 回放：不计算集合，按记录的元素个数生成 SQL ，元素内的分支和 ${} 也使用记录的值
+     */
+    private boolean replay(DynamicContext context, int size) {
+        if (size == 0) {
+            return true;
+        }
+        boolean first = true;
+        applyOpen(context);
+        PrefixedContext prefixedContext = simpleBody == null ? new PrefixedContext(context) : null;
+        for (int i = 0; i < size; i++) {
+            if (simpleBody != null) {
+                simpleBody.appendSql(context, i == 0 || separator == null ? "" : separator);
+                continue;
+            }
+            prefixedContext.reset(first || separator == null ? "" : separator);
+            contents.apply(prefixedContext);
+            if (first) {
+                first = !prefixedContext.isPrefixApplied();
+            }
+        }
         applyClose(context);
-        // 11. 移除 index 和 item 对应的绑定
-        context.getBindings().remove(item);
-        context.getBindings().remove(index);
         return true;
     }
 
-    private void applyIndex(DynamicContext context, Object o, int i) {
-        if (index != null) {
-            context.bind(index, o);
-            context.bind(itemizeItem(index, i), o);
+    /**
+     * 绑定当前元素的 index 和 item ，Map 的元素分别绑定 key 和 value
+     */
+    private void bindItem(DynamicContext context, int i, Object o) {
+        if (o instanceof Map.Entry) {
+            Map.Entry<?, ?> mapEntry = (Map.Entry<?, ?>) o;
+            bindIfPresent(context, indexSlot, mapEntry.getKey());
+            bindIfPresent(context, itemSlot, mapEntry.getValue());
+        } else {
+            bindIfPresent(context, indexSlot, i);
+            bindIfPresent(context, itemSlot, o);
         }
     }
 
-    private void applyItem(DynamicContext context, Object o, int i) {
-        if (item != null) {
-            context.bind(item, o);
-            context.bind(itemizeItem(item, i), o);
+    private void unbindItem(DynamicContext context) {
+        if (itemSlot != null) {
+            context.unbind(itemSlot);
+        }
+        if (indexSlot != null) {
+            context.unbind(indexSlot);
+        }
+    }
+
+    private static void bindIfPresent(DynamicContext context, BindingLayout.Slot slot, Object o) {
+        if (slot != null) {
+            context.bind(slot, o);
         }
     }
 
@@ -172,99 +442,149 @@ public class ForEachSqlNode implements SqlNode {
         }
     }
 
-    private static String itemizeItem(String item, int i) {
-        return ITEM_PREFIX + item + "_" + i;
-    }
-
     /**
-     * 继承 DynamicContext 类.
-     * 实现子节点访问 <foreach /> 标签中的变量的替换的 DynamicContext 实现类。
+     * 只包含静态文本的循环体，例如 {@code #{item}} 、{@code (#{index}, #{item.name})} 。
+     * <p>
+     * 与 PrefixedContext 的处理结果一致：分隔符添加在第一个非空白的 SQL 片段之前。
+     * 参数值以 item / index 的值为根对象求值，其他参数从 bindings 中求值
      */
-    private static class FilteredDynamicContext extends DynamicContext {
-        private final DynamicContext delegate;
+    private static final class SimpleBody {
+        private static final int FROM_BINDINGS = 0;
+        private static final int FROM_ITEM = 1;
+        private static final int FROM_INDEX = 2;
+
         /**
-         * 唯一标识 {@link DynamicContext#getUniqueNumber()}
+         * 每个静态文本节点 #{} 替换为 ? 后的 SQL
          */
-        private final int index;
+        private final String[] sqls;
         /**
-         * 索引变量 {@link ForEachSqlNode#index}
+         * 分隔符添加在该下标的 SQL 片段之前
          */
-        private final String itemIndex;
+        private final int prefixPosition;
+        private final ParameterMapping[] parameterMappings;
         /**
-         * 集合项 {@link ForEachSqlNode#item}
+         * 参数值的来源：FROM_BINDINGS 、FROM_ITEM 、FROM_INDEX
          */
-        private final String item;
+        private final int[] sources;
         /**
-         * 集合名 {@link ForEachSqlNode#collectionExpression}
+         * 来源为 item / index 时，以其值为根对象的表达式
          */
-        private final String collection;
+        private final Expression[] expressions;
 
-        public FilteredDynamicContext(DynamicContext delegate, String itemIndex, String item, String collection, int i) {
-            super(null);
-            this.delegate = delegate;
-            this.index = i;
-            this.itemIndex = itemIndex;
-            this.collection = collection;
-            this.item = item;
-        }
-
-        @Override
-        public Map<String, Object> getBindings() {
-            return delegate.getBindings();
+        private SimpleBody(String[] sqls, int prefixPosition, ParameterMapping[] parameterMappings, int[] sources, Expression[] expressions) {
+            this.sqls = sqls;
+            this.prefixPosition = prefixPosition;
+            this.parameterMappings = parameterMappings;
+            this.sources = sources;
+            this.expressions = expressions;
         }
 
-        @Override
-        public void bind(String name, Object value) {
-            delegate.bind(name, value);
+        /**
+         * @return contents 不是只包含静态文本，或者参数无法直接从 item / index 上求值时返回 null
+         */
+        static SimpleBody of(SqlNode contents, String item, String index) {
+            List<SqlNode> nodes = contents instanceof MixedSqlNode ? ((MixedSqlNode) contents).getContents()
+                    : Collections.singletonList(contents);
+            String[] sqls = new String[nodes.size()];
+            int prefixPosition = -1;
+            List<ParameterMapping> parameterMappings = new ArrayList<>();
+            for (int i = 0; i < sqls.length; i++) {
+                if (!(nodes.get(i) instanceof StaticTextSqlNode)) {
+                    return null;
+                }
+                ParameterizedText text = ((StaticTextSqlNode) nodes.get(i)).getParameterizedText();
+                sqls[i] = text.getSql();
+                if (prefixPosition < 0 && sqls[i].trim().length() > 0) {
+                    prefixPosition = i;
+                }
+                Collections.addAll(parameterMappings, text.getParameterMappings());
+            }
+            if (prefixPosition < 0) {
+                return null;
+            }
+            int size = parameterMappings.size();
+            int[] sources = new int[size];
+            Expression[] expressions = new Expression[size];
+            for (int i = 0; i < size; i++) {
+                String property = parameterMappings.get(i).getProperty();
+                if (refersTo(property, item)) {
+                    sources[i] = FROM_ITEM;
+                    expressions[i] = ExpressionParser.parseMemberPath(property, item);
+                } else if (refersTo(property, index)) {
+                    sources[i] = FROM_INDEX;
+                    expressions[i] = ExpressionParser.parseMemberPath(property, index);
+                } else {
+                    sources[i] = FROM_BINDINGS;
+                    continue;
+                }
+                if (expressions[i] == null) {
+                    return null;
+                }
+            }
+            return new SimpleBody(sqls, prefixPosition, parameterMappings.toArray(new ParameterMapping[0]), sources, expressions);
         }
 
-        @Override
-        public String getSql() {
-            return delegate.getSql();
+        /**
+         * 属性路径是否以变量开头，例如 item 、item.name 、item[0] ，但不包括 items
+         */
+        private static boolean refersTo(String property, String variable) {
+            if (variable == null || !property.startsWith(variable)) {
+                return false;
+            }
+            if (property.length() == variable.length()) {
+                return true;
+            }
+            char c = property.charAt(variable.length());
+            return !Character.isJavaIdentifierPart(c);
         }
 
-        @Override
-        public void appendSql(String sql) {
-            GenericTokenParser parser = new GenericTokenParser("#{", "}", content -> {
-                // 将对 item 的访问，替换成 itemizeItem(item, index) 。
-                String newContent = content.replaceFirst("^\\s*" + item + "(?![^.,:\\s])", itemizeItem(collection + "_" + item, index));
-                // 将对 itemIndex 的访问，替换成 itemizeItem(itemIndex, index) 。
-                if (itemIndex != null && newContent.equals(content)) {
-                    newContent = content.replaceFirst("^\\s*" + itemIndex + "(?![^.,:\\s])", itemizeItem(itemIndex, index));
+        void appendSql(DynamicContext context, String prefix) {
+            for (int i = 0; i < sqls.length; i++) {
+                if (i == prefixPosition) {
+                    context.appendSql(prefix);
                 }
-                // 返回 #{__frch_collection_item_0}
-                return "#{" + newContent + "}";
-            });
-
-            // 执行 GenericTokenParser 的解析
-            // 添加到 delegate 中
-            delegate.appendSql(parser.parse(sql));
+                context.appendSql(sqls[i]);
+            }
         }
 
-        @Override
-        public int getUniqueNumber() {
-            return delegate.getUniqueNumber();
+        void appendParameters(DynamicContext context, Object indexValue, Object itemValue) {
+            for (int i = 0; i < sources.length; i++) {
+                switch (sources[i]) {
+                    case FROM_ITEM:
+                        context.addParameterValue(expressions[i].getValue(itemValue));
+                        break;
+                    case FROM_INDEX:
+                        context.addParameterValue(expressions[i].getValue(indexValue));
+                        break;
+                    default:
+                        context.appendParameter(parameterMappings[i]);
+                }
+            }
         }
-
     }
 
-
     private class PrefixedContext extends DynamicContext {
         private final DynamicContext delegate;
-        private final String prefix;
+        private String prefix;
         private boolean prefixApplied;
 
         /**
-         * 生成新的 context 对象。
-         * 类型为 PrefixedContext 对象，只有在非首次，才会传入 separator 属性。
-         * 因为，PrefixedContext 处理的是集合元素之间的分隔符。
+         * 生成新的 context 对象，遍历的所有元素共用。
          *
          * @param delegate
-         * @param prefix
          */
-        public PrefixedContext(DynamicContext delegate, String prefix) {
-            super(null);
+        public PrefixedContext(DynamicContext delegate) {
+            super();
             this.delegate = delegate;
+        }
+
+        /**
+         * 开始处理一个元素。只有在非首次，才会传入 separator 属性。
+         * 因为，PrefixedContext 处理的是集合元素之间的分隔符。
+         *
+         * @param prefix 前缀
+         */
+        void reset(String prefix) {
             this.prefix = prefix;
             this.prefixApplied = false;
         }
@@ -304,6 +624,21 @@ public class ForEachSqlNode implements SqlNode {
         public int getUniqueNumber() {
             return delegate.getUniqueNumber();
         }
+
+        @Override
+        public void addParameterValue(Object value) {
+            delegate.addParameterValue(value);
+        }
+
+        @Override
+        public SqlShape getShape() {
+            return delegate.getShape();
+        }
+
+        @Override
+        public boolean isCompact() {
+            return delegate.isCompact();
+        }
     }
 
 }
@@ -15,6 +15,11 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
+
+import java.util.Map;
+
 /**
  * 实现 SqlNode 接口，<if /> 标签的 SqlNode 实现类。
  *
@@ -29,17 +34,59 @@ public class IfSqlNode implements SqlNode {
      * 判断表达式
      */
     private final String test;
+    /**
+     * 编译后的判断表达式
+     */
+    private final Expression testExpression;
     /**
      * 内嵌的 SqlNode 节点
      */
     private final SqlNode contents;
 
     public IfSqlNode(SqlNode contents, String test) {
+        this(contents, test, null);
+    }
+
+    /**
+     * @param layout 语句的变量表，表达式引用的变量在其中确定位置
+     */
+    public IfSqlNode(SqlNode contents, String test, BindingLayout layout) {
         this.test = test;
+        this.testExpression = ExpressionParser.parse(test, layout);
         this.contents = contents;
         this.evaluator = new ExpressionEvaluator();
     }
 
+    /**
+     * 复制本节点，内嵌的 SqlNode 替换为 contents ，使用相同的编译后的表达式，见 {@link SqlNodeOptimizer}
+     */
+    IfSqlNode withContents(SqlNode contents) {
+        return new IfSqlNode(this, contents);
+    }
+
+    private IfSqlNode(IfSqlNode source, SqlNode contents) {
+        this.test = source.test;
+        this.testExpression = source.testExpression;
+        this.contents = contents;
+        this.evaluator = source.evaluator;
+    }
+
+    String getTest() {
+        return test;
+    }
+
+    SqlNode getContents() {
+        return contents;
+    }
+
+    /**
+     * @param bindings 上下文的参数集合
+     * @return 是否符合条件
+     */
+    boolean test(Map<String, Object> bindings) {
+        return evaluator.evaluateBoolean(testExpression, bindings);
+    }
+
     /**
      * 计算if表达式的值
      *
@@ -48,8 +95,18 @@ public class IfSqlNode implements SqlNode {
      */
     @Override
     public boolean apply(DynamicContext context) {
-        // 1. 判断是否符合条件
-        if (evaluator.evaluateBoolean(test, context.getBindings())) {
+        // 1. 判断是否符合条件，回放时使用记录的结果
+        SqlShape shape = context.getShape();
+        boolean matched;
+        if (shape != null && shape.isReplaying()) {
+            matched = shape.nextCondition();
+        } else {
+            matched = test(context.getBindings());
+            if (shape != null) {
+                shape.addCondition(matched);
+            }
+        }
+        if (matched) {
             // 2. 符合，执行 contents 的应用
             contents.apply(context);
             // 返回成功
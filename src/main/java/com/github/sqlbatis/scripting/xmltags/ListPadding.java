@@ -0,0 +1,123 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.builder.BuilderException;
+
+import java.util.Arrays;
+
+/**
+ * &lt;foreach&gt; 元素个数的补齐规则。
+ * <p>
+ * 元素个数补齐到不小于它的最小档位，补齐的元素重复最后一个元素，
+ * 使 IN (...) 的 SQL 只有有限的几种，便于数据库和 PreparedStatement 缓存。
+ * 只适用于重复元素不改变语义的循环，例如 IN 列表；用于批量 INSERT 时会插入重复的行。
+ * 全局的补齐规则只用于 IN 列表，见 {@link ForEachSqlNode#defaultPadding}
+ * <pre>
+ * <foreach collection="ids" item="id" open="(" separator="," close=")" padding="pow2">#{id}</foreach>
+ * <foreach collection="ids" item="id" open="(" separator="," close=")" padding="10,50,100,500">#{id}</foreach>
+ * </pre>
+ *
+ * @author Laba Zhang
+ */
+public final class ListPadding {
+
+    /**
+     * 补齐到 2 的幂
+     */
+    public static final ListPadding POWERS_OF_TWO = new ListPadding(null);
+
+    /**
+     * 升序的档位，为 null 时使用 2 的幂
+     */
+    private final int[] buckets;
+
+    private ListPadding(int[] buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * @param buckets 档位，元素个数超出最大的档位时不补齐
+     */
+    public static ListPadding of(int... buckets) {
+        if (buckets == null || buckets.length == 0) {
+            throw new IllegalArgumentException("buckets must not empty");
+        }
+        int[] sorted = buckets.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] <= 0) {
+            throw new IllegalArgumentException("buckets must be positive: " + Arrays.toString(buckets));
+        }
+        return new ListPadding(sorted);
+    }
+
+    /**
+     * 解析 &lt;foreach&gt; 的 padding 属性
+     *
+     * @param padding pow2 、none 或以逗号分隔的档位
+     * @return 为空或 none 时返回 null
+     */
+    public static ListPadding parse(String padding) {
+        if (padding == null || padding.trim().isEmpty() || "none".equals(padding.trim())) {
+            return null;
+        }
+        if ("pow2".equals(padding.trim())) {
+            return POWERS_OF_TWO;
+        }
+        String[] values = padding.split(",");
+        int[] buckets = new int[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                buckets[i] = Integer.parseInt(values[i].trim());
+            }
+            return of(buckets);
+        } catch (IllegalArgumentException e) {
+            throw new BuilderException("Invalid padding '" + padding + "' of <foreach>, expected pow2, none or a list of sizes", e);
+        }
+    }
+
+    /**
+     * @param size 元素个数
+     * @return 补齐后的元素个数，不小于 size
+     */
+    public int pad(int size) {
+        if (size <= 0) {
+            return size;
+        }
+        if (buckets == null) {
+            int padded = Integer.highestOneBit(size);
+            return padded == size || padded == Integer.highestOneBit(Integer.MAX_VALUE) ? size : padded << 1;
+        }
+        for (int bucket : buckets) {
+            if (bucket >= size) {
+                return bucket;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return 升序的档位，2 的幂时返回 null
+     */
+    int[] getBuckets() {
+        return buckets == null ? null : buckets.clone();
+    }
+
+    @Override
+    public String toString() {
+        return buckets == null ? "pow2" : Arrays.toString(buckets);
+    }
+}
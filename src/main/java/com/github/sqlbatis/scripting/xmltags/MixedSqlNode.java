@@ -38,4 +38,8 @@ public class MixedSqlNode implements SqlNode {
         contents.forEach(node -> node.apply(context));
         return true;
     }
+
+    List<SqlNode> getContents() {
+        return contents;
+    }
 }
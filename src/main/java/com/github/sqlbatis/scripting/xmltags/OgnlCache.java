@@ -15,12 +15,26 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
+import com.github.sqlbatis.SqlBatis;
 import com.github.sqlbatis.builder.BuilderException;
+import ognl.ASTConst;
+import ognl.ASTProperty;
+import ognl.Node;
 import ognl.Ognl;
+import ognl.OgnlContext;
 import ognl.OgnlException;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Caches OGNL parsed expressions.
@@ -28,6 +42,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * 在记性OGNL表达式解析时，先验证是否已经解析过，如果解析过那么直接拿来使用，否则进行解析。
  * <p>
+ * 缓存有容量上限，超出 {@link #getMaxSize()} 时使用 GCLOCK 算法淘汰：每个条目记录最近的访问次数（最多 {@link #MAX_FREQUENCY}），
+ * 淘汰时遍历条目并递减次数，第一个次数为 0 的条目被淘汰，经常使用的表达式不会被偶尔出现的表达式挤出。
+ * 同一个表达式只由一个线程解析，解析时不持有 ConcurrentHashMap 的锁，其它线程等待解析结果。
+ * <p>
+ * 设置 {@link #setCompileThreshold(int)} 后，求值次数达到阈值的 OGNL 表达式使用 {@link Ognl#compileExpression(OgnlContext, Object, String)}
+ * 编译为字节码（需要 javassist ，JDK 9 及以上还需要 {@code --add-opens java.base/java.lang=ALL-UNNAMED}）。
+ * OGNL 编译时会对表达式求值来推断类型，所以只编译由常量、运算符和变量组成的表达式，并且变量的值都是 JDK 的类型，
+ * 求值在变量值的副本上进行，不会执行方法调用、赋值和参数对象的 getter 等用户代码。
+ * 编译后的代码只在 root 为 {@link DynamicContext.ContextMap} 并且变量值的类型与编译时相同时使用，
+ * 否则解释执行；编译后的代码抛出 ClassCastException 时回退为解释执行，其它异常直接抛出。
+ * 模板中的表达式大多由内置引擎执行，只有内置引擎不支持的语法才到达这里，这些表达式（in 、方法调用 、投影等）通常不满足上面的条件，
+ * 所以阈值也用于内置引擎的表达式，见 {@link com.github.sqlbatis.scripting.expression.ExpressionParser#getCompiledCount()} 。
+ * <p>
  * 例如：{@link ExpressionEvaluator#evaluateBoolean(String, Object)}
  *
  * @author Eduardo Macarron
@@ -35,6 +62,15 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class OgnlCache {
 
+    /**
+     * 默认最大缓存条目数
+     */
+    public static final int DEFAULT_MAX_SIZE = 4096;
+    /**
+     * 访问次数的上限
+     */
+    static final int MAX_FREQUENCY = 3;
+
     /**
      * OgnlMemberAccess 单例
      */
@@ -44,37 +80,411 @@ public final class OgnlCache {
      */
     private static final OgnlClassResolver CLASS_RESOLVER = new OgnlClassResolver();
 
+    /**
+     * 可以编译的 OGNL 节点：常量和运算符，它们在编译时求值不会调用用户代码。OGNL 的大部分节点类不是 public ，按类名判断
+     */
+    private static final Set<String> COMPILABLE_NODES = new HashSet<>(Arrays.asList("ASTConst",
+            "ASTAnd", "ASTOr", "ASTNot", "ASTTest", "ASTEq", "ASTNotEq", "ASTLess", "ASTLessEq", "ASTGreater", "ASTGreaterEq",
+            "ASTAdd", "ASTSubtract", "ASTMultiply", "ASTDivide", "ASTRemainder", "ASTNegate"));
+
     /**
      * 表达式的缓存的映射
      * <p>
      * KEY：表达式
      * VALUE：表达式的缓存 @see #parseExpression(String)
      */
-    private static final Map<String, Object> expressionCache = new ConcurrentHashMap<>();
+    private static final Map<String, Entry> expressionCache = new ConcurrentHashMap<>();
+    /**
+     * GCLOCK 的时钟指针，在多次淘汰之间保持位置，只在 synchronized (expressionCache) 内使用
+     */
+    private static Iterator<Map.Entry<String, Entry>> hand;
+
+    /**
+     * 最大缓存条目数，小于等于 0 时表示不缓存
+     */
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+    /**
+     * 求值多少次后编译表达式，小于等于 0 时表示不编译
+     */
+    private static volatile int compileThreshold = 0;
+
+    private static final LongAdder hitCount = new LongAdder();
+    private static final LongAdder missCount = new LongAdder();
+    private static final LongAdder evictionCount = new LongAdder();
+    private static final LongAdder compiledCount = new LongAdder();
+    private static final LongAdder compileFailureCount = new LongAdder();
+    private static final LongAdder deoptimizationCount = new LongAdder();
 
     private OgnlCache() {
         // Prevent Instantiation of Static Class
     }
 
+    /**
+     * 求表达式的值。root 为 DynamicContext 的 bindings 时复用它的 OGNL Context ，一次渲染只创建一个
+     */
     public static Object getValue(String expression, Object root) {
         try {
-            // 1. 创建 OGNL Context 对象
-            Map context = Ognl.createDefaultContext(root, MEMBER_ACCESS, CLASS_RESOLVER, null);
-            // 2. 解析表达式
-            // 3. 获得表达式对应的值
-            return Ognl.getValue(parseExpression(expression), context, root);
+            // 1. 获得 OGNL Context 对象
+            OgnlContext context = root instanceof DynamicContext.ContextMap ? ((DynamicContext.ContextMap) root).getOgnlContext()
+                    : createContext(root);
+            // 2. 解析表达式，不缓存时直接解释执行
+            Entry entry = getEntry(expression);
+            if (entry == null) {
+                return Ognl.getValue(Ognl.parseExpression(expression), context, root);
+            }
+            // 3. 获得表达式对应的值，Ognl 在求值前把 root 设置到 context 上。优先使用编译后的表达式
+            if (root instanceof DynamicContext.ContextMap) {
+                DynamicContext.ContextMap bindings = (DynamicContext.ContextMap) root;
+                Node compiled = entry.compiledFor(bindings);
+                if (compiled == null && entry.shouldCompile()) {
+                    compiled = compile(entry, expression, bindings);
+                }
+                if (compiled != null) {
+                    try {
+                        return Ognl.getValue(compiled, context, root);
+                    } catch (ClassCastException e) {
+                        // 只有生成的代码中的类型转换失败才回退。编译的表达式不调用用户代码，重新解释执行没有副作用
+                        if (!entry.isThrownByCompiled(e)) {
+                            throw e;
+                        }
+                        if (entry.state.compareAndSet(Entry.COMPILED, Entry.INTERPRETED_ONLY)) {
+                            deoptimizationCount.increment();
+                        }
+                    }
+                }
+            }
+            return Ognl.getValue(entry.get(), context, root);
         } catch (OgnlException e) {
             throw new BuilderException("Error evaluating expression '" + expression + "'. Cause: " + e, e);
         }
     }
 
-    private static Object parseExpression(String expression) throws OgnlException {
-        Object node = expressionCache.get(expression);
-        if (node == null) {
+    /**
+     * 创建 OGNL Context 对象，可以在同一线程内用于多次求值
+     */
+    static OgnlContext createContext(Object root) {
+        return (OgnlContext) Ognl.createDefaultContext(root, MEMBER_ACCESS, CLASS_RESOLVER, null);
+    }
+
+    /**
+     * @return 表达式的缓存条目，已解析完成；不缓存时返回 null
+     */
+    private static Entry getEntry(String expression) throws OgnlException {
+        Entry entry = expressionCache.get(expression);
+        if (entry == null) {
+            if (maxSize <= 0) {
+                missCount.increment();
+                SqlBatis.getMetricsListener().ognlCacheAccessed(expression, false);
+                return null;
+            }
+            // 先放入未完成的条目，放入成功的线程负责解析，其它线程等待结果
+            Entry created = new Entry();
+            entry = expressionCache.putIfAbsent(expression, created);
+            if (entry == null) {
+                missCount.increment();
+                SqlBatis.getMetricsListener().ognlCacheAccessed(expression, false);
+                parse(expression, created);
+                return created;
+            }
+        }
+        hitCount.increment();
+        SqlBatis.getMetricsListener().ognlCacheAccessed(expression, true);
+        entry.touch();
+        // 等待其它线程解析完成
+        entry.get();
+        return entry;
+    }
+
+    private static void parse(String expression, Entry entry) throws OgnlException {
+        Object node;
+        try {
             node = Ognl.parseExpression(expression);
-            expressionCache.put(expression, node);
+        } catch (OgnlException | RuntimeException e) {
+            // 解析失败的表达式不缓存，等待的线程得到相同的异常
+            expressionCache.remove(expression, entry);
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+        entry.future.complete(node);
+        evictIfNecessary(expression);
+    }
+
+    /**
+     * 编译表达式，只由一个线程执行，失败时之后一直解释执行。
+     * <p>
+     * 编译时的求值在只包含变量值的副本上进行，变量值都是 JDK 的类型，不会调用用户代码
+     *
+     * @return 编译后的表达式，失败时返回 null
+     */
+    private static Node compile(Entry entry, String expression, DynamicContext.ContextMap bindings) {
+        if (!entry.state.compareAndSet(Entry.INTERPRETED, Entry.COMPILING)) {
+            return null;
+        }
+        try {
+            String[] names = variables((Node) entry.get());
+            if (names != null) {
+                Class<?>[] types = new Class<?>[names.length];
+                DynamicContext.ContextMap probe = new DynamicContext.ContextMap(new BindingLayout(), null);
+                for (int i = 0; i < names.length; i++) {
+                    Object value = bindings.peek(names[i]);
+                    if (value == DynamicContext.ContextMap.OPAQUE || (value != null && value.getClass().getClassLoader() != null)) {
+                        types = null;
+                        break;
+                    }
+                    types[i] = value == null ? null : value.getClass();
+                    probe.put(names[i], value);
+                }
+                if (types != null) {
+                    Node compiled = Ognl.compileExpression(probe.getOgnlContext(), probe, expression);
+                    entry.compiled = compiled;
+                    entry.guardNames = names;
+                    entry.guardTypes = types;
+                    entry.state.set(Entry.COMPILED);
+                    compiledCount.increment();
+                    return compiled;
+                }
+            }
+        } catch (Exception e) {
+            // 例如 javassist 不可用、表达式不支持编译
+        }
+        entry.state.set(Entry.INTERPRETED_ONLY);
+        compileFailureCount.increment();
+        return null;
+    }
+
+    /**
+     * @return 表达式读取的变量名；包含常量、运算符和变量以外的节点时返回 null ，例如方法调用、赋值、属性链
+     */
+    private static String[] variables(Node node) {
+        Set<String> names = new LinkedHashSet<>();
+        return collectVariables(node, names) ? names.toArray(new String[0]) : null;
+    }
+
+    private static boolean collectVariables(Node node, Set<String> names) {
+        if (node instanceof ASTProperty) {
+            ASTProperty property = (ASTProperty) node;
+            if (property.isIndexedAccess() || property.jjtGetNumChildren() != 1 || !(property.jjtGetChild(0) instanceof ASTConst)) {
+                return false;
+            }
+            Object name = ((ASTConst) property.jjtGetChild(0)).getValue();
+            if (!(name instanceof String)) {
+                return false;
+            }
+            names.add((String) name);
+            return true;
+        }
+        if (!COMPILABLE_NODES.contains(node.getClass().getSimpleName())) {
+            return false;
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (!collectVariables(node.jjtGetChild(i), names)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 淘汰超出容量的条目。时钟指针从上一次停下的位置继续遍历，递减访问次数，第一个次数为 0 的条目被淘汰；
+     * 到达末尾后从头开始。
+     *
+     * @param newKey 刚放入的 key，不参与本次淘汰
+     */
+    private static void evictIfNecessary(String newKey) {
+        int limit = maxSize;
+        if (expressionCache.size() <= limit) {
+            return;
+        }
+        synchronized (expressionCache) {
+            while (expressionCache.size() > limit) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = expressionCache.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, Entry> next = hand.next();
+                Entry entry = next.getValue();
+                if (limit > 1 && next.getKey().equals(newKey)) {
+                    continue;
+                }
+                if (entry.frequency > 0) {
+                    entry.frequency--;
+                } else if (expressionCache.remove(next.getKey(), entry)) {
+                    // 弱一致的迭代器可能返回已经被删除的条目，只淘汰仍在缓存中的条目
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 设置最大缓存条目数，超出的条目在下一次放入时淘汰
+     *
+     * @param maxSize 最大缓存条目数，小于等于 0 时表示不缓存
+     */
+    public static void setMaxSize(int maxSize) {
+        OgnlCache.maxSize = maxSize;
+        if (maxSize <= 0) {
+            expressionCache.clear();
+        }
+    }
+
+    public static int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    /**
+     * 设置编译表达式的阈值，同时用于 OGNL 和内置引擎的表达式，只影响之后达到阈值的表达式
+     *
+     * @param compileThreshold 求值多少次后编译表达式，小于等于 0 时表示不编译
+     */
+    public static void setCompileThreshold(int compileThreshold) {
+        OgnlCache.compileThreshold = compileThreshold;
+    }
+
+    public static int size() {
+        return expressionCache.size();
+    }
+
+    /**
+     * @return 表达式是否在缓存中，不影响淘汰
+     */
+    static boolean contains(String expression) {
+        return expressionCache.containsKey(expression);
+    }
+
+    public static void clear() {
+        expressionCache.clear();
+    }
+
+    public static long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public static long getMissCount() {
+        return missCount.sum();
+    }
+
+    public static long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return 编译成功的 OGNL 表达式个数
+     */
+    public static long getCompiledCount() {
+        return compiledCount.sum();
+    }
+
+    public static long getCompileFailureCount() {
+        return compileFailureCount.sum();
+    }
+
+    /**
+     * @return 编译后的代码执行失败，回退为解释执行的表达式个数
+     */
+    public static long getDeoptimizationCount() {
+        return deoptimizationCount.sum();
+    }
+
+    private static final class Entry {
+        private static final int INTERPRETED = 0;
+        private static final int COMPILING = 1;
+        private static final int COMPILED = 2;
+        /**
+         * 编译失败或编译后的代码执行失败，不再编译
+         */
+        private static final int INTERPRETED_ONLY = 3;
+
+        /**
+         * 解析结果，解析完成前其它线程在此等待
+         */
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        /**
+         * 最近的访问次数，不需要精确，并发递增丢失也没有关系
+         */
+        private volatile int frequency;
+        /**
+         * 解释执行的次数，不需要精确
+         */
+        private volatile int invocations;
+        private final AtomicInteger state = new AtomicInteger(INTERPRETED);
+        /**
+         * 编译后的表达式，以及它读取的变量和编译时变量值的类型（null 表示值为 null），在 state 设置为 COMPILED 之前写入
+         */
+        private Node compiled;
+        private String[] guardNames;
+        private Class<?>[] guardTypes;
+
+        void touch() {
+            // 已达上限时不再写，避免热点条目上的缓存行竞争
+            int current = frequency;
+            if (current < MAX_FREQUENCY) {
+                frequency = current + 1;
+            }
+        }
+
+        /**
+         * @return 编译后的表达式，未编译或变量值的类型与编译时不同时返回 null
+         */
+        Node compiledFor(DynamicContext.ContextMap bindings) {
+            if (state.get() != COMPILED) {
+                return null;
+            }
+            for (int i = 0; i < guardNames.length; i++) {
+                Object value = bindings.peek(guardNames[i]);
+                if (value == DynamicContext.ContextMap.OPAQUE || (value == null ? guardTypes[i] != null : value.getClass() != guardTypes[i])) {
+                    return null;
+                }
+            }
+            return compiled;
+        }
+
+        /**
+         * @return 异常是否由编译生成的代码抛出
+         */
+        boolean isThrownByCompiled(RuntimeException e) {
+            StackTraceElement[] stackTrace = e.getStackTrace();
+            return compiled.getAccessor() != null && stackTrace.length > 0
+                    && stackTrace[0].getClassName().equals(compiled.getAccessor().getClass().getName());
+        }
+
+        /**
+         * 记录一次解释执行
+         *
+         * @return 是否达到编译的阈值
+         */
+        boolean shouldCompile() {
+            int threshold = compileThreshold;
+            if (threshold <= 0 || state.get() != INTERPRETED) {
+                return false;
+            }
+            int current = invocations;
+            if (current < threshold) {
+                invocations = current + 1;
+            }
+            return current + 1 >= threshold;
+        }
+
+        Object get() throws OgnlException {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof OgnlException) {
+                    throw (OgnlException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
         }
-        return node;
     }
 
 }
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.builder.SqlSourceBuilder;
+import com.github.sqlbatis.mapping.ParameterMapping;
+import com.github.sqlbatis.parsing.GenericTokenParser;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 编译时预先解析 #{} 的 SQL 文本。
+ * <p>
+ * 例如：{@code "id = #{id} and name = #{name}"} => sql 为 {@code "id = ? and name = ?"} ，
+ * 以及两个 ParameterMapping 。渲染时直接添加 sql ，并按顺序记录参数值，不需要再扫描 #{} 。
+ *
+ * @author Laba Zhang
+ */
+public final class ParameterizedText {
+
+    private static final ParameterMapping[] NO_PARAMETERS = new ParameterMapping[0];
+
+    /**
+     * #{} 已经替换为 ? 的 SQL
+     */
+    private final String sql;
+    /**
+     * 按顺序存储的 #{} 对应的 ParameterMapping
+     */
+    private final ParameterMapping[] parameterMappings;
+
+    private ParameterizedText(String sql, ParameterMapping[] parameterMappings) {
+        this.sql = sql;
+        this.parameterMappings = parameterMappings;
+    }
+
+    /**
+     * 解析文本中的 #{}
+     *
+     * @param text 文本
+     * @return ParameterizedText 对象
+     */
+    public static ParameterizedText parse(String text) {
+        return parse(text, null);
+    }
+
+    /**
+     * 解析语句中文本的 #{} ，引用的变量在编译时确定位置
+     *
+     * @param text   文本
+     * @param layout 语句的变量表，为 null 时渲染时按变量名查找
+     * @return ParameterizedText 对象
+     */
+    public static ParameterizedText parse(String text, BindingLayout layout) {
+        List<String> parts = new GenericTokenParser("#{", "}", null).split(text);
+        if (parts.size() == 1) {
+            return new ParameterizedText(parts.get(0), NO_PARAMETERS);
+        }
+        StringBuilder sql = new StringBuilder(text.length());
+        ParameterMapping[] parameterMappings = new ParameterMapping[parts.size() / 2];
+        for (int i = 0; i < parts.size(); i++) {
+            if ((i & 1) == 0) {
+                sql.append(parts.get(i));
+            } else {
+                sql.append('?');
+                parameterMappings[i / 2] = SqlSourceBuilder.buildParameterMapping(parts.get(i), layout);
+            }
+        }
+        return new ParameterizedText(sql.toString(), parameterMappings);
+    }
+
+    /**
+     * 使用已经解析好的 SQL 和 ParameterMapping 创建，不再扫描 #{}
+     *
+     * @param sql               #{} 已经替换为 ? 的 SQL
+     * @param parameterMappings 按顺序存储的 ParameterMapping
+     * @return ParameterizedText 对象
+     */
+    static ParameterizedText of(String sql, ParameterMapping[] parameterMappings) {
+        return new ParameterizedText(sql, parameterMappings.length == 0 ? NO_PARAMETERS : parameterMappings);
+    }
+
+    /**
+     * 拼接两段已经解析好的文本，参数按顺序合并
+     *
+     * @param delimiter 两段文本之间的分隔符
+     * @param other     后一段文本
+     * @return 拼接后的 ParameterizedText 对象
+     */
+    ParameterizedText concat(String delimiter, ParameterizedText other) {
+        ParameterMapping[] merged = Arrays.copyOf(parameterMappings, parameterMappings.length + other.parameterMappings.length);
+        System.arraycopy(other.parameterMappings, 0, merged, parameterMappings.length, other.parameterMappings.length);
+        return of(sql + delimiter + other.sql, merged);
+    }
+
+    /**
+     * @return SQL 是否只包含空白字符
+     */
+    boolean isBlank() {
+        return sql.trim().isEmpty();
+    }
+
+    /**
+     * 添加 SQL ，并按顺序记录参数值
+     *
+     * @param context 上下文
+     */
+    public void apply(DynamicContext context) {
+        context.appendSql(sql);
+        appendParameters(context);
+    }
+
+    /**
+     * 只按顺序记录参数值，SQL 由调用方添加
+     *
+     * @param context 上下文
+     */
+    public void appendParameters(DynamicContext context) {
+        for (ParameterMapping parameterMapping : parameterMappings) {
+            context.appendParameter(parameterMapping);
+        }
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public boolean hasParameters() {
+        return parameterMappings.length > 0;
+    }
+
+    public ParameterMapping[] getParameterMappings() {
+        return parameterMappings.clone();
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译时优化 SqlNode 树，渲染生成的 SQL 和参数顺序与优化前一致：
+ * <ul>
+ *     <li>展开嵌套的 MixedSqlNode ，删除没有内容的节点（空的 MixedSqlNode 、内容为空的 &lt;if&gt;）</li>
+ *     <li>合并相邻的静态文本，#{} 已经在编译时替换为 ? ，合并时直接拼接，不再扫描</li>
+ *     <li>内容只有静态文本的 &lt;trim&gt; / &lt;where&gt; / &lt;set&gt; 折叠成静态文本</li>
+ * </ul>
+ * 片段的拼接方式与渲染时一致：&lt;trim&gt; 内直接拼接，其他位置使用空格分隔；
+ * &lt;foreach&gt; 内的分隔符添加在第一个非空白的片段之前，所以空白片段不与其后的非空白片段合并。
+ * <p>
+ * 例如：{@code select * from user <where>id = #{id}</where>} 优化后只剩一个静态文本 {@code select * from user WHERE id = ?} 。
+ *
+ * @author Laba Zhang
+ */
+public final class SqlNodeOptimizer {
+
+    private SqlNodeOptimizer() {
+    }
+
+    /**
+     * 优化 SqlNode 树，不修改原有的节点
+     *
+     * @param rootSqlNode 根 SqlNode 对象
+     * @return 优化后的根 SqlNode 对象，没有可优化的内容时返回 rootSqlNode 本身
+     */
+    public static SqlNode optimize(SqlNode rootSqlNode) {
+        return optimize(rootSqlNode, false, false);
+    }
+
+    /**
+     * @param sqlNode SqlNode 对象
+     * @return 是否只包含静态文本，渲染结果不随参数变化
+     */
+    public static boolean isStatic(SqlNode sqlNode) {
+        if (sqlNode instanceof StaticTextSqlNode) {
+            return true;
+        }
+        if (sqlNode instanceof MixedSqlNode) {
+            for (SqlNode child : ((MixedSqlNode) sqlNode).getContents()) {
+                if (!(child instanceof StaticTextSqlNode)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param sqlNode SqlNode 对象
+     * @return 树中的节点个数，包括 sqlNode 本身
+     */
+    static int countNodes(SqlNode sqlNode) {
+        int count = 1;
+        if (sqlNode instanceof MixedSqlNode) {
+            for (SqlNode child : ((MixedSqlNode) sqlNode).getContents()) {
+                count += countNodes(child);
+            }
+        } else if (sqlNode instanceof TrimSqlNode) {
+            count += countNodes(((TrimSqlNode) sqlNode).getContents());
+        } else if (sqlNode instanceof IfSqlNode) {
+            count += countNodes(((IfSqlNode) sqlNode).getContents());
+        } else if (sqlNode instanceof ForEachSqlNode) {
+            count += countNodes(((ForEachSqlNode) sqlNode).getContents());
+        } else if (sqlNode instanceof ChooseSqlNode) {
+            ChooseSqlNode chooseSqlNode = (ChooseSqlNode) sqlNode;
+            for (SqlNode when : chooseSqlNode.getIfSqlNodes()) {
+                count += countNodes(when);
+            }
+            if (chooseSqlNode.getDefaultSqlNode() != null) {
+                count += countNodes(chooseSqlNode.getDefaultSqlNode());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param inTrim   是否在 &lt;trim&gt; 内，片段直接拼接
+     * @param prefixed 是否在 &lt;foreach&gt; 内，片段之前可能添加分隔符
+     */
+    private static SqlNode optimize(SqlNode node, boolean inTrim, boolean prefixed) {
+        if (node instanceof MixedSqlNode) {
+            return optimizeMixed((MixedSqlNode) node, inTrim, prefixed);
+        }
+        if (node instanceof IfSqlNode) {
+            IfSqlNode ifSqlNode = (IfSqlNode) node;
+            SqlNode contents = optimize(ifSqlNode.getContents(), inTrim, prefixed);
+            return contents == ifSqlNode.getContents() ? node : ifSqlNode.withContents(contents);
+        }
+        if (node instanceof ChooseSqlNode) {
+            return optimizeChoose((ChooseSqlNode) node, inTrim, prefixed);
+        }
+        if (node instanceof TrimSqlNode) {
+            TrimSqlNode trimSqlNode = (TrimSqlNode) node;
+            // trim 内的片段先拼接，整体作为一个片段添加，所以不受外层 foreach 分隔符的影响
+            SqlNode contents = optimize(trimSqlNode.getContents(), true, false);
+            ParameterizedText text = staticText(contents);
+            if (text != null) {
+                return trimSqlNode.fold(text);
+            }
+            return contents == trimSqlNode.getContents() ? node : trimSqlNode.withContents(contents);
+        }
+        if (node instanceof ForEachSqlNode) {
+            ForEachSqlNode forEachSqlNode = (ForEachSqlNode) node;
+            SqlNode contents = optimize(forEachSqlNode.getContents(), inTrim, true);
+            return contents == forEachSqlNode.getContents() ? node : forEachSqlNode.withContents(contents);
+        }
+        return node;
+    }
+
+    private static SqlNode optimizeMixed(MixedSqlNode node, boolean inTrim, boolean prefixed) {
+        List<SqlNode> contents = new ArrayList<>(node.getContents().size());
+        flatten(node, inTrim, prefixed, contents);
+        List<SqlNode> merged = merge(contents, inTrim ? "" : " ", prefixed);
+        if (merged.equals(node.getContents())) {
+            return node;
+        }
+        return new MixedSqlNode(merged);
+    }
+
+    /**
+     * 优化每个子节点，展开嵌套的 MixedSqlNode ，删除没有内容的节点
+     */
+    private static void flatten(MixedSqlNode node, boolean inTrim, boolean prefixed, List<SqlNode> result) {
+        for (SqlNode child : node.getContents()) {
+            SqlNode optimized = optimize(child, inTrim, prefixed);
+            if (optimized instanceof MixedSqlNode) {
+                result.addAll(((MixedSqlNode) optimized).getContents());
+            } else if (!isEmpty(optimized)) {
+                result.add(optimized);
+            }
+        }
+    }
+
+    /**
+     * 合并相邻的静态文本
+     *
+     * @param delimiter 片段之间的分隔符
+     * @param prefixed  为 true 时，空白片段不与其后的非空白片段合并
+     */
+    private static List<SqlNode> merge(List<SqlNode> contents, String delimiter, boolean prefixed) {
+        List<SqlNode> result = new ArrayList<>(contents.size());
+        ParameterizedText pending = null;
+        SqlNode pendingNode = null;
+        for (SqlNode node : contents) {
+            if (!(node instanceof StaticTextSqlNode)) {
+                flush(result, pending, pendingNode);
+                pending = null;
+                pendingNode = null;
+                result.add(node);
+                continue;
+            }
+            ParameterizedText text = ((StaticTextSqlNode) node).getParameterizedText();
+            if (pending == null) {
+                pending = text;
+                pendingNode = node;
+            } else if (prefixed && pending.isBlank() && !text.isBlank()) {
+                flush(result, pending, pendingNode);
+                pending = text;
+                pendingNode = node;
+            } else {
+                pending = pending.concat(delimiter, text);
+                pendingNode = null;
+            }
+        }
+        flush(result, pending, pendingNode);
+        return result;
+    }
+
+    private static void flush(List<SqlNode> result, ParameterizedText pending, SqlNode pendingNode) {
+        if (pending != null) {
+            result.add(pendingNode != null ? pendingNode : new StaticTextSqlNode(pending));
+        }
+    }
+
+    /**
+     * &lt;when&gt; 即使内容为空也不能删除，否则会改变 &lt;choose&gt; 的匹配结果
+     */
+    private static SqlNode optimizeChoose(ChooseSqlNode node, boolean inTrim, boolean prefixed) {
+        boolean changed = false;
+        List<SqlNode> ifSqlNodes = new ArrayList<>(node.getIfSqlNodes().size());
+        for (SqlNode ifSqlNode : node.getIfSqlNodes()) {
+            SqlNode optimized = optimize(ifSqlNode, inTrim, prefixed);
+            changed |= optimized != ifSqlNode;
+            ifSqlNodes.add(optimized);
+        }
+        SqlNode defaultSqlNode = node.getDefaultSqlNode();
+        if (defaultSqlNode != null) {
+            SqlNode optimized = optimize(defaultSqlNode, inTrim, prefixed);
+            changed |= optimized != defaultSqlNode;
+            defaultSqlNode = optimized;
+        }
+        return changed ? new ChooseSqlNode(ifSqlNodes, defaultSqlNode) : node;
+    }
+
+    /**
+     * @return 只包含静态文本时返回合并后的文本，否则返回 null
+     */
+    private static ParameterizedText staticText(SqlNode node) {
+        if (node instanceof StaticTextSqlNode) {
+            return ((StaticTextSqlNode) node).getParameterizedText();
+        }
+        if (node instanceof MixedSqlNode) {
+            List<SqlNode> contents = ((MixedSqlNode) node).getContents();
+            if (contents.isEmpty()) {
+                return ParameterizedText.parse("");
+            }
+            if (contents.size() == 1 && contents.get(0) instanceof StaticTextSqlNode) {
+                return ((StaticTextSqlNode) contents.get(0)).getParameterizedText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 没有内容的节点：空的 MixedSqlNode ，以及内容为空的 &lt;if&gt;（只影响是否添加空内容）
+     */
+    private static boolean isEmpty(SqlNode node) {
+        if (node instanceof MixedSqlNode) {
+            return ((MixedSqlNode) node).getContents().isEmpty();
+        }
+        if (node instanceof IfSqlNode) {
+            return isEmpty(((IfSqlNode) node).getContents());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 动态 SQL 的形状。
+ * <p>
+ * 对于同一个 {@link DynamicSqlSource}，生成的 SQL 文本只取决于：哪些 &lt;if&gt; / &lt;when&gt; 成立、
+ * &lt;foreach&gt; 的元素个数、${} 的值，与 #{} 的值无关。
+ * 渲染时按顺序记录这些决定，相同形状的 SQL 文本（包括 #{} 的顺序）也相同，可以被缓存。
+ * <p>
+ * 记录的形状还可以被回放（{@link #replay()}），回放时节点不再计算表达式，只按记录的决定生成 SQL 。
+ *
+ * @author Laba Zhang
+ */
+public final class SqlShape {
+
+    /**
+     * 按顺序记录的决定：Boolean（if / when）、Integer（foreach 的元素个数）、String（${} 的值）
+     */
+    private final List<Object> decisions;
+    /**
+     * 是否为回放
+     */
+    private final boolean replaying;
+    /**
+     * 回放的位置
+     */
+    private int cursor;
+
+    public SqlShape() {
+        this.decisions = new ArrayList<>();
+        this.replaying = false;
+    }
+
+    private SqlShape(List<Object> decisions) {
+        this.decisions = decisions;
+        this.replaying = true;
+    }
+
+    /**
+     * 清空记录的决定，用于复用记录形状的 SqlShape
+     */
+    void reset() {
+        decisions.clear();
+        cursor = 0;
+    }
+
+    /**
+     * @return 记录的决定的副本，用于放入缓存
+     */
+    public SqlShape copy() {
+        SqlShape copy = new SqlShape();
+        copy.decisions.addAll(decisions);
+        return copy;
+    }
+
+    /**
+     * @return 按记录的决定回放的形状
+     */
+    public SqlShape replay() {
+        return new SqlShape(decisions);
+    }
+
+    public boolean isReplaying() {
+        return replaying;
+    }
+
+    public void addCondition(boolean matched) {
+        decisions.add(matched);
+    }
+
+    public boolean nextCondition() {
+        return (Boolean) decisions.get(cursor++);
+    }
+
+    /**
+     * 开始记录一个 foreach ，元素个数在遍历结束后通过 {@link #setLoopSize(int, int)} 填入
+     *
+     * @return 记录的位置
+     */
+    public int addLoop() {
+        decisions.add(0);
+        return decisions.size() - 1;
+    }
+
+    public void setLoopSize(int position, int size) {
+        decisions.set(position, size);
+    }
+
+    public int nextLoopSize() {
+        return (Integer) decisions.get(cursor++);
+    }
+
+    public void addText(String text) {
+        decisions.add(text);
+    }
+
+    public String nextText() {
+        return (String) decisions.get(cursor++);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SqlShape)) {
+            return false;
+        }
+        return decisions.equals(((SqlShape) o).decisions);
+    }
+
+    @Override
+    public int hashCode() {
+        return decisions.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return decisions.toString();
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.mapping.ParameterMapping;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.scripting.defaults.RawSqlSource;
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的 SqlSource 的二进制编码，用于保存编译结果，下次启动时不需要再解析 XML 。
+ * <p>
+ * 按先序写入 SqlNode 树：每个节点一个类型字节，之后是节点的属性和子节点。
+ * 文本保存解析 #{} 后的 SQL 和 ParameterMapping ，${} 保存拆分后的片段，读取时不再扫描；
+ * 表达式保存原始字符串，读取时由 {@link ExpressionParser} 重新解析，不依赖表达式的内部结构。
+ * <p>
+ * 读取时按原来的顺序重新创建 {@link BindingLayout} ，{@link VariantSqlSource} 写入预先计算前的
+ * {@link DynamicSqlSource} ，读取后由调用方按当前的设置重新预先计算。
+ *
+ * @author Laba Zhang
+ */
+public final class SqlSourceCodec {
+
+    private static final byte RAW_SOURCE = 1;
+    private static final byte DYNAMIC_SOURCE = 2;
+
+    private static final byte MIXED = 1;
+    private static final byte STATIC_TEXT = 2;
+    private static final byte TEXT = 3;
+    private static final byte IF = 4;
+    private static final byte CHOOSE = 5;
+    private static final byte TRIM = 6;
+    private static final byte FOREACH = 7;
+    private static final byte BIND = 8;
+
+    private static final byte NO_PADDING = 0;
+    private static final byte POWERS_OF_TWO = 1;
+    private static final byte BUCKETS = 2;
+
+    private SqlSourceCodec() {
+    }
+
+    /**
+     * 写入编译后的 SqlSource
+     *
+     * @param sqlSource RawSqlSource 、DynamicSqlSource 或 VariantSqlSource
+     * @param out       输出
+     * @throws BuilderException SqlSource 或其中的 SqlNode 不支持编码时
+     */
+    public static void write(SqlSource sqlSource, DataOutput out) throws IOException {
+        if (sqlSource instanceof RawSqlSource) {
+            RawSqlSource rawSqlSource = (RawSqlSource) sqlSource;
+            out.writeByte(RAW_SOURCE);
+            writeString(out, rawSqlSource.getSql());
+            writeParameterMappings(out, rawSqlSource.getParameterMappings().toArray(new ParameterMapping[0]));
+            return;
+        }
+        DynamicSqlSource dynamicSqlSource;
+        if (sqlSource instanceof VariantSqlSource) {
+            dynamicSqlSource = ((VariantSqlSource) sqlSource).getSource();
+        } else if (sqlSource instanceof DynamicSqlSource) {
+            dynamicSqlSource = (DynamicSqlSource) sqlSource;
+        } else {
+            throw new BuilderException("Unsupported sql source " + sqlSource.getClass().getName() + " in snapshot.");
+        }
+        out.writeByte(DYNAMIC_SOURCE);
+        out.writeBoolean(dynamicSqlSource.isCompact());
+        out.writeInt(dynamicSqlSource.getMaxShapes());
+        writeNode(out, dynamicSqlSource.getRootSqlNode());
+    }
+
+    /**
+     * 读取 {@link #write(SqlSource, DataOutput)} 写入的 SqlSource
+     *
+     * @param in 输入
+     * @return RawSqlSource 或 DynamicSqlSource ，没有预先计算
+     * @throws IOException 读取失败或内容不完整时
+     */
+    public static SqlSource read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type == RAW_SOURCE) {
+            String sql = readString(in);
+            return new RawSqlSource(sql, Arrays.asList(readParameterMappings(in, null)));
+        }
+        if (type == DYNAMIC_SOURCE) {
+            boolean compact = in.readBoolean();
+            int maxShapes = in.readInt();
+            BindingLayout layout = new BindingLayout();
+            SqlNode rootSqlNode = readNode(in, layout);
+            return new DynamicSqlSource(rootSqlNode, layout, maxShapes, compact);
+        }
+        throw new StreamCorruptedException("Unknown sql source type " + type);
+    }
+
+    private static void writeNode(DataOutput out, SqlNode node) throws IOException {
+        if (node instanceof MixedSqlNode) {
+            List<SqlNode> contents = ((MixedSqlNode) node).getContents();
+            out.writeByte(MIXED);
+            out.writeInt(contents.size());
+            for (SqlNode child : contents) {
+                writeNode(out, child);
+            }
+        } else if (node instanceof StaticTextSqlNode) {
+            out.writeByte(STATIC_TEXT);
+            writeParameterizedText(out, ((StaticTextSqlNode) node).getParameterizedText());
+        } else if (node instanceof TextSqlNode) {
+            writeText(out, (TextSqlNode) node);
+        } else if (node instanceof IfSqlNode) {
+            IfSqlNode ifSqlNode = (IfSqlNode) node;
+            out.writeByte(IF);
+            writeString(out, ifSqlNode.getTest());
+            writeNode(out, ifSqlNode.getContents());
+        } else if (node instanceof ChooseSqlNode) {
+            ChooseSqlNode chooseSqlNode = (ChooseSqlNode) node;
+            out.writeByte(CHOOSE);
+            out.writeInt(chooseSqlNode.getIfSqlNodes().size());
+            for (SqlNode ifSqlNode : chooseSqlNode.getIfSqlNodes()) {
+                writeNode(out, ifSqlNode);
+            }
+            out.writeBoolean(chooseSqlNode.getDefaultSqlNode() != null);
+            if (chooseSqlNode.getDefaultSqlNode() != null) {
+                writeNode(out, chooseSqlNode.getDefaultSqlNode());
+            }
+        } else if (node instanceof TrimSqlNode) {
+            // <where> / <set> 按 <trim> 写入，渲染结果一致
+            TrimSqlNode trimSqlNode = (TrimSqlNode) node;
+            out.writeByte(TRIM);
+            writeString(out, trimSqlNode.getPrefix());
+            writeStrings(out, trimSqlNode.getPrefixesToOverride());
+            writeString(out, trimSqlNode.getSuffix());
+            writeStrings(out, trimSqlNode.getSuffixesToOverride());
+            writeNode(out, trimSqlNode.getContents());
+        } else if (node instanceof ForEachSqlNode) {
+            ForEachSqlNode forEachSqlNode = (ForEachSqlNode) node;
+            out.writeByte(FOREACH);
+            writeString(out, forEachSqlNode.getCollectionExpression());
+            writeString(out, forEachSqlNode.getIndex());
+            writeString(out, forEachSqlNode.getItem());
+            writeString(out, forEachSqlNode.getOpen());
+            writeString(out, forEachSqlNode.getClose());
+            writeString(out, forEachSqlNode.getSeparator());
+            writePadding(out, forEachSqlNode.getPadding());
+            writeNode(out, forEachSqlNode.getContents());
+        } else if (node instanceof VarDeclSqlNode) {
+            VarDeclSqlNode varDeclSqlNode = (VarDeclSqlNode) node;
+            out.writeByte(BIND);
+            writeString(out, varDeclSqlNode.getName());
+            writeString(out, varDeclSqlNode.getExpression());
+        } else {
+            throw new BuilderException("Unsupported sql node " + (node == null ? null : node.getClass().getName()) + " in snapshot.");
+        }
+    }
+
+    /**
+     * 子节点先于父节点创建，与编译时注册变量的顺序一致
+     */
+    private static SqlNode readNode(DataInput in, BindingLayout layout) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case MIXED: {
+                int size = in.readInt();
+                List<SqlNode> contents = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    contents.add(readNode(in, layout));
+                }
+                return new MixedSqlNode(contents);
+            }
+            case STATIC_TEXT:
+                return new StaticTextSqlNode(readParameterizedText(in, layout));
+            case TEXT:
+                return readText(in, layout);
+            case IF: {
+                String test = readString(in);
+                return new IfSqlNode(readNode(in, layout), test, layout);
+            }
+            case CHOOSE: {
+                int size = in.readInt();
+                List<SqlNode> ifSqlNodes = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    ifSqlNodes.add(readNode(in, layout));
+                }
+                SqlNode defaultSqlNode = in.readBoolean() ? readNode(in, layout) : null;
+                return new ChooseSqlNode(ifSqlNodes, defaultSqlNode);
+            }
+            case TRIM: {
+                String prefix = readString(in);
+                List<String> prefixesToOverride = readStrings(in);
+                String suffix = readString(in);
+                List<String> suffixesToOverride = readStrings(in);
+                return new TrimSqlNode(readNode(in, layout), prefix, prefixesToOverride, suffix, suffixesToOverride);
+            }
+            case FOREACH: {
+                String collection = readString(in);
+                String index = readString(in);
+                String item = readString(in);
+                String open = readString(in);
+                String close = readString(in);
+                String separator = readString(in);
+                ListPadding padding = readPadding(in);
+                SqlNode contents = readNode(in, layout);
+                return new ForEachSqlNode(contents, collection, index, item, open, close, separator, layout, padding);
+            }
+            case BIND: {
+                String name = readString(in);
+                return new VarDeclSqlNode(name, readString(in), layout);
+            }
+            default:
+                throw new StreamCorruptedException("Unknown sql node type " + type);
+        }
+    }
+
+    private static void writeText(DataOutput out, TextSqlNode node) throws IOException {
+        out.writeByte(TEXT);
+        writeString(out, node.getText());
+        Pattern injectionFilter = node.getInjectionFilter();
+        writeString(out, injectionFilter == null ? null : injectionFilter.pattern());
+        out.writeInt(injectionFilter == null ? 0 : injectionFilter.flags());
+        out.writeBoolean(node.isLateParameters());
+        Object[] segments = node.getSegments();
+        out.writeInt(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            if ((i & 1) == 1) {
+                writeString(out, ((Expression) segments[i]).getExpression());
+            } else if (node.isLateParameters()) {
+                writeString(out, (String) segments[i]);
+            } else {
+                writeParameterizedText(out, (ParameterizedText) segments[i]);
+            }
+        }
+    }
+
+    private static TextSqlNode readText(DataInput in, BindingLayout layout) throws IOException {
+        String text = readString(in);
+        String filter = readString(in);
+        int flags = in.readInt();
+        boolean lateParameters = in.readBoolean();
+        Object[] segments = new Object[in.readInt()];
+        for (int i = 0; i < segments.length; i++) {
+            if ((i & 1) == 1) {
+                segments[i] = ExpressionParser.parse(readString(in), layout);
+            } else {
+                segments[i] = lateParameters ? readString(in) : readParameterizedText(in, layout);
+            }
+        }
+        return new TextSqlNode(text, filter == null ? null : Pattern.compile(filter, flags), segments, lateParameters);
+    }
+
+    private static void writeParameterizedText(DataOutput out, ParameterizedText text) throws IOException {
+        writeString(out, text.getSql());
+        writeParameterMappings(out, text.getParameterMappings());
+    }
+
+    private static ParameterizedText readParameterizedText(DataInput in, BindingLayout layout) throws IOException {
+        String sql = readString(in);
+        return ParameterizedText.of(sql, readParameterMappings(in, layout));
+    }
+
+    private static void writeParameterMappings(DataOutput out, ParameterMapping[] parameterMappings) throws IOException {
+        out.writeInt(parameterMappings.length);
+        for (ParameterMapping parameterMapping : parameterMappings) {
+            writeString(out, parameterMapping.getProperty());
+            writeString(out, parameterMapping.getJavaType());
+            writeString(out, parameterMapping.getJdbcType());
+        }
+    }
+
+    private static ParameterMapping[] readParameterMappings(DataInput in, BindingLayout layout) throws IOException {
+        ParameterMapping[] parameterMappings = new ParameterMapping[in.readInt()];
+        for (int i = 0; i < parameterMappings.length; i++) {
+            String property = readString(in);
+            String javaType = readString(in);
+            String jdbcType = readString(in);
+            parameterMappings[i] = new ParameterMapping.Builder(property).javaType(javaType).jdbcType(jdbcType).layout(layout).build();
+        }
+        return parameterMappings;
+    }
+
+    private static void writePadding(DataOutput out, ListPadding padding) throws IOException {
+        if (padding == null) {
+            out.writeByte(NO_PADDING);
+            return;
+        }
+        int[] buckets = padding.getBuckets();
+        if (buckets == null) {
+            out.writeByte(POWERS_OF_TWO);
+            return;
+        }
+        out.writeByte(BUCKETS);
+        out.writeInt(buckets.length);
+        for (int bucket : buckets) {
+            out.writeInt(bucket);
+        }
+    }
+
+    private static ListPadding readPadding(DataInput in) throws IOException {
+        byte type = in.readByte();
+        if (type == NO_PADDING) {
+            return null;
+        }
+        if (type == POWERS_OF_TWO) {
+            return ListPadding.POWERS_OF_TWO;
+        }
+        if (type != BUCKETS) {
+            throw new StreamCorruptedException("Unknown padding type " + type);
+        }
+        int[] buckets = new int[in.readInt()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = in.readInt();
+        }
+        return ListPadding.of(buckets);
+    }
+
+    private static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * 写入 UTF-8 字符串，长度为 -1 表示 null 。不使用 writeUTF ，它不支持超过 64KB 的 SQL
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
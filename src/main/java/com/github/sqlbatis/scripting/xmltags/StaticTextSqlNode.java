@@ -25,16 +25,40 @@ public class StaticTextSqlNode implements SqlNode {
      * 静态文本
      */
     private final String text;
+    /**
+     * 预先解析 #{} 后的文本
+     */
+    private final ParameterizedText parameterizedText;
 
     public StaticTextSqlNode(String text) {
+        this(text, null);
+    }
+
+    /**
+     * @param layout 语句的变量表，#{} 引用的变量在其中确定位置
+     */
+    public StaticTextSqlNode(String text, BindingLayout layout) {
         this.text = text;
+        this.parameterizedText = ParameterizedText.parse(text, layout);
+    }
+
+    /**
+     * 使用已经解析好的文本创建，见 {@link SqlNodeOptimizer}
+     */
+    StaticTextSqlNode(ParameterizedText parameterizedText) {
+        this.text = parameterizedText.getSql();
+        this.parameterizedText = parameterizedText;
     }
 
     @Override
     public boolean apply(DynamicContext context) {
-        // 非动态SQL片段，直接拼接到 context 中
-        context.appendSql(text);
+        // 非动态SQL片段，直接拼接到 context 中，#{} 已经替换为 ? ，并按顺序记录参数值
+        parameterizedText.apply(context);
         return true;
     }
 
+    ParameterizedText getParameterizedText() {
+        return parameterizedText;
+    }
+
 }
@@ -18,8 +18,11 @@ package com.github.sqlbatis.scripting.xmltags;
 import com.github.sqlbatis.parsing.GenericTokenParser;
 import com.github.sqlbatis.parsing.TokenHandler;
 import com.github.sqlbatis.scripting.ScriptingException;
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
 import com.github.sqlbatis.type.SimpleTypeRegistry;
 
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -38,14 +41,66 @@ public class TextSqlNode implements SqlNode {
      * 目前该属性只在单元测试中使用，暂时无视
      */
     private final Pattern injectionFilter;
+    /**
+     * 拆分后的文本，偶数下标为预先解析 #{} 的文本片段（ParameterizedText），奇数下标为 ${xxx} 中编译后的表达式（Expression）
+     * <p>
+     * {@link #lateParameters} 为 true 时，偶数下标为原始的文本片段（String）
+     */
+    private final Object[] segments;
+    /**
+     * #{} 和 ${} 交叉时（例如 #{${name}}），只能在替换 ${} 后再解析 #{}
+     */
+    private final boolean lateParameters;
 
     public TextSqlNode(String text) {
         this(text, null);
     }
 
     public TextSqlNode(String text, Pattern injectionFilter) {
+        this(text, injectionFilter, (BindingLayout) null);
+    }
+
+    /**
+     * @param layout 语句的变量表，${} 和 #{} 引用的变量在其中确定位置
+     */
+    public TextSqlNode(String text, Pattern injectionFilter, BindingLayout layout) {
         this.text = text;
         this.injectionFilter = injectionFilter;
+        this.lateParameters = hasParameterAcrossToken(text);
+        this.segments = compile(text, lateParameters, layout);
+    }
+
+    /**
+     * 使用已经拆分好的文本创建，不再扫描 ${} 和 #{} ，见 {@link SqlSourceCodec}
+     */
+    TextSqlNode(String text, Pattern injectionFilter, Object[] segments, boolean lateParameters) {
+        this.text = text;
+        this.injectionFilter = injectionFilter;
+        this.segments = segments;
+        this.lateParameters = lateParameters;
+    }
+
+    private Object[] compile(String text, boolean lateParameters, BindingLayout layout) {
+        List<String> parts = createParser(null).split(text);
+        Object[] result = new Object[parts.size()];
+        for (int i = 0; i < result.length; i++) {
+            if ((i & 1) == 1) {
+                result[i] = ExpressionParser.parse(parts.get(i), layout);
+            } else {
+                result[i] = lateParameters ? parts.get(i) : ParameterizedText.parse(parts.get(i), layout);
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasParameterAcrossToken(String text) {
+        List<String> parts = new GenericTokenParser("#{", "}", null).split(text);
+        for (int i = 1; i < parts.size(); i += 2) {
+            if (parts.get(i).contains("${")) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -64,70 +119,121 @@ public class TextSqlNode implements SqlNode {
         return checker.isDynamic();
     }
 
-    @Override
-    public boolean apply(DynamicContext context) {
-        // 1. 创建 BindingTokenParser & GenericTokenParser 对象
-        GenericTokenParser parser = createParser(new BindingTokenParser(context, injectionFilter));
-        // 2. 执行解析，将解析的结果，添加到 context 中
-        // 调用 GenericTokenParser#parse(String text) 方法，执行解析。
-        // 当解析到 ${xxx} 时，会调用 BindingTokenParser 的 #handleToken(String content) 方法，执行相应的逻辑。
-        context.appendSql(parser.parse(text));
-        return true;
+    String getText() {
+        return text;
     }
 
-    private GenericTokenParser createParser(TokenHandler handler) {
-        return new GenericTokenParser("${", "}", handler);
+    Pattern getInjectionFilter() {
+        return injectionFilter;
     }
 
-    private static class BindingTokenParser implements TokenHandler {
+    Object[] getSegments() {
+        return segments;
+    }
 
-        private DynamicContext context;
-        private Pattern injectionFilter;
+    boolean isLateParameters() {
+        return lateParameters;
+    }
 
-        public BindingTokenParser(DynamicContext context, Pattern injectionFilter) {
-            this.context = context;
-            this.injectionFilter = injectionFilter;
+    @Override
+    public boolean apply(DynamicContext context) {
+        // 1. 没有 ${xxx} 时，直接添加文本
+        if (segments.length == 1) {
+            ((ParameterizedText) segments[0]).apply(context);
+            return true;
         }
-
-        /**
-         * <p>
-         * 对于该方法，如下的示例：
-         * SELECT * FROM subject WHERE id = ${id}
-         * id = ${id} 的 ${id} 部分，将被替换成对应的具体编号。
-         * 例如说，id 为 1 ，则会变成 SELECT * FROM subject WHERE id = 1 。
-         * <p>
-         * 而对于如下的示例：
-         * SELECT * FROM subject WHERE id = #{id}
-         * id = #{id} 的 #{id} 部分，则不会进行替换。
-         *
-         * @param content 待处理的SQL
-         * @return
-         */
-        @Override
-        public String handleToken(String content) {
-            // 初始化 value 属性到 context 中
-            Object parameter = context.getBindings().get("_parameter");
-            if (parameter == null) {
-                context.getBindings().put("value", null);
-            } else if (SimpleTypeRegistry.isSimpleType(parameter.getClass())) {
-                context.getBindings().put("value", parameter);
+        // 2. 拆分后的 ${xxx} 表达式在构造时已经编译好，这里只需要依次求值，回放时使用记录的值
+        SqlShape shape = context.getShape();
+        boolean replaying = shape != null && shape.isReplaying();
+        boolean shapeOnly = shape != null && !replaying;
+        if (!replaying) {
+            bindValue(context);
+        }
+        String[] values = new String[segments.length >> 1];
+        boolean late = lateParameters;
+        for (int i = 0; i < values.length; i++) {
+            String value = replaying ? shape.nextText() : evaluate(context, (Expression) segments[(i << 1) + 1]);
+            if (shapeOnly) {
+                shape.addText(value);
+            }
+            late |= value.contains("#{");
+            values[i] = value;
+        }
+        // 3. ${} 的值中存在 #{} 时（例如 where ${cond} ，cond 为 id = #{id}），与 lateParameters 一样，拼接原始文本后再解析 #{}
+        if (late) {
+            List<String> parts = lateParameters ? null : createParser(null).split(text);
+            StringBuilder builder = new StringBuilder(text.length());
+            for (int i = 0; i < segments.length; i++) {
+                if ((i & 1) == 0) {
+                    builder.append(lateParameters ? (String) segments[i] : parts.get(i));
+                } else {
+                    builder.append(values[i >> 1]);
+                }
             }
+            ParameterizedText.parse(builder.toString()).apply(context);
+            return true;
+        }
+        // 4. 预先解析的片段中 #{} 已经替换为 ? ，只记录形状时不拼接
+        StringBuilder builder = shapeOnly ? null : new StringBuilder(text.length());
+        for (int i = 0; i < segments.length; i++) {
+            if ((i & 1) == 0) {
+                ParameterizedText parameterizedText = (ParameterizedText) segments[i];
+                if (builder != null) {
+                    builder.append(parameterizedText.getSql());
+                }
+                parameterizedText.appendParameters(context);
+            } else if (builder != null) {
+                builder.append(values[i >> 1]);
+            }
+        }
+        if (builder != null) {
+            context.appendSql(builder.toString());
+        }
+        return true;
+    }
 
-            // 使用 OGNL 表达式，获得对应的值
-            Object value = OgnlCache.getValue(content, context.getBindings());
-            String srtValue = value == null ? "" : String.valueOf(value); // issue #274 return "" instead of "null"
-            checkInjection(srtValue);
-            // 返回该值
-            return srtValue;
+    /**
+     * 初始化 value 属性到 context 中
+     */
+    private void bindValue(DynamicContext context) {
+        Object parameter = context.getBindings().get("_parameter");
+        if (parameter == null) {
+            context.getBindings().put("value", null);
+        } else if (SimpleTypeRegistry.isSimpleType(parameter.getClass())) {
+            context.getBindings().put("value", parameter);
         }
+    }
 
-        private void checkInjection(String value) {
-            if (injectionFilter != null && !injectionFilter.matcher(value).matches()) {
-                throw new ScriptingException("Invalid input. Please conform to regex" + injectionFilter.pattern());
-            }
+    /**
+     * <p>
+     * 对于该方法，如下的示例：
+     * SELECT * FROM subject WHERE id = ${id}
+     * id = ${id} 的 ${id} 部分，将被替换成对应的具体编号。
+     * 例如说，id 为 1 ，则会变成 SELECT * FROM subject WHERE id = 1 。
+     * <p>
+     * 而对于如下的示例：
+     * SELECT * FROM subject WHERE id = #{id}
+     * id = #{id} 的 #{id} 部分，则不会进行替换。
+     */
+    private String evaluate(DynamicContext context, Expression expression) {
+        // 获得表达式对应的值
+        Object value = expression.getValue(context.getBindings());
+        String srtValue = value == null ? "" : String.valueOf(value); // issue #274 return "" instead of "null"
+        checkInjection(srtValue);
+        // 返回该值
+        return srtValue;
+    }
+
+    private void checkInjection(String value) {
+        if (injectionFilter != null && !injectionFilter.matcher(value).matches()) {
+            throw new ScriptingException("Invalid input. Please conform to regex" + injectionFilter.pattern());
         }
     }
 
+    private GenericTokenParser createParser(TokenHandler handler) {
+        return new GenericTokenParser("${", "}", handler);
+    }
+
     /**
      * 动态检查占位符的解析器
      */
@@ -15,6 +15,9 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
+import com.github.sqlbatis.formatting.SqlFormatter;
+import com.github.sqlbatis.mapping.ParameterMapping;
+
 import java.util.*;
 
 /**
@@ -59,6 +62,11 @@ public class TrimSqlNode implements SqlNode {
      * 需要被删除的后缀
      */
     private final List<String> suffixesToOverride;
+    /**
+     * 预先解析 #{} 后的前缀和后缀
+     */
+    private final ParameterizedText prefixText;
+    private final ParameterizedText suffixText;
 
     public TrimSqlNode(SqlNode contents, String prefix,
                        String prefixesToOverride, String suffix, String suffixesToOverride) {
@@ -71,10 +79,16 @@ public class TrimSqlNode implements SqlNode {
         this.prefixesToOverride = prefixesToOverride;
         this.suffix = suffix;
         this.suffixesToOverride = suffixesToOverride;
+        this.prefixText = prefix == null ? null : ParameterizedText.parse(prefix);
+        this.suffixText = suffix == null ? null : ParameterizedText.parse(suffix);
     }
 
     @Override
     public boolean apply(DynamicContext context) {
+        // 只记录形状时不生成 SQL ，前缀和后缀中没有 #{} 时不需要 trim
+        if (context.isShapeOnly() && !hasParameters(prefixText) && !hasParameters(suffixText)) {
+            return contents.apply(context);
+        }
         // <1> 创建 FilteredDynamicContext 对象
         FilteredDynamicContext filteredDynamicContext = new FilteredDynamicContext(context);
         // <2> 执行 contents 的应用
@@ -84,6 +98,117 @@ public class TrimSqlNode implements SqlNode {
         return result;
     }
 
+    private static boolean hasParameters(ParameterizedText text) {
+        return text != null && text.hasParameters();
+    }
+
+    SqlNode getContents() {
+        return contents;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    List<String> getPrefixesToOverride() {
+        return prefixesToOverride;
+    }
+
+    String getSuffix() {
+        return suffix;
+    }
+
+    List<String> getSuffixesToOverride() {
+        return suffixesToOverride;
+    }
+
+    /**
+     * @return 使用相同的 prefix / suffix 配置，内含的 SqlNode 为 contents 的 TrimSqlNode
+     */
+    TrimSqlNode withContents(SqlNode contents) {
+        return new TrimSqlNode(contents, prefix, prefixesToOverride, suffix, suffixesToOverride);
+    }
+
+    /**
+     * 编译时折叠：内含的 SqlNode 只有静态文本时，trim 的结果不随参数变化，直接计算成静态文本。
+     * 与 FilteredDynamicContext#applyAll() 的结果一致，参数按 前缀、内容、后缀 的顺序
+     *
+     * @param content 内含的静态文本
+     * @return 折叠后的静态文本节点
+     */
+    StaticTextSqlNode fold(ParameterizedText content) {
+        StringBuilder sql = new StringBuilder(content.getSql().trim());
+        String trimmedUppercaseSql = sql.toString().toUpperCase(Locale.ENGLISH);
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
+        if (trimmedUppercaseSql.length() > 0) {
+            overridePrefix(sql, trimmedUppercaseSql);
+            overrideSuffix(sql, trimmedUppercaseSql);
+            if (prefixText != null) {
+                Collections.addAll(parameterMappings, prefixText.getParameterMappings());
+            }
+            Collections.addAll(parameterMappings, content.getParameterMappings());
+            if (suffixText != null) {
+                Collections.addAll(parameterMappings, suffixText.getParameterMappings());
+            }
+        }
+        return new StaticTextSqlNode(ParameterizedText.of(sql.toString(), parameterMappings.toArray(new ParameterMapping[0])));
+    }
+
+    /**
+     * 处理 prefix ：先删除 prefixesToOverride 中匹配的前缀，再添加 prefix
+     *
+     * @param sql                 trim 后的 SQL
+     * @param trimmedUppercaseSql 大写的 SQL
+     */
+    private void overridePrefix(StringBuilder sql, String trimmedUppercaseSql) {
+        // prefixesToOverride 非空，先删除
+        if (prefixesToOverride != null) {
+            for (String toRemove : prefixesToOverride) {
+                if (trimmedUppercaseSql.startsWith(toRemove)) {
+                    // 连同其后的空白字符一起删除，紧凑模式下不会再压缩
+                    int end = toRemove.trim().length();
+                    while (end < sql.length() && Character.isWhitespace(sql.charAt(end))) {
+                        end++;
+                    }
+                    sql.delete(0, end);
+                    break;
+                }
+            }
+        }
+        // prefix 非空，再添加
+        if (prefixText != null) {
+            sql.insert(0, " ");
+            sql.insert(0, prefixText.getSql());
+        }
+    }
+
+    /**
+     * 处理 suffix ：先删除 suffixesToOverride 中匹配的后缀，再添加 suffix
+     *
+     * @param sql                 trim 后的 SQL
+     * @param trimmedUppercaseSql 大写的 SQL
+     */
+    private void overrideSuffix(StringBuilder sql, String trimmedUppercaseSql) {
+        // suffixesToOverride 非空，先删除
+        if (suffixesToOverride != null) {
+            for (String toRemove : suffixesToOverride) {
+                if (trimmedUppercaseSql.endsWith(toRemove) || trimmedUppercaseSql.endsWith(toRemove.trim())) {
+                    int start = sql.length() - toRemove.trim().length();
+                    while (start > 0 && Character.isWhitespace(sql.charAt(start - 1))) {
+                        start--;
+                    }
+                    sql.delete(start, sql.length());
+                    break;
+                }
+            }
+        }
+        // suffix 非空，再添加
+        if (suffixText != null) {
+            sql.append(" ");
+            sql.append(suffixText.getSql());
+        }
+    }
+
     /**
      * 使用 | 分隔字符串成字符串数组，并都转换成大写。
      *
@@ -124,13 +249,18 @@ public class TrimSqlNode implements SqlNode {
          * @see #appendSql(String)
          */
         private StringBuilder sqlBuffer;
+        /**
+         * 内容中的参数值，前缀中的参数值需要排在它们前面，所以暂存起来
+         */
+        private final List<Object> valueBuffer;
 
         public FilteredDynamicContext(DynamicContext delegate) {
-            super(null);
+            super();
             this.delegate = delegate;
             this.prefixApplied = false;
             this.suffixApplied = false;
             this.sqlBuffer = new StringBuilder();
+            this.valueBuffer = new ArrayList<>();
         }
 
         /**
@@ -146,8 +276,17 @@ public class TrimSqlNode implements SqlNode {
                 applyPrefix(sqlBuffer, trimmedUppercaseSql);
                 applySuffix(sqlBuffer, trimmedUppercaseSql);
             }
-            // 4. 将结果，添加到 delegate 中
+            // 4. 将结果，添加到 delegate 中，参数值按 前缀、内容、后缀 的顺序
             delegate.appendSql(sqlBuffer.toString());
+            if (prefixApplied && prefixText != null) {
+                prefixText.appendParameters(delegate);
+            }
+            for (Object value : valueBuffer) {
+                delegate.addParameterValue(value);
+            }
+            if (suffixApplied && suffixText != null) {
+                suffixText.appendParameters(delegate);
+            }
         }
 
         @Override
@@ -165,14 +304,33 @@ public class TrimSqlNode implements SqlNode {
             return delegate.getUniqueNumber();
         }
 
+        @Override
+        public void addParameterValue(Object value) {
+            valueBuffer.add(value);
+        }
+
+        @Override
+        public SqlShape getShape() {
+            return delegate.getShape();
+        }
+
+        @Override
+        public boolean isCompact() {
+            return delegate.isCompact();
+        }
+
         /**
-         * 将拼接的 sql ，暂时存储到 sqlBuffer 中。
+         * 将拼接的 sql ，暂时存储到 sqlBuffer 中。紧凑模式下以空格分隔，见 {@link SqlFormatter#appendCompact}
          *
          * @param sql 待拼接的SQL
          */
         @Override
         public void appendSql(String sql) {
-            sqlBuffer.append(sql);
+            if (isCompact()) {
+                SqlFormatter.appendCompact(sqlBuffer, sql);
+            } else {
+                sqlBuffer.append(sql);
+            }
         }
 
         @Override
@@ -189,20 +347,7 @@ public class TrimSqlNode implements SqlNode {
         private void applyPrefix(StringBuilder sql, String trimmedUppercaseSql) {
             if (!prefixApplied) {
                 prefixApplied = true;
-                // prefixesToOverride 非空，先删除
-                if (prefixesToOverride != null) {
-                    for (String toRemove : prefixesToOverride) {
-                        if (trimmedUppercaseSql.startsWith(toRemove)) {
-                            sql.delete(0, toRemove.trim().length());
-                            break;
-                        }
-                    }
-                }
-                // prefix 非空，再添加
-                if (prefix != null) {
-                    sql.insert(0, " ");
-                    sql.insert(0, prefix);
-                }
+                overridePrefix(sql, trimmedUppercaseSql);
             }
         }
 
@@ -215,22 +360,7 @@ public class TrimSqlNode implements SqlNode {
         private void applySuffix(StringBuilder sql, String trimmedUppercaseSql) {
             if (!suffixApplied) {
                 suffixApplied = true;
-                // suffixesToOverride 非空，先删除
-                if (suffixesToOverride != null) {
-                    for (String toRemove : suffixesToOverride) {
-                        if (trimmedUppercaseSql.endsWith(toRemove) || trimmedUppercaseSql.endsWith(toRemove.trim())) {
-                            int start = sql.length() - toRemove.trim().length();
-                            int end = sql.length();
-                            sql.delete(start, end);
-                            break;
-                        }
-                    }
-                }
-                // suffix 非空，再添加
-                if (suffix != null) {
-                    sql.append(" ");
-                    sql.append(suffix);
-                }
+                overrideSuffix(sql, trimmedUppercaseSql);
             }
         }
 
@@ -15,6 +15,9 @@
  */
 package com.github.sqlbatis.scripting.xmltags;
 
+import com.github.sqlbatis.scripting.expression.Expression;
+import com.github.sqlbatis.scripting.expression.ExpressionParser;
+
 /**
  * 主要针对动态SQL中的 <bind> 节点。
  * 该节点可以从OGNL表达式中创建一个变量，并将其记录到上下文中。
@@ -33,6 +36,14 @@ public class VarDeclSqlNode implements SqlNode {
      * 表达式
      */
     private final String expression;
+    /**
+     * 编译后的表达式
+     */
+    private final Expression valueExpression;
+    /**
+     * 变量在 bindings 中的位置
+     */
+    private final BindingLayout.Slot slot;
 
     /**
      * <bind name="pattern" value="'%' + _parameter.getTitle() + '%'" />
@@ -41,14 +52,37 @@ public class VarDeclSqlNode implements SqlNode {
      * @param exp  value 属性值
      */
     public VarDeclSqlNode(String name, String exp) {
+        this(name, exp, new BindingLayout());
+    }
+
+    /**
+     * @param name   name 属性值
+     * @param exp    value 属性值
+     * @param layout 语句的变量表，name 在其中分配位置
+     */
+    public VarDeclSqlNode(String name, String exp, BindingLayout layout) {
         this.name = name;
         expression = exp;
+        valueExpression = ExpressionParser.parse(exp, layout);
+        slot = layout.declare(name);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getExpression() {
+        return expression;
     }
 
     @Override
     public boolean apply(DynamicContext context) {
-        final Object value = OgnlCache.getValue(expression, context.getBindings());
-        context.bind(name, value);
+        // 回放时只生成 SQL ，绑定的变量已经在记录形状时计算过
+        if (context.isReplaying()) {
+            return true;
+        }
+        final Object value = valueExpression.getValue(context.getBindings());
+        context.bind(slot, value);
         return true;
     }
 
@@ -0,0 +1,416 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.formatting.SqlFormatter;
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.ParameterList;
+import com.github.sqlbatis.mapping.ParameterMapping;
+import com.github.sqlbatis.mapping.SqlSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预先计算所有分支组合的 SqlSource 。
+ * <p>
+ * 适用于只包含静态文本、&lt;if&gt; 、&lt;choose&gt; 、&lt;trim&gt; / &lt;where&gt; / &lt;set&gt; 的动态 SQL（没有 &lt;foreach&gt; 、&lt;bind&gt; 和 ${}）。
+ * 编译时为 n 个条件（&lt;if&gt; 和 &lt;when&gt;）的 2^n 种组合分别生成 SQL 和 #{} 对应的 ParameterMapping ；
+ * 渲染时按与 {@link DynamicSqlSource} 相同的顺序计算条件（外层不成立时不计算内层），
+ * 用结果的位掩码查表，再按顺序获得参数值。
+ * <p>
+ * 每种组合的 SQL 由 {@link SqlNodeOptimizer} 折叠得到，与 {@link DynamicSqlSource} 生成的 SQL 一致。
+ *
+ * @author Laba Zhang
+ */
+public final class VariantSqlSource implements SqlSource {
+
+    /**
+     * 条件个数的上限，2^16 种组合
+     */
+    public static final int MAX_CONDITIONS = 16;
+
+    /**
+     * 预先计算前的 SqlSource ，写入快照时使用，见 {@link SqlSourceCodec}
+     */
+    private final DynamicSqlSource source;
+    private final BindingLayout layout;
+    /**
+     * 顶层的分支，按文档顺序
+     */
+    private final Branch[] branches;
+    /**
+     * 下标为条件的位掩码，相同的组合共用一个 Variant
+     */
+    private final Variant[] variants;
+    private final int conditionCount;
+    private final int distinctVariantCount;
+    private final long memoryUsage;
+
+    private VariantSqlSource(DynamicSqlSource source, Branch[] branches, Variant[] variants, int conditionCount) {
+        this.source = source;
+        this.layout = source.getLayout();
+        this.branches = branches;
+        this.variants = variants;
+        this.conditionCount = conditionCount;
+        Map<Variant, Boolean> distinct = new IdentityHashMap<>();
+        // 表本身：数组头 + 引用
+        long memory = 16 + 4L * variants.length;
+        for (Variant variant : variants) {
+            if (distinct.put(variant, Boolean.TRUE) == null) {
+                memory += variant.memoryUsage();
+            }
+        }
+        this.distinctVariantCount = distinct.size();
+        this.memoryUsage = memory;
+    }
+
+    /**
+     * 预先计算 sqlSource 的所有分支组合
+     *
+     * @param sqlSource     编译后的 SqlSource
+     * @param maxConditions 条件个数的上限，超出时不预先计算，不能大于 {@link #MAX_CONDITIONS}
+     * @return sqlSource 为符合条件的 DynamicSqlSource 时返回 VariantSqlSource ，否则返回 sqlSource 本身
+     */
+    public static SqlSource precompute(SqlSource sqlSource, int maxConditions) {
+        if (maxConditions <= 0 || !(sqlSource instanceof DynamicSqlSource)) {
+            return sqlSource;
+        }
+        DynamicSqlSource dynamicSqlSource = (DynamicSqlSource) sqlSource;
+        SqlNode rootSqlNode = dynamicSqlSource.getRootSqlNode();
+        // 1. 按文档顺序为条件分配位，遇到不支持的节点时放弃
+        Map<SqlNode, Integer> bits = new IdentityHashMap<>();
+        if (!collectConditions(rootSqlNode, bits) || bits.isEmpty()
+                || bits.size() > Math.min(maxConditions, MAX_CONDITIONS)) {
+            return sqlSource;
+        }
+        // 2. 生成每种组合的 SQL ，相同的结果共用
+        Variant[] variants = new Variant[1 << bits.size()];
+        Map<Variant, Variant> distinct = new HashMap<>();
+        for (int mask = 0; mask < variants.length; mask++) {
+            Variant variant = render(rootSqlNode, bits, mask, dynamicSqlSource.isCompact());
+            Variant existing = distinct.putIfAbsent(variant, variant);
+            variants[mask] = existing == null ? variant : existing;
+        }
+        Branch[] branches = collectBranches(rootSqlNode, bits).toArray(new Branch[0]);
+        return new VariantSqlSource(dynamicSqlSource, branches, variants, bits.size());
+    }
+
+    @Override
+    public BoundSql getBoundSql(Object parameterObject) {
+        DynamicContext context = DynamicContext.acquire(layout, parameterObject, null, false);
+        try {
+            // 1. 计算条件，得到位掩码
+            Map<String, Object> bindings = context.getBindings();
+            int mask = 0;
+            for (Branch branch : branches) {
+                mask = branch.evaluate(bindings, mask);
+            }
+            // 2. 查表，按顺序获得参数值
+            Variant variant = variants[mask];
+            ParameterMapping[] parameterMappings = variant.parameterMappings;
+            if (parameterMappings.length == 0) {
+                return new BoundSql(variant.sql, ParameterList.empty());
+            }
+            Object[] values = new Object[parameterMappings.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = parameterMappings[i].getValue(bindings);
+            }
+            return new BoundSql(variant.sql, new ParameterList(values, values.length));
+        } finally {
+            context.release();
+        }
+    }
+
+    DynamicSqlSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return 条件（&lt;if&gt; 和 &lt;when&gt;）的个数
+     */
+    public int getConditionCount() {
+        return conditionCount;
+    }
+
+    /**
+     * @return 组合的个数，即 2^n
+     */
+    public int getVariantCount() {
+        return variants.length;
+    }
+
+    /**
+     * @return 不同 SQL 的个数
+     */
+    public int getDistinctVariantCount() {
+        return distinctVariantCount;
+    }
+
+    /**
+     * 估算的内存占用：组合表、SQL 字符串和 ParameterMapping 数组。
+     * ParameterMapping 对象与 SqlNode 树共用，不计算在内
+     *
+     * @return 字节数
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    @Override
+    public String toString() {
+        return "VariantSqlSource{" +
+                "conditions=" + conditionCount +
+                ", variants=" + variants.length +
+                ", distinctVariants=" + distinctVariantCount +
+                ", memoryUsage=" + memoryUsage +
+                '}';
+    }
+
+    private static boolean collectConditions(SqlNode node, Map<SqlNode, Integer> bits) {
+        if (node instanceof StaticTextSqlNode) {
+            return true;
+        }
+        if (node instanceof MixedSqlNode) {
+            for (SqlNode child : ((MixedSqlNode) node).getContents()) {
+                if (!collectConditions(child, bits)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node instanceof TrimSqlNode) {
+            return collectConditions(((TrimSqlNode) node).getContents(), bits);
+        }
+        if (node instanceof IfSqlNode) {
+            bits.put(node, bits.size());
+            return bits.size() <= MAX_CONDITIONS && collectConditions(((IfSqlNode) node).getContents(), bits);
+        }
+        if (node instanceof ChooseSqlNode) {
+            ChooseSqlNode chooseSqlNode = (ChooseSqlNode) node;
+            for (SqlNode when : chooseSqlNode.getIfSqlNodes()) {
+                if (!(when instanceof IfSqlNode) || !collectConditions(when, bits)) {
+                    return false;
+                }
+            }
+            return chooseSqlNode.getDefaultSqlNode() == null || collectConditions(chooseSqlNode.getDefaultSqlNode(), bits);
+        }
+        // foreach 、bind 、${} 以及自定义的节点
+        return false;
+    }
+
+    private static List<Branch> collectBranches(SqlNode node, Map<SqlNode, Integer> bits) {
+        List<Branch> branches = new ArrayList<>();
+        collectBranches(node, bits, branches);
+        return branches;
+    }
+
+    private static void collectBranches(SqlNode node, Map<SqlNode, Integer> bits, List<Branch> result) {
+        if (node instanceof MixedSqlNode) {
+            for (SqlNode child : ((MixedSqlNode) node).getContents()) {
+                collectBranches(child, bits, result);
+            }
+        } else if (node instanceof TrimSqlNode) {
+            collectBranches(((TrimSqlNode) node).getContents(), bits, result);
+        } else if (node instanceof IfSqlNode) {
+            result.add(ifBranch((IfSqlNode) node, bits));
+        } else if (node instanceof ChooseSqlNode) {
+            ChooseSqlNode chooseSqlNode = (ChooseSqlNode) node;
+            List<SqlNode> whens = chooseSqlNode.getIfSqlNodes();
+            IfBranch[] whenBranches = new IfBranch[whens.size()];
+            for (int i = 0; i < whenBranches.length; i++) {
+                whenBranches[i] = ifBranch((IfSqlNode) whens.get(i), bits);
+            }
+            Branch[] otherwise = chooseSqlNode.getDefaultSqlNode() == null ? new Branch[0]
+                    : collectBranches(chooseSqlNode.getDefaultSqlNode(), bits).toArray(new Branch[0]);
+            result.add(new ChooseBranch(whenBranches, otherwise));
+        }
+    }
+
+    private static IfBranch ifBranch(IfSqlNode node, Map<SqlNode, Integer> bits) {
+        Branch[] children = collectBranches(node.getContents(), bits).toArray(new Branch[0]);
+        return new IfBranch(node, bits.get(node), children);
+    }
+
+    /**
+     * 生成一种组合的 SQL ：按位掩码去掉不成立的分支，剩下的只有静态文本，由 SqlNodeOptimizer 折叠
+     */
+    private static Variant render(SqlNode rootSqlNode, Map<SqlNode, Integer> bits, int mask, boolean compact) {
+        SqlNode optimized = SqlNodeOptimizer.optimize(specialize(rootSqlNode, bits, mask));
+        List<SqlNode> contents = optimized instanceof MixedSqlNode ? ((MixedSqlNode) optimized).getContents()
+                : Collections.singletonList(optimized);
+        StringBuilder sql = new StringBuilder();
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
+        for (SqlNode node : contents) {
+            ParameterizedText text = ((StaticTextSqlNode) node).getParameterizedText();
+            // 与 DynamicContext 一致，片段之间使用空格分隔
+            if (sql.length() > 0) {
+                sql.append(' ');
+            }
+            sql.append(text.getSql());
+            Collections.addAll(parameterMappings, text.getParameterMappings());
+        }
+        String result = sql.toString().trim();
+        if (compact) {
+            result = SqlFormatter.format(result);
+        }
+        return new Variant(result, parameterMappings.toArray(new ParameterMapping[0]));
+    }
+
+    private static SqlNode specialize(SqlNode node, Map<SqlNode, Integer> bits, int mask) {
+        if (node instanceof MixedSqlNode) {
+            List<SqlNode> contents = ((MixedSqlNode) node).getContents();
+            List<SqlNode> result = new ArrayList<>(contents.size());
+            for (SqlNode child : contents) {
+                result.add(specialize(child, bits, mask));
+            }
+            return new MixedSqlNode(result);
+        }
+        if (node instanceof TrimSqlNode) {
+            TrimSqlNode trimSqlNode = (TrimSqlNode) node;
+            return trimSqlNode.withContents(specialize(trimSqlNode.getContents(), bits, mask));
+        }
+        if (node instanceof IfSqlNode) {
+            return matched(node, bits, mask) ? specialize(((IfSqlNode) node).getContents(), bits, mask) : empty();
+        }
+        if (node instanceof ChooseSqlNode) {
+            ChooseSqlNode chooseSqlNode = (ChooseSqlNode) node;
+            for (SqlNode when : chooseSqlNode.getIfSqlNodes()) {
+                if (matched(when, bits, mask)) {
+                    return specialize(((IfSqlNode) when).getContents(), bits, mask);
+                }
+            }
+            SqlNode defaultSqlNode = chooseSqlNode.getDefaultSqlNode();
+            return defaultSqlNode == null ? empty() : specialize(defaultSqlNode, bits, mask);
+        }
+        return node;
+    }
+
+    private static boolean matched(SqlNode node, Map<SqlNode, Integer> bits, int mask) {
+        return (mask & (1 << bits.get(node))) != 0;
+    }
+
+    private static SqlNode empty() {
+        return new MixedSqlNode(Collections.emptyList());
+    }
+
+    /**
+     * 一种组合的结果
+     */
+    private static final class Variant {
+        private final String sql;
+        private final ParameterMapping[] parameterMappings;
+
+        private Variant(String sql, ParameterMapping[] parameterMappings) {
+            this.sql = sql;
+            this.parameterMappings = parameterMappings;
+        }
+
+        /**
+         * 对象头、String（按每个字符 2 字节估算）和数组
+         */
+        long memoryUsage() {
+            return 24 + 40 + 2L * sql.length() + 16 + 4L * parameterMappings.length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Variant)) {
+                return false;
+            }
+            Variant variant = (Variant) o;
+            // ParameterMapping 来自同一棵 SqlNode 树，按引用比较
+            return sql.equals(variant.sql) && Arrays.equals(parameterMappings, variant.parameterMappings);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + parameterMappings.length;
+        }
+    }
+
+    /**
+     * 渲染时按文档顺序计算的条件
+     */
+    private abstract static class Branch {
+        /**
+         * @return 加上本分支及其内层分支的结果后的位掩码
+         */
+        abstract int evaluate(Map<String, Object> bindings, int mask);
+    }
+
+    private static final class IfBranch extends Branch {
+        private final IfSqlNode node;
+        private final int bit;
+        /**
+         * 条件成立时才计算的内层分支
+         */
+        private final Branch[] children;
+
+        private IfBranch(IfSqlNode node, int bit, Branch[] children) {
+            this.node = node;
+            this.bit = bit;
+            this.children = children;
+        }
+
+        @Override
+        int evaluate(Map<String, Object> bindings, int mask) {
+            return node.test(bindings) ? matched(bindings, mask) : mask;
+        }
+
+        int matched(Map<String, Object> bindings, int mask) {
+            mask |= 1 << bit;
+            for (Branch child : children) {
+                mask = child.evaluate(bindings, mask);
+            }
+            return mask;
+        }
+    }
+
+    /**
+     * 只有第一个成立的 &lt;when&gt; 生效，都不成立时计算 &lt;otherwise&gt; 内的分支
+     */
+    private static final class ChooseBranch extends Branch {
+        private final IfBranch[] whens;
+        private final Branch[] otherwise;
+
+        private ChooseBranch(IfBranch[] whens, Branch[] otherwise) {
+            this.whens = whens;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        int evaluate(Map<String, Object> bindings, int mask) {
+            for (IfBranch when : whens) {
+                if (when.node.test(bindings)) {
+                    return when.matched(bindings, mask);
+                }
+            }
+            for (Branch branch : otherwise) {
+                mask = branch.evaluate(bindings, mask);
+            }
+            return mask;
+        }
+    }
+}
@@ -48,7 +48,7 @@ import java.util.List;
  */
 public class WhereSqlNode extends TrimSqlNode {
 
-    private static List<String> prefixList = Arrays.asList("AND ", "OR ", "AND\n", "OR\n", "AND\r", "OR\r", "AND\t", "OR\t");
+    private static final List<String> prefixList = Arrays.asList("AND ", "OR ", "AND\n", "OR\n", "AND\r", "OR\r", "AND\t", "OR\t");
 
     public WhereSqlNode(SqlNode contents) {
         super(contents, "WHERE", prefixList, null, null);
@@ -17,6 +17,7 @@ package com.github.sqlbatis.scripting.xmltags;
 
 import com.github.sqlbatis.builder.BaseBuilder;
 import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.formatting.SqlFormatter;
 import com.github.sqlbatis.mapping.SqlSource;
 import com.github.sqlbatis.parsing.XNode;
 import com.github.sqlbatis.scripting.defaults.RawSqlSource;
@@ -43,6 +44,14 @@ public class XMLScriptBuilder extends BaseBuilder {
      * 是否为动态 SQL
      */
     private boolean isDynamic;
+    /**
+     * 当前语句的变量表，&lt;bind&gt; 和 &lt;foreach&gt; 的变量在其中分配位置
+     */
+    private final BindingLayout layout = new BindingLayout();
+    /**
+     * 是否生成紧凑的 SQL ：编译时移除静态文本中的换行及多余空格，渲染时片段之间只保留一个空格
+     */
+    private final boolean compact;
 
     /**
      * NodeHandler 的映射
@@ -56,8 +65,19 @@ public class XMLScriptBuilder extends BaseBuilder {
      * @param context       xml的节点信息
      */
     public XMLScriptBuilder(XNode context) {
+        this(context, false);
+    }
+
+    /**
+     * 创建 XMLScriptBuilder 对象
+     *
+     * @param context xml的节点信息
+     * @param compact 是否生成紧凑的 SQL ，见 {@link SqlFormatter#format(String)}
+     */
+    public XMLScriptBuilder(XNode context, boolean compact) {
         super();
         this.context = context;
+        this.compact = compact;
         // 初始化 nodeHandlerMap 属性
         initNodeHandlerMap();
     }
@@ -83,15 +103,20 @@ public class XMLScriptBuilder extends BaseBuilder {
      * @return SqlSource
      */
     public SqlSource parseScriptNode() {
-        MixedSqlNode rootSqlNode = parseDynamicTags(context);
+        SqlNode rootSqlNode = parseDynamicTags(context);
+        if (isDynamic) {
+            // 合并静态文本、折叠内容静态的 <trim> / <where> ，折叠后可能不再是动态 SQL
+            rootSqlNode = SqlNodeOptimizer.optimize(rootSqlNode);
+            isDynamic = !SqlNodeOptimizer.isStatic(rootSqlNode);
+        }
         // 创建 SqlSource 对象
         SqlSource sqlSource;
         if (isDynamic) {
             // 包含 ${} 或 xml 标签的SQL
-            sqlSource = new DynamicSqlSource(rootSqlNode);
+            sqlSource = new DynamicSqlSource(rootSqlNode, layout, DynamicSqlSource.DEFAULT_MAX_SHAPES, compact);
         } else {
             // 仅有 #{} 或 不需要处理的SQL
-            sqlSource = new RawSqlSource(rootSqlNode);
+            sqlSource = new RawSqlSource(rootSqlNode, compact);
         }
         return sqlSource;
     }
@@ -146,17 +171,23 @@ public class XMLScriptBuilder extends BaseBuilder {
             if (child.getNode().getNodeType() == Node.CDATA_SECTION_NODE || child.getNode().getNodeType() == Node.TEXT_NODE) {
                 // 2.2.1 获得内容
                 String data = child.getStringBody("");
+                if (compact) {
+                    data = SqlFormatter.format(data);
+                }
                 // 2.2.2 创建 TextSqlNode 对象，在 TextSqlNode 内有内部类 DynamicCheckerTokenParser，主要用来解析"${}"占位符
-                TextSqlNode textSqlNode = new TextSqlNode(data);
+                TextSqlNode textSqlNode = new TextSqlNode(data, null, layout);
                 // 2.2.3 如果是动态的 TextSqlNode 对象（如果存在"${}"占位符则是动态SQL）
                 if (textSqlNode.isDynamic()) {
-                    // 添加到 contents 中
+                    // 记录 #{} 引用的变量，添加到 contents 中
+                    layout.reference(textSqlNode);
                     contents.add(textSqlNode);
                     // 标记为动态 SQL
                     isDynamic = true;
                 } else {
                     // 2.2.4 如果是非动态的 SqlNode 对象
-                    contents.add(new StaticTextSqlNode(data));
+                    StaticTextSqlNode staticTextSqlNode = new StaticTextSqlNode(data, layout);
+                    layout.reference(staticTextSqlNode);
+                    contents.add(staticTextSqlNode);
                 }
                 // gcode issue #628
                 // 2.3 如果类型是 Node.ELEMENT_NODE
@@ -216,7 +247,7 @@ public class XMLScriptBuilder extends BaseBuilder {
             // 获取 value 属性
             final String expression = nodeToHandle.getStringAttribute("value");
             // 创建 VarDeclSqlNode 对象
-            final VarDeclSqlNode node = new VarDeclSqlNode(name, expression);
+            final VarDeclSqlNode node = new VarDeclSqlNode(name, expression, layout);
             // 添加到 targetContents 中
             targetContents.add(node);
         }
@@ -355,8 +386,12 @@ public class XMLScriptBuilder extends BaseBuilder {
             String open = nodeToHandle.getStringAttribute("open");
             String close = nodeToHandle.getStringAttribute("close");
             String separator = nodeToHandle.getStringAttribute("separator");
+            // 未指定 padding 属性时，IN 列表使用全局的补齐规则
+            String padding = nodeToHandle.getStringAttribute("padding");
+            ListPadding listPadding = padding == null ? ForEachSqlNode.defaultPadding(targetContents, open, separator, close)
+                    : ListPadding.parse(padding);
             // 创建 ForEachSqlNode 对象
-            ForEachSqlNode forEachSqlNode = new ForEachSqlNode(mixedSqlNode, collection, index, item, open, close, separator);
+            ForEachSqlNode forEachSqlNode = new ForEachSqlNode(mixedSqlNode, collection, index, item, open, close, separator, layout, listPadding);
             // 添加到 targetContents 中
             targetContents.add(forEachSqlNode);
         }
@@ -388,7 +423,7 @@ public class XMLScriptBuilder extends BaseBuilder {
             // 获得 test 属性（if条件表达式）
             String test = nodeToHandle.getStringAttribute("test");
             // 创建 IfSqlNode 对象
-            IfSqlNode ifSqlNode = new IfSqlNode(mixedSqlNode, test);
+            IfSqlNode ifSqlNode = new IfSqlNode(mixedSqlNode, test, layout);
             // 添加到 targetContents 中
             targetContents.add(ifSqlNode);
         }
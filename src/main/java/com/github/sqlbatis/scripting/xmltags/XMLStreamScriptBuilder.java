@@ -0,0 +1,254 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.builder.BaseBuilder;
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.formatting.SqlFormatter;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.parsing.PropertyParser;
+import com.github.sqlbatis.scripting.defaults.RawSqlSource;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于 StAX 事件流的 XML 动态语句构建器，与 {@link XMLScriptBuilder} 生成相同的 SqlNode 树。
+ * <p>
+ * 只对 XML 做一次顺序扫描，直接由事件构建 SqlNode，不创建 DOM、不使用 XPath，也不创建 XNode。
+ *
+ * @author Laba Zhang
+ */
+public class XMLStreamScriptBuilder extends BaseBuilder {
+
+    /**
+     * 是否为动态 SQL
+     */
+    private boolean isDynamic;
+    /**
+     * 当前语句的变量表
+     */
+    private BindingLayout layout;
+    /**
+     * 是否生成紧凑的 SQL ，与 {@link XMLScriptBuilder#XMLScriptBuilder(com.github.sqlbatis.parsing.XNode, boolean)} 一致
+     */
+    private final boolean compact;
+
+    public XMLStreamScriptBuilder() {
+        this(false);
+    }
+
+    public XMLStreamScriptBuilder(boolean compact) {
+        super();
+        this.compact = compact;
+    }
+
+    /**
+     * 将 SQL 节点解析成 SqlSource 对象。
+     *
+     * @param reader 位于 SQL 节点 START_ELEMENT 的 reader，解析结束时位于对应的 END_ELEMENT
+     * @return SqlSource
+     */
+    public SqlSource parseScriptNode(XMLStreamReader reader) throws XMLStreamException {
+        isDynamic = false;
+        layout = new BindingLayout();
+        SqlNode rootSqlNode = parseDynamicTags(reader);
+        if (isDynamic) {
+            // 与 XMLScriptBuilder 一致，优化后可能不再是动态 SQL
+            rootSqlNode = SqlNodeOptimizer.optimize(rootSqlNode);
+            isDynamic = !SqlNodeOptimizer.isStatic(rootSqlNode);
+        }
+        if (isDynamic) {
+            return new DynamicSqlSource(rootSqlNode, layout, DynamicSqlSource.DEFAULT_MAX_SHAPES, compact);
+        }
+        return new RawSqlSource(rootSqlNode, compact);
+    }
+
+    /**
+     * 解析当前元素的子节点，成 MixedSqlNode 对象。
+     * 相邻的文本事件会被合并成一个文本节点，CDATA 单独成为一个文本节点，与 DOM 的 Text / CDATASection 一致。
+     *
+     * @param reader 位于元素 START_ELEMENT 的 reader
+     * @return MixedSqlNode
+     */
+    private MixedSqlNode parseDynamicTags(XMLStreamReader reader) throws XMLStreamException {
+        List<SqlNode> contents = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    addText(contents, text);
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    addText(contents, text);
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    addText(contents, text);
+                    handleElement(reader, contents);
+                    // 与 XMLScriptBuilder 一致，只要存在 xml 标签就标记为动态 SQL
+                    isDynamic = true;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    addText(contents, text);
+                    return new MixedSqlNode(contents);
+                default:
+                    // 注释、处理指令等，忽略
+                    break;
+            }
+        }
+        throw new BuilderException("Unexpected end of xml document.");
+    }
+
+    /**
+     * 将累积的文本创建成 TextSqlNode 或 StaticTextSqlNode
+     */
+    private void addText(List<SqlNode> contents, StringBuilder text) {
+        if (text.length() == 0) {
+            return;
+        }
+        String data = PropertyParser.parse(text.toString(), null);
+        text.setLength(0);
+        if (compact) {
+            data = SqlFormatter.format(data);
+        }
+        TextSqlNode textSqlNode = new TextSqlNode(data, null, layout);
+        if (textSqlNode.isDynamic()) {
+            layout.reference(textSqlNode);
+            contents.add(textSqlNode);
+            isDynamic = true;
+        } else {
+            StaticTextSqlNode staticTextSqlNode = new StaticTextSqlNode(data, layout);
+            layout.reference(staticTextSqlNode);
+            contents.add(staticTextSqlNode);
+        }
+    }
+
+    /**
+     * 根据标签名称处理元素，与 XMLScriptBuilder 中的 NodeHandler 一一对应
+     */
+    private void handleElement(XMLStreamReader reader, List<SqlNode> targetContents) throws XMLStreamException {
+        String nodeName = reader.getLocalName();
+        switch (nodeName) {
+            case "trim": {
+                String prefix = getAttribute(reader, "prefix");
+                String prefixOverrides = getAttribute(reader, "prefixOverrides");
+                String suffix = getAttribute(reader, "suffix");
+                String suffixOverrides = getAttribute(reader, "suffixOverrides");
+                targetContents.add(new TrimSqlNode(parseDynamicTags(reader), prefix, prefixOverrides, suffix, suffixOverrides));
+                break;
+            }
+            case "where":
+                targetContents.add(new WhereSqlNode(parseDynamicTags(reader)));
+                break;
+            case "set":
+                targetContents.add(new SetSqlNode(parseDynamicTags(reader)));
+                break;
+            case "foreach": {
+                String collection = getAttribute(reader, "collection");
+                String item = getAttribute(reader, "item");
+                String index = getAttribute(reader, "index");
+                String open = getAttribute(reader, "open");
+                String close = getAttribute(reader, "close");
+                String separator = getAttribute(reader, "separator");
+                String padding = getAttribute(reader, "padding");
+                ListPadding listPadding = padding == null ? ForEachSqlNode.defaultPadding(targetContents, open, separator, close)
+                        : ListPadding.parse(padding);
+                targetContents.add(new ForEachSqlNode(parseDynamicTags(reader), collection, index, item, open, close, separator, layout, listPadding));
+                break;
+            }
+            case "if":
+            case "when": {
+                String test = getAttribute(reader, "test");
+                targetContents.add(new IfSqlNode(parseDynamicTags(reader), test, layout));
+                break;
+            }
+            case "otherwise":
+                targetContents.add(parseDynamicTags(reader));
+                break;
+            case "choose":
+                targetContents.add(parseChoose(reader));
+                break;
+            case "bind": {
+                String name = getAttribute(reader, "name");
+                String expression = getAttribute(reader, "value");
+                skipElement(reader);
+                targetContents.add(new VarDeclSqlNode(name, expression, layout));
+                break;
+            }
+            default:
+                throw new BuilderException("Unknown element <" + nodeName + "> in SQL statement.");
+        }
+    }
+
+    /**
+     * 解析 choose 元素，只处理其中的 when 和 otherwise 元素
+     */
+    private ChooseSqlNode parseChoose(XMLStreamReader reader) throws XMLStreamException {
+        List<SqlNode> whenSqlNodes = new ArrayList<>();
+        SqlNode defaultSqlNode = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return new ChooseSqlNode(whenSqlNodes, defaultSqlNode);
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String nodeName = reader.getLocalName();
+            if ("when".equals(nodeName) || "if".equals(nodeName)) {
+                String test = getAttribute(reader, "test");
+                whenSqlNodes.add(new IfSqlNode(parseDynamicTags(reader), test, layout));
+            } else if ("otherwise".equals(nodeName)) {
+                if (defaultSqlNode != null) {
+                    throw new BuilderException("Too many default (otherwise) elements in choose statement.");
+                }
+                defaultSqlNode = parseDynamicTags(reader);
+            } else {
+                skipElement(reader);
+            }
+        }
+        throw new BuilderException("Unexpected end of xml document.");
+    }
+
+    private static String getAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? null : PropertyParser.parse(value, null);
+    }
+
+    /**
+     * 跳过当前元素及其所有子节点
+     *
+     * @param reader 位于元素 START_ELEMENT 的 reader，返回时位于对应的 END_ELEMENT
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.type;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * 将一种 Java 类型的参数值设置到 PreparedStatement 中，通过 {@link TypeHandlerRegistry#register(Class, TypeHandler)} 注册。
+ *
+ * @param <T> 参数类型
+ * @author Laba Zhang
+ */
+@FunctionalInterface
+public interface TypeHandler<T> {
+
+    /**
+     * 设置参数
+     *
+     * @param ps        PreparedStatement
+     * @param i         参数下标，从 1 开始
+     * @param parameter 参数值，不为 null
+     * @throws SQLException 设置失败
+     */
+    void setParameter(PreparedStatement ps, int i, T parameter) throws SQLException;
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sqlbatis.type;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按参数值的类型选择 {@link TypeHandler}，直接调用 setInt / setLong / setString / setTimestamp / setBigDecimal 等方法，
+ * 避免所有参数都走 setObject 时驱动再按类型分派。
+ * <p>
+ * {@link SimpleTypeRegistry} 中的常用类型都有默认的 TypeHandler 。其他类型按父类、接口查找已注册的 TypeHandler ，
+ * 找不到时使用 setObject ，查找结果按类型缓存。
+ *
+ * @author Laba Zhang
+ */
+public class TypeHandlerRegistry {
+
+    /**
+     * 没有对应 TypeHandler 时使用
+     */
+    private static final TypeHandler<Object> OBJECT_TYPE_HANDLER = PreparedStatement::setObject;
+
+    /**
+     * 注册的 TypeHandler
+     */
+    private final Map<Class<?>, TypeHandler<?>> typeHandlers = new ConcurrentHashMap<>();
+    /**
+     * 按参数值的实际类型缓存查找结果。注册时替换为新的 Map ，而不是清空：
+     * 注册前开始查找的线程只会把旧的结果放入被替换的 Map ，不会覆盖新注册的 TypeHandler
+     */
+    private volatile Map<Class<?>, TypeHandler<?>> resolvedTypeHandlers = new ConcurrentHashMap<>();
+    /**
+     * 参数值为 null 时使用的 JDBC 类型
+     */
+    private volatile int jdbcTypeForNull = Types.NULL;
+
+    public TypeHandlerRegistry() {
+        register(String.class, PreparedStatement::setString);
+        register(Integer.class, PreparedStatement::setInt);
+        register(Long.class, PreparedStatement::setLong);
+        register(Short.class, PreparedStatement::setShort);
+        register(Byte.class, PreparedStatement::setByte);
+        register(Boolean.class, PreparedStatement::setBoolean);
+        register(Double.class, PreparedStatement::setDouble);
+        register(Float.class, PreparedStatement::setFloat);
+        register(Character.class, (ps, i, parameter) -> ps.setString(i, parameter.toString()));
+        register(BigDecimal.class, PreparedStatement::setBigDecimal);
+        register(BigInteger.class, (ps, i, parameter) -> ps.setBigDecimal(i, new BigDecimal(parameter)));
+        register(Date.class, (ps, i, parameter) -> ps.setTimestamp(i, new Timestamp(parameter.getTime())));
+        register(Timestamp.class, PreparedStatement::setTimestamp);
+        register(java.sql.Date.class, PreparedStatement::setDate);
+        register(Time.class, PreparedStatement::setTime);
+        register(Class.class, (ps, i, parameter) -> ps.setString(i, parameter.getName()));
+        register(byte[].class, PreparedStatement::setBytes);
+        register(Enum.class, (ps, i, parameter) -> ps.setString(i, parameter.name()));
+    }
+
+    /**
+     * 注册 TypeHandler ，覆盖已有的注册。对 type 的子类同样生效，除非子类另有注册
+     *
+     * @param type        参数类型
+     * @param typeHandler TypeHandler
+     */
+    public <T> void register(Class<T> type, TypeHandler<? super T> typeHandler) {
+        if (type == null) {
+            throw new NullPointerException("type must not null");
+        }
+        if (typeHandler == null) {
+            throw new NullPointerException("typeHandler must not null");
+        }
+        typeHandlers.put(type, typeHandler);
+        // 先注册再替换，读到新 Map 的线程一定能查找到新注册的 TypeHandler
+        resolvedTypeHandlers = new ConcurrentHashMap<>();
+    }
+
+    public boolean hasTypeHandler(Class<?> type) {
+        return typeHandlers.containsKey(type);
+    }
+
+    /**
+     * 获得参数类型对应的 TypeHandler ，找不到时返回使用 setObject 的 TypeHandler
+     *
+     * @param type 参数值的实际类型
+     * @return TypeHandler
+     */
+    @SuppressWarnings("unchecked")
+    public TypeHandler<Object> getTypeHandler(Class<?> type) {
+        Map<Class<?>, TypeHandler<?>> resolved = resolvedTypeHandlers;
+        TypeHandler<?> typeHandler = resolved.get(type);
+        if (typeHandler == null) {
+            typeHandler = resolveTypeHandler(type);
+            resolved.put(type, typeHandler);
+        }
+        return (TypeHandler<Object>) typeHandler;
+    }
+
+    public int getJdbcTypeForNull() {
+        return jdbcTypeForNull;
+    }
+
+    /**
+     * 设置参数值为 null 时使用的 JDBC 类型，默认为 {@link Types#NULL}。部分驱动（例如 Oracle）需要设置为 {@link Types#VARCHAR} 等具体类型
+     */
+    public void setJdbcTypeForNull(int jdbcTypeForNull) {
+        this.jdbcTypeForNull = jdbcTypeForNull;
+    }
+
+    /**
+     * 设置单个参数
+     *
+     * @param ps        PreparedStatement
+     * @param i         参数下标，从 1 开始
+     * @param parameter 参数值
+     * @throws SQLException 设置失败
+     */
+    public void setParameter(PreparedStatement ps, int i, Object parameter) throws SQLException {
+        if (parameter == null) {
+            ps.setNull(i, jdbcTypeForNull);
+        } else {
+            getTypeHandler(parameter.getClass()).setParameter(ps, i, parameter);
+        }
+    }
+
+    /**
+     * 按顺序设置全部参数，第 1 个参数值对应下标 1
+     *
+     * @param ps         PreparedStatement
+     * @param parameters 按 ? 顺序排列的参数值
+     * @throws SQLException 设置失败
+     */
+    public void setParameters(PreparedStatement ps, List<?> parameters) throws SQLException {
+        // 相邻参数通常类型相同，复用上一次的查找结果
+        Class<?> lastType = null;
+        TypeHandler<Object> lastTypeHandler = null;
+        for (int i = 0, size = parameters.size(); i < size; i++) {
+            Object parameter = parameters.get(i);
+            if (parameter == null) {
+                ps.setNull(i + 1, jdbcTypeForNull);
+                continue;
+            }
+            Class<?> type = parameter.getClass();
+            if (type != lastType) {
+                lastType = type;
+                lastTypeHandler = getTypeHandler(type);
+            }
+            lastTypeHandler.setParameter(ps, i + 1, parameter);
+        }
+    }
+
+    private TypeHandler<?> resolveTypeHandler(Class<?> type) {
+        TypeHandler<?> typeHandler = typeHandlers.get(type);
+        // 常用类型只看精确注册，不再查找父类
+        if (typeHandler != null || SimpleTypeRegistry.isSimpleType(type)) {
+            return typeHandler == null ? OBJECT_TYPE_HANDLER : typeHandler;
+        }
+        for (Class<?> superclass = type.getSuperclass(); superclass != null && superclass != Object.class;
+             superclass = superclass.getSuperclass()) {
+            typeHandler = typeHandlers.get(superclass);
+            if (typeHandler != null) {
+                return typeHandler;
+            }
+        }
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> anInterface : current.getInterfaces()) {
+                typeHandler = typeHandlers.get(anInterface);
+                if (typeHandler != null) {
+                    return typeHandler;
+                }
+            }
+        }
+        return OBJECT_TYPE_HANDLER;
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.builder.BuilderException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for MapperLoader
+ *
+ * @author Laba Zhang
+ */
+class MapperLoaderTest {
+
+    private static String mapper(String namespace, int statements) {
+        StringBuilder xml = new StringBuilder("<mapper namespace=\"").append(namespace).append("\">");
+        for (int i = 0; i < statements; i++) {
+            xml.append("<select id=\"find").append(i).append("\">select * from ").append(namespace)
+                    .append("<where><if test=\"id != null\">id = #{id}</if></where></select>");
+        }
+        return xml.append("</mapper>").toString();
+    }
+
+    private static Path write(Path file, String xml) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testLoadDirectory(@TempDir Path directory) throws IOException {
+        for (int i = 0; i < 20; i++) {
+            write(directory.resolve("dir" + (i % 3)).resolve("mapper" + i + ".xml"), mapper("ns" + i, 10));
+        }
+        write(directory.resolve("readme.txt"), "not a mapper");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            MapperLoader.Result result = new MapperLoader(executor).load(directory);
+            MapperRegistry registry = result.getRegistry();
+            assertEquals(200, registry.size());
+            assertEquals(20, result.getCompileNanos().size());
+            assertTrue(result.getTotalNanos() > 0);
+            assertEquals("select * from ns7 WHERE id = ?",
+                    registry.parseForSql("ns7.find3", Collections.singletonMap("id", 1)).getFormatSql());
+            assertTrue(registry.isUnmodifiable());
+            assertThrows(UnsupportedOperationException.class, () -> registry.addMapper(mapper("other", 1)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testSnapshot(@TempDir Path directory) throws IOException {
+        Path mappers = directory.resolve("mappers");
+        Path snapshot = directory.resolve("mappers.snapshot");
+        for (int i = 0; i < 5; i++) {
+            write(mappers.resolve("mapper" + i + ".xml"), mapper("ns" + i, 3));
+        }
+        MapperLoader.Result first = new MapperLoader().load(mappers, snapshot);
+        assertTrue(first.getSnapshotHits().isEmpty());
+        assertTrue(Files.size(snapshot) > 0);
+
+        MapperLoader.Result second = new MapperLoader().load(mappers, snapshot);
+        assertEquals(5, second.getSnapshotHits().size());
+        assertEquals(15, second.getRegistry().size());
+        assertEquals("select * from ns2 WHERE id = ?",
+                second.getRegistry().parseForSql("ns2.find1", Collections.singletonMap("id", 1)).getFormatSql());
+        assertEquals("select * from ns2",
+                second.getRegistry().parseForSql("ns2.find1", Collections.emptyMap()).getFormatSql());
+
+        // 只重新编译修改过的文件
+        write(mappers.resolve("mapper3.xml"), mapper("ns3", 4));
+        MapperLoader.Result third = new MapperLoader().load(mappers, snapshot);
+        assertEquals(4, third.getSnapshotHits().size());
+        assertFalse(third.getSnapshotHits().contains(mappers.resolve("mapper3.xml")));
+        assertTrue(third.getRegistry().hasStatement("ns3.find3"));
+        assertEquals(5, new MapperLoader().load(mappers, snapshot).getSnapshotHits().size());
+
+        // 损坏的快照被忽略并重写
+        Files.write(snapshot, "corrupted".getBytes(StandardCharsets.UTF_8));
+        assertTrue(new MapperLoader().load(mappers, snapshot).getSnapshotHits().isEmpty());
+        assertEquals(5, new MapperLoader().load(mappers, snapshot).getSnapshotHits().size());
+    }
+
+    @Test
+    void testSnapshotIsOnlyACache(@TempDir Path directory) throws IOException {
+        Path a = write(directory.resolve("a.xml"), mapper("a", 2));
+        // 无法写入快照时仍然加载成功
+        Path blocked = write(directory.resolve("blocked"), "not a directory").resolve("mappers.snapshot");
+        assertEquals(2, new MapperLoader().load(Collections.singletonList(a), blocked).getRegistry().size());
+        // 条目个数超出文件大小的快照被忽略
+        Path snapshot = directory.resolve("mappers.snapshot");
+        new MapperLoader().load(Collections.singletonList(a), snapshot);
+        byte[] content = Files.readAllBytes(snapshot);
+        ByteBuffer header = ByteBuffer.wrap(content);
+        header.position(8);
+        int settingsLength = header.getInt();
+        header.putInt(12 + settingsLength, Integer.MAX_VALUE);
+        Files.write(snapshot, content);
+        MapperLoader.Result result = new MapperLoader().load(Collections.singletonList(a), snapshot);
+        assertTrue(result.getSnapshotHits().isEmpty());
+        assertEquals(1, new MapperLoader().load(Collections.singletonList(a), snapshot).getSnapshotHits().size());
+    }
+
+    @Test
+    void testDuplicateAndInvalid(@TempDir Path directory) throws IOException {
+        Path a = write(directory.resolve("a.xml"), mapper("user", 2));
+        Path b = write(directory.resolve("b.xml"), mapper("user", 1));
+        BuilderException duplicate = assertThrows(BuilderException.class, () -> new MapperLoader().load(Arrays.asList(a, b)));
+        assertTrue(duplicate.getMessage().contains("b.xml"));
+        Path invalid = write(directory.resolve("c.xml"), "<mapper namespace=\"c\"><select id=\"x\">");
+        BuilderException error = assertThrows(BuilderException.class, () -> new MapperLoader().load(Arrays.asList(a, invalid)));
+        assertTrue(error.getMessage().contains("c.xml"));
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.builder.XMLStreamMapperBuilder;
+import com.github.sqlbatis.mapping.SqlCommandType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for MapperRegistry
+ *
+ * @author Laba Zhang
+ */
+class MapperRegistryTest {
+
+    private static final String MAPPER = "<mapper namespace=\"user\">\n" +
+            "    <select id=\"findById\">\n" +
+            "        select * from user where id = #{id}\n" +
+            "    </select>\n" +
+            "    <select id=\"findByName\">\n" +
+            "        select * from user\n" +
+            "        <where>\n" +
+            "            <if test=\"name != null\">name = #{name}</if>\n" +
+            "        </where>\n" +
+            "    </select>\n" +
+            "    <delete id=\"deleteById\">\n" +
+            "        delete from user where id = #{id}\n" +
+            "    </delete>\n" +
+            "</mapper>";
+
+    @Test
+    void testAddMapper() {
+        MapperRegistry registry = new MapperRegistry().addMapper(MAPPER);
+        assertEquals(3, registry.size());
+        assertTrue(registry.hasStatement("user.findById"));
+        assertEquals(SqlCommandType.DELETE, registry.getTemplate("user.deleteById").getSqlCommandType());
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", 7);
+        params.put("name", "zhang");
+        assertEquals("select * from user where id = ?", registry.parseForSql("user.findById", params).getFormatSql());
+        SqlResult sqlResult = registry.parseForSql("user.findByName", params);
+        assertEquals("select * from user WHERE name = ?", sqlResult.getFormatSql());
+        assertEquals("zhang", sqlResult.getParams().get(1));
+    }
+
+    @Test
+    void testStreamingBuilder() {
+        String mapper = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+                "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">\n" +
+                "<mapper namespace=\"user\">\n" +
+                "    <resultMap id=\"user\" type=\"User\"><id column=\"id\"/></resultMap>\n" +
+                "    <select id=\"find\">\n" +
+                "        <bind name=\"pattern\" value=\"'%' + name + '%'\"/>\n" +
+                "        select * from user\n" +
+                "        <where>\n" +
+                "            <if test=\"name != null\">AND name like #{pattern}</if>\n" +
+                "            <choose>\n" +
+                "                <when test=\"ids != null\">AND id in\n" +
+                "                    <foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>\n" +
+                "                </when>\n" +
+                "                <otherwise>AND status = 1</otherwise>\n" +
+                "            </choose>\n" +
+                "            <![CDATA[ AND age < #{age} ]]>\n" +
+                "        </where>\n" +
+                "        order by ${orderBy}\n" +
+                "    </select>\n" +
+                "    <update id=\"updateName\">update user <set><if test=\"name != null\">name = #{name},</if></set> where id = #{id}</update>\n" +
+                "</mapper>";
+        List<SqlTemplate> templates = new XMLStreamMapperBuilder(mapper).parse();
+        assertEquals(2, templates.size());
+        MapperRegistry streaming = new MapperRegistry().addTemplates(templates);
+        MapperRegistry dom = new MapperRegistry().addMapper(mapper.substring(mapper.indexOf("<mapper")));
+
+        for (String id : Arrays.asList("user.find", "user.updateName")) {
+            Map<String, Object> domParams = newParams();
+            Map<String, Object> streamingParams = newParams();
+            SqlResult expected = dom.parseForSql(id, domParams);
+            SqlResult actual = streaming.parseForSql(id, streamingParams);
+            assertEquals(expected.getSql(), actual.getSql());
+            assertEquals(expected.getParams(), actual.getParams());
+        }
+        assertEquals("select * from user WHERE name like ? AND id in (?,?) AND age < ? order by id desc",
+                streaming.parseForSql("user.find", newParams()).getFormatSql());
+    }
+
+    @Test
+    void testStreamingBuilderCdata() {
+        // CDATA 与 DOM 一致，单独成为一个文本节点，渲染时以空格分隔
+        String mapper = "<mapper namespace=\"user\">" +
+                "<select id=\"lessThan\">select * from user where a <![CDATA[<]]> #{a}</select>" +
+                "<select id=\"star\">select<![CDATA[ * ]]>from user</select>" +
+                "<select id=\"dynamic\">select<![CDATA[*]]>from user<where><if test=\"a != null\">a<![CDATA[<]]>#{a}</if></where></select>" +
+                "</mapper>";
+        MapperRegistry streaming = new MapperRegistry().addTemplates(new XMLStreamMapperBuilder(mapper).parse());
+        MapperRegistry dom = new MapperRegistry().addMapper(mapper);
+        for (String id : Arrays.asList("user.lessThan", "user.star", "user.dynamic")) {
+            SqlResult expected = dom.parseForSql(id, newParams());
+            SqlResult actual = streaming.parseForSql(id, newParams());
+            assertEquals(expected.getSql(), actual.getSql());
+            assertEquals(expected.getParams(), actual.getParams());
+        }
+        assertEquals("select * from user where a  <  ?", streaming.parseForSql("user.lessThan", newParams()).getSql());
+    }
+
+    private static Map<String, Object> newParams() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "zhang");
+        params.put("ids", Arrays.asList(1, 2));
+        params.put("age", 30);
+        params.put("id", 1);
+        params.put("orderBy", "id desc");
+        return params;
+    }
+
+    @Test
+    void testDuplicateStatement() {
+        MapperRegistry registry = new MapperRegistry().addMapper(MAPPER);
+        assertThrows(BuilderException.class, () -> registry.addMapper(MAPPER));
+        assertThrows(BuilderException.class, () -> registry.getTemplate("user.notExists"));
+    }
+}
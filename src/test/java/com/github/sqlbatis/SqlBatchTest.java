@@ -0,0 +1,124 @@
+package com.github.sqlbatis;
+
+import com.github.sqlbatis.metrics.InMemoryMetricsListener;
+import com.github.sqlbatis.metrics.SqlMetricsListener;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for SqlBatch
+ *
+ * @author Laba Zhang
+ */
+class SqlBatchTest {
+
+    private static final String XML = "<update>update user set <if test=\"name != null\"> name = #{name}, </if> age = #{age} where id = #{id}</update>";
+
+    private static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("age", 20 + i);
+            if (i % 2 == 0) {
+                row.put("name", "user" + i);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    void testGroupBySql() {
+        SqlTemplate template = SqlBatis.compile(XML);
+        List<SqlBatch> batches = new ArrayList<>();
+        template.batch(rows(7), 2).forEach(batches::add);
+        // 0,2 / 1,3 满 2 行先输出；4,6 满后输出；剩余的 5 最后输出
+        assertEquals(4, batches.size());
+        assertEquals(Arrays.asList(2, 2, 2, 1), Arrays.asList(batches.get(0).size(), batches.get(1).size(),
+                batches.get(2).size(), batches.get(3).size()));
+        assertEquals(batches.get(0).getSql(), batches.get(2).getSql());
+        assertEquals(batches.get(1).getSql(), batches.get(3).getSql());
+        assertNotEquals(batches.get(0).getSql(), batches.get(1).getSql());
+        assertEquals(Arrays.asList("user0", 20, 0), batches.get(0).getParameters().get(0));
+        assertEquals(Arrays.asList(23, 3), batches.get(1).getParameters().get(1));
+        assertEquals(Arrays.asList(25, 5), batches.get(3).getParameters().get(0));
+    }
+
+    @Test
+    void testStreaming() {
+        AtomicInteger consumed = new AtomicInteger();
+        List<Map<String, Object>> rows = rows(100);
+        Iterable<Map<String, Object>> source = () -> {
+            Iterator<Map<String, Object>> iterator = rows.iterator();
+            return new Iterator<Map<String, Object>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map<String, Object> next() {
+                    consumed.incrementAndGet();
+                    return iterator.next();
+                }
+            };
+        };
+        Iterator<SqlBatch> batches = SqlBatis.compile(XML).batch(source, 10, 1).iterator();
+        assertEquals(0, consumed.get());
+        // 只允许一个未满的分组，SQL 变化时立即输出上一组
+        assertEquals(1, batches.next().size());
+        assertEquals(2, consumed.get());
+        int total = 1;
+        while (batches.hasNext()) {
+            total += batches.next().size();
+        }
+        assertEquals(100, total);
+    }
+
+    @Test
+    void testAddBatch() throws Exception {
+        List<String> calls = new ArrayList<>();
+        PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    calls.add(method.getName() + (args == null ? "" : "(" + args[0] + ", " + args[1] + ")"));
+                    return null;
+                });
+        SqlBatch batch = SqlBatis.compile("<insert>insert into user (id) values (#{id})</insert>").batch(rows(2)).iterator().next();
+        assertEquals("insert into user (id) values (?)", batch.getSql());
+        batch.addBatch(ps);
+        assertEquals(Arrays.asList("setInt(1, 0)", "addBatch", "setInt(1, 1)", "addBatch"), calls);
+    }
+
+    @Test
+    void testInvalidBatchSize() {
+        SqlTemplate template = SqlBatis.compile(XML);
+        assertThrows(IllegalArgumentException.class, () -> template.batch(rows(1), 0));
+    }
+
+    @Test
+    void testMetrics() {
+        InMemoryMetricsListener listener = new InMemoryMetricsListener();
+        SqlBatis.setMetricsListener(listener);
+        try {
+            SqlTemplate template = SqlBatis.compile(XML.replace("<update>", "<update id=\"updateUser\">"));
+            template.batch(rows(5), 2).forEach(batch -> {
+            });
+        } finally {
+            SqlBatis.setMetricsListener(SqlMetricsListener.NOOP);
+        }
+        // 每一行都报告为该语句的一次渲染
+        assertEquals(5, listener.getStatement("updateUser").getRenderCount());
+    }
+}
@@ -1,7 +1,10 @@
 package com.github.sqlbatis;
 
+import com.github.sqlbatis.mapping.SqlCommandType;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,5 +38,67 @@ class SqlBatisTest {
         System.out.println(sqlResult.getParams());
     }
 
+    @Test
+    void testCompile() {
+        SqlTemplate dynamic = SqlBatis.compile("<select id=\"findUser\">select * from user where 1 = 1" +
+                "<if test=\"id != null\"> AND id = #{id}</if></select>");
+        assertEquals("findUser", dynamic.getId());
+        assertEquals(SqlCommandType.SELECT, dynamic.getSqlCommandType());
+        assertTrue(dynamic.isDynamic());
+        assertNull(dynamic.getStaticSql());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", 1);
+        SqlResult sqlResult = dynamic.render(data);
+        assertEquals("select * from user where 1 = 1 AND id = ?", sqlResult.getFormatSql());
+        assertEquals(1, sqlResult.getParams().get(1));
+
+        SqlTemplate rawTemplate = SqlBatis.compile("<delete>delete from user where id = #{id}</delete>");
+        assertTrue(rawTemplate.isStatic());
+        assertEquals(SqlCommandType.DELETE, rawTemplate.getSqlCommandType());
+        assertEquals("delete from user where id = ?", rawTemplate.getStaticSql());
+        assertEquals(1, rawTemplate.render(data).getParams().get(1));
+    }
+
+    @Test
+    void testCompileCompact() {
+        String xml = "<select>\n  select *\n  from user\n" +
+                "  <where>\n    <if test=\"id != null\">\n      AND id = #{id}\n    </if>\n" +
+                "    <if test=\"name != null\">\n      AND name like ${name}\n    </if>\n  </where>\n</select>";
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", 1);
+        data.put("name", "'%zhang  li%'");
+        SqlTemplate template = SqlBatis.compile(xml, true);
+        assertTrue(template.isCompact());
+        SqlResult compact = template.render(data);
+        // the quoted literal substituted by ${} is left untouched
+        assertEquals("select * from user WHERE id = ? AND name like '%zhang  li%'", compact.getSql());
+        assertSame(compact.getSql(), compact.getFormatSql());
+        assertEquals(SqlBatis.compile(xml).render(data).getFormatSql(), compact.getSql());
+        assertEquals(1, compact.getParams().get(1));
+
+        SqlTemplate update = SqlBatis.compile("<update>\n  update user\n  <set>\n    <if test=\"name != null\">\n" +
+                "      name = ${name},\n    </if>\n  </set>\n  where id = #{id} -- by id\n</update>", true);
+        assertEquals("update user SET name = '%zhang  li%' where id = ? -- by id", update.render(data).getSql());
+
+        SqlTemplate raw = SqlBatis.compile("<delete>\n  delete from user\n  where id = #{id}\n</delete>", true);
+        assertEquals("delete from user where id = ?", raw.getStaticSql());
+    }
+
+    @Test
+    void testSqlResultParams() {
+        SqlResult empty = new SqlResult("select 1", (Map<Integer, Object>) null);
+        assertTrue(empty.getParams().isEmpty());
+        assertTrue(empty.getParameters().isEmpty());
 
-}
\ No newline at end of file
+        SqlResult result = SqlBatis.compile("<select>select * from user where id = #{id}</select>")
+                .render(Collections.singletonMap("id", 1));
+        assertEquals(Collections.singletonMap(1, 1), result.getParams());
+        // the map view is read-only, params are replaced by setParams
+        assertThrows(UnsupportedOperationException.class, () -> result.getParams().put(2, 2));
+        Map<Integer, Object> params = new HashMap<>(result.getParams());
+        params.put(2, 2);
+        result.setParams(params);
+        assertEquals(Arrays.asList(1, 2), result.getParameters());
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.sqlbatis.builder;
+
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.scripting.defaults.RawSqlSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for StaticSqlSource
+ *
+ * @author Laba Zhang
+ */
+class StaticSqlSourceTest {
+
+    public static class User {
+        private final Integer id;
+        private final Map<String, Object> address;
+
+        User(Integer id, Map<String, Object> address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        public Integer getId() {
+            return id;
+        }
+
+        public Map<String, Object> getAddress() {
+            return address;
+        }
+    }
+
+    @Test
+    void testParameterMappings() {
+        StaticSqlSource sqlSource = new SqlSourceBuilder().parse("select * from user where user_id = #{user_id, jdbcType=INTEGER} and city = #{address.city}");
+        assertEquals("select * from user where user_id = ? and city = ?", sqlSource.getSql());
+        assertEquals("user_id", sqlSource.getParameterMappings().get(0).getProperty());
+        assertEquals("INTEGER", sqlSource.getParameterMappings().get(0).getJdbcType());
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("user_id", 1);
+        params.put("address", Collections.singletonMap("city", "hz"));
+        assertEquals(Arrays.asList(1, "hz"), sqlSource.getBoundSql(params).getParameters());
+        // 中间对象为 null 时参数值为 null
+        params.remove("address");
+        assertEquals(Arrays.asList(1, null), sqlSource.getBoundSql(params).getParameters());
+    }
+
+    @Test
+    void testBeanParameter() {
+        RawSqlSource sqlSource = new RawSqlSource("select * from user where id = #{id} and city = #{address.city}");
+        BoundSql boundSql = sqlSource.getBoundSql(new User(1, Collections.singletonMap("city", "hz")));
+        assertEquals(Arrays.asList(1, "hz"), boundSql.getParameters());
+    }
+
+    @Test
+    void testSimpleParameter() {
+        StaticSqlSource sqlSource = new SqlSourceBuilder().parse("select * from user where id = #{id} or parent_id = #{id}");
+        assertEquals(Arrays.asList(3L, 3L), sqlSource.getBoundSql(3L).getParameters());
+        assertEquals(Arrays.asList(null, null), sqlSource.getBoundSql(null).getParameters());
+    }
+}
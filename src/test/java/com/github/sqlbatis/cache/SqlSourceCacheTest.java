@@ -0,0 +1,97 @@
+package com.github.sqlbatis.cache;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlResult;
+import com.github.sqlbatis.builder.StaticSqlSource;
+import com.github.sqlbatis.mapping.SqlSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for SqlSourceCache
+ *
+ * @author Laba Zhang
+ */
+class SqlSourceCacheTest {
+
+    @Test
+    void testHitAndMiss() {
+        SqlSourceCache cache = new SqlSourceCache(8);
+        AtomicInteger compiled = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            cache.getSqlSource("select 1", key -> {
+                compiled.incrementAndGet();
+                return new StaticSqlSource(key);
+            });
+        }
+        assertEquals(1, compiled.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(9, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testEviction() {
+        SqlSourceCache cache = new SqlSourceCache(4);
+        for (int i = 0; i < 10; i++) {
+            cache.getSqlSource("select " + i, StaticSqlSource::new);
+        }
+        assertEquals(4, cache.size());
+        assertEquals(6, cache.getEvictionCount());
+        // 最近插入的条目不会被淘汰
+        assertNotNull(cache.getSqlSource("select 9"));
+    }
+
+    @Test
+    void testClockHandKeepsPosition() {
+        SqlSourceCache cache = new SqlSourceCache(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.getSqlSource("select " + i, StaticSqlSource::new);
+        }
+        // 时钟指针在多次淘汰之间保持位置，未被访问的条目大致按插入顺序淘汰，与它在哈希表中的位置无关
+        for (int i = 0; i < 1000 - 64; i++) {
+            assertNull(cache.getSqlSource("select " + i), "select " + i);
+        }
+        assertEquals(16, cache.size());
+    }
+
+    @Test
+    void testDisabled() {
+        SqlSourceCache cache = new SqlSourceCache(0);
+        SqlSource first = cache.getSqlSource("select 1", StaticSqlSource::new);
+        SqlSource second = cache.getSqlSource("select 1", StaticSqlSource::new);
+        assertNotSame(first, second);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testParseForSqlUsesCache() {
+        SqlSourceCache cache = new SqlSourceCache();
+        SqlSourceCache previous = SqlBatis.getSqlSourceCache();
+        SqlBatis.setSqlSourceCache(cache);
+        try {
+            String xml = "<select>select * from user where id = #{id}</select>";
+            Map<String, Object> params = new HashMap<>();
+            params.put("id", 1);
+            SqlResult first = SqlBatis.parseForSql(xml, params);
+            params.put("id", 2);
+            SqlResult second = SqlBatis.parseForSql(xml, params);
+            assertEquals(first.getSql(), second.getSql());
+            assertEquals(2, second.getParams().get(1));
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+
+            SqlBatis.parseForSql("findUserById", xml, params);
+            SqlBatis.parseForSql("findUserById", xml, params);
+            assertEquals(2, cache.getMissCount());
+            assertEquals(2, cache.getHitCount());
+        } finally {
+            SqlBatis.setSqlSourceCache(previous);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.sqlbatis.formatting;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for SqlFormatter
+ *
+ * @author Laba Zhang
+ */
+class SqlFormatterTest {
+
+    private static final String[] SQLS = {
+            "",
+            " ",
+            "select 1",
+            "select * from user where id = ?",
+            "\n  select *\n\tfrom user\r\n  where id = ?  \n",
+            "select\u000B*\ffrom  user",
+            "  leading and trailing  ",
+    };
+
+    @Test
+    void testFormatSameAsRegex() {
+        for (String sql : SQLS) {
+            assertEquals(sql.replaceAll("[\\s\n ]+", " "), SqlFormatter.format(sql));
+        }
+    }
+
+    @Test
+    void testFormatReturnsSameInstance() {
+        String sql = "select * from user where id = ?";
+        assertSame(sql, SqlFormatter.format(sql));
+    }
+
+    @Test
+    void testFormatKeepsLiterals() {
+        assertEquals("select ' a  b ', \"c\n d\", `e  f` from user where name = 'it\\'s  ok' and x = 'a''  b'",
+                SqlFormatter.format("select  ' a  b ',\n\"c\n d\",  `e  f`  from user where name = 'it\\'s  ok' and x = 'a''  b'"));
+        assertEquals("select 'not closed  ", SqlFormatter.format("select\n'not closed  "));
+    }
+
+    @Test
+    void testFormatKeepsLineBreakAfterComment() {
+        assertEquals("select * -- all columns\nfrom user -- 'comment  quote\n",
+                SqlFormatter.format("select *  -- all columns\n  from user -- 'comment  quote\n  "));
+    }
+
+    @Test
+    void testAppendCompact() {
+        StringBuilder builder = new StringBuilder();
+        SqlFormatter.appendCompact(builder, " select * from user ");
+        SqlFormatter.appendCompact(builder, "");
+        SqlFormatter.appendCompact(builder, "where");
+        SqlFormatter.appendCompact(builder, "  id = ?\n");
+        assertEquals("select * from user where id = ?", builder.toString());
+    }
+
+    @Test
+    void testAppendCompactKeepsContent() {
+        StringBuilder builder = new StringBuilder();
+        SqlFormatter.appendCompact(builder, "select * from user -- all users\n");
+        SqlFormatter.appendCompact(builder, " where name like '%zhang  li%' order by id  desc ");
+        assertEquals("select * from user -- all users\n where name like '%zhang  li%' order by id  desc", builder.toString());
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.sqlbatis.mapping;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for ParameterList
+ *
+ * @author Laba Zhang
+ */
+class ParameterListTest {
+
+    @Test
+    void testListAndMapView() {
+        ParameterList parameters = new ParameterList(new Object[]{"zhang", null, 3, "unused"}, 3);
+        assertEquals(3, parameters.size());
+        assertEquals(Arrays.asList("zhang", null, 3), parameters);
+        assertThrows(IndexOutOfBoundsException.class, () -> parameters.get(3));
+        assertThrows(UnsupportedOperationException.class, () -> parameters.add("li"));
+
+        Map<Integer, Object> map = parameters.asMap();
+        assertEquals("zhang", map.get(1));
+        assertNull(map.get(2));
+        assertTrue(map.containsKey(2));
+        assertFalse(map.containsKey(4));
+        assertNull(map.get(0));
+
+        Map<Integer, Object> expected = new HashMap<>();
+        expected.put(1, "zhang");
+        expected.put(2, null);
+        expected.put(3, 3);
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    @Test
+    void testFromMap() {
+        Map<Integer, Object> orderedParams = new HashMap<>();
+        orderedParams.put(1, "zhang");
+        orderedParams.put(3, 3);
+        assertEquals(Arrays.asList("zhang", null, 3), ParameterList.fromMap(orderedParams));
+        assertTrue(ParameterList.fromMap(null).isEmpty());
+
+        ParameterList parameters = new ParameterList(new Object[]{1}, 1);
+        assertSame(parameters, ParameterList.fromMap(parameters.asMap()));
+    }
+}
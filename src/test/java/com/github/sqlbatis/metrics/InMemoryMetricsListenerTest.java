@@ -0,0 +1,103 @@
+package com.github.sqlbatis.metrics;
+
+import com.github.sqlbatis.MapperRegistry;
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlTemplate;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for InMemoryMetricsListener and Histogram
+ *
+ * @author Laba Zhang
+ */
+class InMemoryMetricsListenerTest {
+
+    @Test
+    void testHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        // 相对误差不超过 1 / SUB_BUCKETS
+        assertEquals(500, histogram.getValueAtPercentile(50), 500.0 / Histogram.SUB_BUCKETS);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990.0 / Histogram.SUB_BUCKETS);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        for (long value : new long[]{0, 15, 16, 17, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int index = Histogram.index(value);
+            assertTrue(Histogram.highestValue(index) >= value);
+            assertTrue(index == 0 || Histogram.highestValue(index - 1) < value);
+        }
+        // 最高的几个桶的上界不溢出
+        for (int index = Histogram.index(Long.MAX_VALUE >>> 2); index <= Histogram.index(Long.MAX_VALUE); index++) {
+            assertTrue(Histogram.highestValue(index) > 0);
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.index(Long.MAX_VALUE)));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void testListener() {
+        InMemoryMetricsListener listener = new InMemoryMetricsListener();
+        SqlBatis.setMetricsListener(listener);
+        try {
+            SqlTemplate template = SqlBatis.compile("<select id=\"find\">select * from user where id in " +
+                    "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+                    "<if test=\"name in {'zhang', 'li'}\">and name = #{name}</if></select>");
+            Map<String, Object> params = new HashMap<>();
+            params.put("ids", Arrays.asList(1, 2, 3));
+            params.put("name", "zhang");
+            template.render(params);
+            params.put("ids", Arrays.asList(1));
+            template.render(params);
+            SqlBatis.compile("<select id=\"count\">select count(*) from user where id in " +
+                    "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>")
+                    .render(Collections.singletonMap("ids", Arrays.asList(1, 2, 3, 4, 5)));
+        } finally {
+            SqlBatis.setMetricsListener(SqlMetricsListener.NOOP);
+        }
+        InMemoryMetricsListener.StatementMetrics metrics = listener.getStatement("find");
+        assertEquals(1, metrics.getCompileCount());
+        assertTrue(metrics.getNodeCount() > 1);
+        assertEquals(2, metrics.getRenderCount());
+        assertEquals(4, metrics.getParameterCount().getMax());
+        assertEquals(2, metrics.getSqlLength().getCount());
+        assertEquals(3, metrics.getLoopSizes().get("ids").getMax());
+        assertEquals(2, metrics.getLoopSizes().get("ids").getCount());
+        // 不同语句的同名集合分开记录
+        assertEquals(5, listener.getStatement("count").getLoopSizes().get("ids").getMax());
+        // in 不被内置的表达式引擎支持，使用 OGNL
+        assertEquals(1, listener.getOgnlCacheMissCount());
+        assertEquals(1, listener.getOgnlCacheHitCount());
+        assertNull(listener.getStatement(null));
+    }
+
+    @Test
+    void testMapperStatementId() {
+        InMemoryMetricsListener listener = new InMemoryMetricsListener();
+        SqlBatis.setMetricsListener(listener);
+        try {
+            new MapperRegistry().addMapper("<mapper namespace=\"user\"><select id=\"find\">" +
+                    "select * from user where id = #{id}</select></mapper>")
+                    .parseForSql("user.find", Collections.singletonMap("id", 1));
+        } finally {
+            SqlBatis.setMetricsListener(SqlMetricsListener.NOOP);
+        }
+        // 编译和渲染使用同一个 id
+        InMemoryMetricsListener.StatementMetrics metrics = listener.getStatement("user.find");
+        assertEquals(1, metrics.getCompileCount());
+        assertEquals(1, metrics.getRenderCount());
+        assertNull(listener.getStatement("find"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.sqlbatis.reflection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for Reflector
+ *
+ * @author Laba Zhang
+ */
+class ReflectorTest {
+
+    public static class User {
+        public String nickname = "labazhang";
+        private final int age;
+        private final boolean active;
+
+        public User(int age, boolean active) {
+            this.age = age;
+            this.active = active;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public String getFail() {
+            throw new IllegalStateException("fail");
+        }
+
+        private String getSecret() {
+            return "secret";
+        }
+    }
+
+    @Test
+    void testGetter() {
+        Reflector reflector = Reflector.forClass(User.class);
+        assertSame(reflector, Reflector.forClass(User.class));
+        User user = new User(18, true);
+        assertEquals(18, reflector.getGetter("age").getValue(user));
+        assertEquals(true, reflector.getGetter("active").getValue(user));
+        assertEquals("labazhang", reflector.getGetter("nickname").getValue(user));
+        assertSame(reflector.getGetter("age"), reflector.getGetter("age"));
+        // getter 方法使用 LambdaMetafactory 生成的访问器
+        assertFalse(reflector.getGetter("age").getClass().getName().endsWith("MethodHandleGetter"));
+        assertFalse(reflector.hasGetter("secret"));
+        assertFalse(reflector.hasGetter("missing"));
+        assertThrows(IllegalStateException.class, () -> reflector.getGetter("fail").getValue(user));
+    }
+
+    @Test
+    void testNonPublicClass() {
+        // Collections$SingletonList 不是 public 类，通过 public 接口中的方法访问
+        List<String> list = Collections.singletonList("a");
+        assertEquals(false, Reflector.forClass(list.getClass()).getGetter("empty").getValue(list));
+    }
+
+    @Test
+    void testPackagePrivateClass() {
+        // 包内可见的类的 public getter 和字段，没有 public 的父类或接口
+        Reflector reflector = Reflector.forClass(Hidden.class);
+        Hidden hidden = new Hidden();
+        assertEquals("zhang", reflector.getGetter("name").getValue(hidden));
+        assertEquals(7, reflector.getGetter("level").getValue(hidden));
+        assertFalse(reflector.hasGetter("missing"));
+    }
+}
+
+class Hidden {
+    public int level = 7;
+
+    public String getName() {
+        return "zhang";
+    }
+}
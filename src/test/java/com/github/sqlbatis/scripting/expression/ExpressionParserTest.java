@@ -0,0 +1,204 @@
+package com.github.sqlbatis.scripting.expression;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlResult;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.scripting.xmltags.DynamicContext;
+import com.github.sqlbatis.scripting.xmltags.OgnlCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for ExpressionParser
+ *
+ * @author Laba Zhang
+ */
+class ExpressionParserTest {
+
+    private static final String[] EXPRESSIONS = {
+            "name != null and name != ''",
+            "name != null && name.trim().length() > 0",
+            "age >= 18 or status == 0",
+            "age gt 10 and age lte 18",
+            "!(age < 18)",
+            "not empty.isEmpty()",
+            "ids != null and ids.size() > 2",
+            "ids.size == 3",
+            "ids[1] + 1",
+            "array.length",
+            "array[0] * 2 - 1",
+            "price > 9",
+            "price == 9.9",
+            "flag == 'Y'",
+            "blank == 0",
+            "status == '1'",
+            "status == 'a'",
+            "missing == null",
+            "missing < 1",
+            "'%' + name.trim() + '%'",
+            "age + 1L",
+            "age / 4",
+            "age % 4",
+            "age * 1.5",
+            "-age",
+            "status == 1 ? 'on' : 'off'",
+            "nested.key",
+            "nested['key']",
+            "_parameter.age",
+            "status and age",
+            "missing or 'default'",
+    };
+
+    private Map<String, Object> bindings;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "  labazhang ");
+        parameter.put("age", 18);
+        parameter.put("ids", new ArrayList<>(Arrays.asList(1, 2, 3)));
+        parameter.put("empty", new ArrayList<>());
+        parameter.put("immutable", Collections.emptyList());
+        parameter.put("array", new int[]{4, 5});
+        parameter.put("price", new BigDecimal("9.90"));
+        parameter.put("flag", 'Y');
+        parameter.put("blank", "");
+        parameter.put("nested", Collections.singletonMap("key", "value"));
+        bindings = new DynamicContext(parameter).getBindings();
+        bindings.put("status", 1);
+    }
+
+    @Test
+    void testSameResultAsOgnl() {
+        for (String expression : EXPRESSIONS) {
+            Expression compiled = ExpressionParser.parse(expression);
+            assertTrue(compiled instanceof CompiledExpression, expression);
+            assertEquals(OgnlCache.getValue(expression, bindings), compiled.getValue(bindings), expression);
+        }
+    }
+
+    @Test
+    void testCompiledSameResultAsInterpreted() {
+        String[] properties = {"nested.key", "missing.name", "ids[0]", "missing[0]", "name.trim()", "missing.trim()"};
+        Object[] expected = new Object[EXPRESSIONS.length + properties.length];
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            expected[i] = ExpressionParser.parse(EXPRESSIONS[i]).getValue(bindings);
+        }
+        for (int i = 0; i < properties.length; i++) {
+            expected[EXPRESSIONS.length + i] = ExpressionParser.parseProperty(properties[i]).getValue(bindings);
+        }
+        OgnlCache.setCompileThreshold(1);
+        try {
+            long compiled = ExpressionParser.getCompiledCount();
+            long failures = ExpressionParser.getCompileFailureCount();
+            for (int i = 0; i < EXPRESSIONS.length; i++) {
+                assertEquals(expected[i], ExpressionParser.parse(EXPRESSIONS[i]).getValue(bindings), EXPRESSIONS[i]);
+            }
+            for (int i = 0; i < properties.length; i++) {
+                assertEquals(expected[EXPRESSIONS.length + i], ExpressionParser.parseProperty(properties[i]).getValue(bindings), properties[i]);
+            }
+            assertEquals(compiled + expected.length, ExpressionParser.getCompiledCount());
+            assertEquals(failures, ExpressionParser.getCompileFailureCount());
+            // 编译后的代码抛出与解释执行相同的异常
+            Expression error = ExpressionParser.parse("missing.name");
+            BuilderException e = assertThrows(BuilderException.class, () -> error.getValue(bindings));
+            assertTrue(e.getMessage().startsWith("Error evaluating expression 'missing.name'"));
+        } finally {
+            OgnlCache.setCompileThreshold(0);
+        }
+    }
+
+    @Test
+    void testTieredCompilation() {
+        SqlTemplate template = SqlBatis.compile("<select>select * from user <where>" +
+                "<if test=\"name != null and name.trim().length() > 0\">and name = #{name} </if>" +
+                "<if test=\"age >= 18 ? true : false\">and age = #{age} </if>" +
+                "<if test=\"counter.incrementAndGet() % 2 == 0\">and even = #{user.id}</if>" +
+                "</where></select>");
+        AtomicInteger counter = new AtomicInteger();
+        Map<String, Object> params = new HashMap<>();
+        params.put("counter", counter);
+        OgnlCache.setCompileThreshold(2);
+        try {
+            long compiled = ExpressionParser.getCompiledCount();
+            for (int i = 0; i < 4; i++) {
+                params.put("name", i % 2 == 0 ? "zhang" : " ");
+                params.put("age", 17 + i);
+                params.put("user", i == 3 ? null : Collections.singletonMap("id", i));
+                SqlResult result = template.render(params);
+                switch (i) {
+                    case 0:
+                        assertEquals("select * from user WHERE name = ?", result.getFormatSql());
+                        break;
+                    case 1:
+                        assertEquals("select * from user WHERE age = ? and even = ?", result.getFormatSql());
+                        assertEquals(Arrays.asList(18, 1), new ArrayList<>(result.getParams().values()));
+                        break;
+                    case 2:
+                        assertEquals("select * from user WHERE name = ? and age = ?", result.getFormatSql());
+                        break;
+                    default:
+                        // user 为 null 时 #{user.id} 为 null
+                        assertEquals("select * from user WHERE age = ? and even = ?", result.getFormatSql());
+                        assertEquals(Arrays.asList(20, null), new ArrayList<>(result.getParams().values()));
+                }
+            }
+            // 三个 test 和三个 #{} 都在第二次求值时编译，#{user.id} 的第二次求值在第四次渲染
+            assertEquals(compiled + 6, ExpressionParser.getCompiledCount());
+            // 编译后的方法调用每次渲染只执行一次
+            assertEquals(4, counter.get());
+        } finally {
+            OgnlCache.setCompileThreshold(0);
+        }
+    }
+
+    @Test
+    void testFallbackToOgnl() {
+        String[] expressions = {
+                "ids.{? #this > 1}.size()",
+                "@java.lang.Math@max(age, 20)",
+                "age in {18, 19}",
+                "status = 2",
+                "age & 1",
+                "'a',  'b'",
+        };
+        for (String expression : expressions) {
+            Expression compiled = ExpressionParser.parse(expression);
+            assertTrue(compiled instanceof OgnlExpression, expression);
+            assertEquals(expression, compiled.getExpression());
+        }
+        assertEquals(20, ExpressionParser.parse("@java.lang.Math@max(age, 20)").getValue(bindings));
+    }
+
+    @Test
+    void testCharacterAndString() {
+        // OGNL 比较字符和多字符字符串时抛出 NumberFormatException ，内置引擎按字符串比较
+        assertEquals(true, ExpressionParser.parse("flag == \"Y\"").getValue(bindings));
+        assertEquals(false, ExpressionParser.parse("flag == 'YES'").getValue(bindings));
+    }
+
+    @Test
+    void testNonPublicClass() {
+        // 非 public 类的方法通过其 public 接口调用
+        assertEquals(true, ExpressionParser.parse("immutable.isEmpty()").getValue(bindings));
+        assertEquals(0, ExpressionParser.parse("immutable.size()").getValue(bindings));
+    }
+
+    @Test
+    void testError() {
+        Expression expression = ExpressionParser.parse("missing.name");
+        BuilderException e = assertThrows(BuilderException.class, () -> expression.getValue(bindings));
+        assertTrue(e.getMessage().startsWith("Error evaluating expression 'missing.name'"));
+    }
+}
@@ -0,0 +1,290 @@
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlResult;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.builder.BuilderException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for DynamicSqlSource
+ *
+ * @author Laba Zhang
+ */
+class DynamicSqlSourceTest {
+
+    private static final String XML = "<select id=\"findUser\">select * from ${table}" +
+            "<where>" +
+            "<if test=\"name != null\">AND name = #{name} </if>" +
+            "<if test=\"ids != null\">AND id in " +
+            "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            "</if>" +
+            "</where></select>";
+
+    @Test
+    void testSameShape() {
+        SqlTemplate template = SqlBatis.compile(XML);
+        DynamicSqlSource sqlSource = (DynamicSqlSource) template.getSqlSource();
+
+        SqlResult first = template.render(params("user", "zhang", 1, 2));
+        SqlResult second = template.render(params("user", "li", 3, 4));
+        assertEquals(1, sqlSource.getShapeCacheSize());
+        assertEquals("select * from user WHERE name = ? AND id in (?,?)", second.getFormatSql());
+        assertEquals(first.getSql(), second.getSql());
+        assertEquals("li", second.getParams().get(1));
+        assertEquals(3, second.getParams().get(2));
+        assertEquals(4, second.getParams().get(3));
+    }
+
+    @Test
+    void testDifferentShape() {
+        SqlTemplate template = SqlBatis.compile(XML);
+        DynamicSqlSource sqlSource = (DynamicSqlSource) template.getSqlSource();
+
+        assertEquals("select * from user WHERE name = ? AND id in (?,?)", template.render(params("user", "zhang", 1, 2)).getFormatSql());
+        assertEquals("select * from user WHERE id in (?,?,?)", template.render(params("user", null, 1, 2, 3)).getFormatSql());
+        assertEquals("select * from user_bak WHERE name = ?", template.render(params("user_bak", "zhang")).getFormatSql());
+        assertEquals(3, sqlSource.getShapeCacheSize());
+    }
+
+    @Test
+    void testBindEvaluatedOnce() {
+        SqlTemplate template = SqlBatis.compile("<select>" +
+                "<bind name=\"pattern\" value=\"'%' + name + '%'\"/>" +
+                "<bind name=\"count\" value=\"count + 1\"/>" +
+                "select * from user where name like #{pattern} and count = #{count}</select>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "zhang");
+        params.put("count", 0);
+        SqlResult result = template.render(params);
+        assertEquals("%zhang%", result.getParams().get(1));
+        assertEquals(1, result.getParams().get(2));
+        // 绑定的变量不会写入调用方的参数
+        assertEquals(0, params.get("count"));
+        assertFalse(params.containsKey("pattern"));
+    }
+
+    @Test
+    void testParameterNotMutated() {
+        SqlTemplate template = SqlBatis.compile("<select>" +
+                "<bind name=\"pattern\" value=\"'%' + name + '%'\"/>" +
+                "select * from user where name like #{pattern} and id in " +
+                "<foreach collection=\"ids\" item=\"id\" index=\"i\" open=\"(\" separator=\",\" close=\")\">" +
+                "<if test=\"i >= 0\">#{id}</if></foreach></select>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "zhang");
+        params.put("ids", Arrays.asList(1, 2));
+        SqlResult result = template.render(Collections.unmodifiableMap(params));
+        assertEquals("select * from user where name like ? and id in ( ? , ? )", result.getFormatSql());
+        assertEquals("%zhang%", result.getParams().get(1));
+        assertEquals(2, result.getParams().get(3));
+        assertEquals(2, params.size());
+    }
+
+    @Test
+    void testPooledContextReuse() {
+        SqlTemplate template = SqlBatis.compile(XML);
+        SqlResult first = template.render(params("user", "zhang", 1, 2, 3));
+        SqlResult second = template.render(params("user", null, 4));
+        // 池中的 DynamicContext 复用后，之前返回的结果不受影响
+        assertEquals("select * from user WHERE name = ? AND id in (?,?,?)", first.getFormatSql());
+        assertEquals(3, first.getParams().get(4));
+        assertEquals("select * from user WHERE id in (?)", second.getFormatSql());
+        assertEquals(4, second.getParams().get(1));
+        assertEquals(1, second.getParams().size());
+    }
+
+    @Test
+    void testMaxShapes() {
+        DynamicSqlSource sqlSource = new DynamicSqlSource(new TextSqlNode("select * from ${table} where name = #{name}"), 1);
+        sqlSource.getBoundSql(params("user", "zhang"));
+        assertEquals("select * from user_bak where name = ?", sqlSource.getBoundSql(params("user_bak", "zhang")).getSql());
+        assertEquals(1, sqlSource.getShapeCacheSize());
+    }
+
+    @Test
+    void testParameterOrder() {
+        SqlTemplate template = SqlBatis.compile("<update>update user " +
+                "<trim prefix=\"set version = #{version},\" suffixOverrides=\",\" suffix=\"where id = #{id}\">" +
+                "<if test=\"name != null\">name = #{name},</if>" +
+                "</trim></update>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("version", 2);
+        params.put("name", "zhang");
+        params.put("id", 1);
+        SqlResult result = template.render(params);
+        assertEquals("update user set version = ?, name = ? where id = ?", result.getFormatSql());
+        assertEquals(2, result.getParams().get(1));
+        assertEquals("zhang", result.getParams().get(2));
+        assertEquals(1, result.getParams().get(3));
+    }
+
+    @Test
+    void testForEachItemProperty() {
+        SqlTemplate template = SqlBatis.compile("<insert>insert into user (id, name) values " +
+                "<foreach collection=\"users\" item=\"user\" index=\"i\" separator=\",\">(#{i}, #{user.name})</foreach>" +
+                "</insert>");
+        Map<String, Object> zhang = new HashMap<>();
+        zhang.put("name", "zhang");
+        Map<String, Object> params = new HashMap<>();
+        params.put("users", Arrays.asList(zhang, new HashMap<>()));
+        SqlResult result = template.render(params);
+        assertEquals("insert into user (id, name) values (?, ?) , (?, ?)", result.getFormatSql());
+        assertEquals(0, result.getParams().get(1));
+        assertEquals("zhang", result.getParams().get(2));
+        assertEquals(1, result.getParams().get(3));
+        assertNull(result.getParams().get(4));
+    }
+
+    @Test
+    void testParameterAcrossToken() {
+        SqlTemplate template = SqlBatis.compile("<select>select * from user where name = #{${column}}</select>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("column", "nickName");
+        params.put("nickName", "zhang");
+        SqlResult result = template.render(params);
+        assertEquals("select * from user where name = ?", result.getSql());
+        assertEquals("zhang", result.getParams().get(1));
+    }
+
+    @Test
+    void testVariableSlots() {
+        SqlTemplate template = SqlBatis.compile("<select><bind name=\"pattern\" value=\"'%' + name + '%'\"/>" +
+                "select * from user where name like #{pattern}<if test=\"ids != null\"> and id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></if></select>");
+        // 表达式和 #{} 引用的变量在编译时分配位置，包括从参数对象中获得的变量
+        BindingLayout layout = ((DynamicSqlSource) template.getSqlSource()).getLayout();
+        for (String name : Arrays.asList("pattern", "name", "ids", "id")) {
+            assertTrue(layout.indexOf(name) >= 0, name);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("name", "zhang");
+        assertEquals(Collections.singletonList("%zhang%"), template.render(params).getParameters());
+        params.put("ids", Arrays.asList(1, 2));
+        SqlResult result = template.render(params);
+        assertEquals("select * from user where name like ? and id in ( ? , ? )", result.getFormatSql());
+        assertEquals(Arrays.asList("%zhang%", 1, 2), result.getParameters());
+        // 其他变量表的 DynamicContext 中按变量名获得
+        DynamicContext context = new DynamicContext(params);
+        context.bind("id", 3);
+        ((DynamicSqlSource) template.getSqlSource()).getRootSqlNode().apply(context);
+        assertEquals(Arrays.asList("%zhang%", 1, 2), context.getParameterValues());
+    }
+
+    @Test
+    void testParameterInTextValue() {
+        SqlTemplate template = SqlBatis.compile("<select>select * from user where ${cond}</select>");
+        Map<String, Object> params = new HashMap<>();
+        params.put("cond", "id = #{id}");
+        params.put("id", 5);
+        // 第二次渲染使用缓存的形状回放
+        for (int i = 0; i < 2; i++) {
+            SqlResult result = template.render(params);
+            assertEquals("select * from user where id = ?", result.getSql());
+            assertEquals(Collections.singletonMap(1, 5), result.getParams());
+        }
+    }
+
+    @Test
+    void testParameterBeforeBind() {
+        assertThrows(BuilderException.class, () -> SqlBatis.compile("<select>select * from user where name like #{pattern}" +
+                "<bind name=\"pattern\" value=\"'%' + name + '%'\"/></select>"));
+        assertThrows(BuilderException.class, () -> SqlBatis.compile("<select>select * from user" +
+                "<if test=\"name != null\"> where name like #{pattern.value} ${order}</if>" +
+                "<bind name=\"pattern\" value=\"name\"/></select>"));
+        // 循环变量、已经声明的变量可以再次声明
+        SqlResult result = SqlBatis.parseForSql("<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+                "<bind name=\"id\" value=\"ids[0]\"/> and id = #{id}" +
+                "<bind name=\"id\" value=\"ids[1]\"/> and id = #{id}</select>",
+                Collections.singletonMap("ids", Arrays.asList(1, 2)));
+        assertEquals(Arrays.asList(1, 2, 1, 2), result.getParameters());
+    }
+
+    private static Map<String, Object> params(String table, String name, Integer... ids) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("table", table);
+        params.put("name", name);
+        if (ids.length > 0) {
+            params.put("ids", new ArrayList<>(Arrays.asList(ids)));
+        }
+        return params;
+    }
+
+    public static class Address {
+        private final String city;
+
+        Address(String city) {
+            this.city = city;
+        }
+
+        public String getCity() {
+            return city;
+        }
+    }
+
+    public static class User {
+        private final String name;
+        private final Address address;
+
+        User(String name, Address address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+    }
+
+    @Test
+    void testBeanParameter() {
+        SqlTemplate template = SqlBatis.compile("<select>select * from user " +
+                "<where>" +
+                "<if test=\"name != null\"> and name = #{name} </if>" +
+                "<if test=\"address != null and address.city != null\"> and city = #{address.city} </if>" +
+                "</where></select>");
+        SqlResult result = template.render(new User("zhang", new Address("hz")));
+        assertEquals("select * from user WHERE name = ? and city = ?", result.getFormatSql());
+        assertEquals(Arrays.asList("zhang", "hz"), result.getParameters());
+        result = SqlBatis.parseForSql("<select>select * from user where city = #{address.city}</select>", new User("li", null));
+        assertEquals(Collections.singletonList(null), result.getParameters());
+        // 包内可见的类的 public getter
+        result = SqlBatis.parseForSql("<select>select * from user where name = #{name}" +
+                "<if test=\"name != null\"> and 1 = 1</if></select>", new HiddenUser());
+        assertEquals(Collections.singletonList("li"), result.getParameters());
+    }
+
+    @Test
+    void testParameterPolicy() {
+        // 静态和动态 SQL 、#{} 和表达式使用相同的规则：简单类型的参数是任何变量的值，JavaBean 没有的属性抛出异常
+        String raw = "<select>select * from user where id = #{id}</select>";
+        String dynamic = "<select>select * from user where id = #{id}<if test=\"id > 1\"> and 1 = 1</if></select>";
+        for (String xml : Arrays.asList(raw, dynamic)) {
+            assertEquals(Collections.singletonList(5), SqlBatis.parseForSql(xml, 5).getParameters());
+            assertThrows(BuilderException.class, () -> SqlBatis.parseForSql(xml, new User("zhang", null)));
+            assertEquals(Collections.singletonList(null), SqlBatis.parseForSql(xml, new HashMap<>()).getParameters());
+        }
+        assertEquals("select * from user where id = ? and 1 = 1", SqlBatis.parseForSql(dynamic, 5).getFormatSql());
+        assertThrows(BuilderException.class, () -> SqlBatis.parseForSql("<select>select * from user" +
+                "<if test=\"missing != null\"> where 1 = 1</if></select>", new User("zhang", null)));
+    }
+
+    static class HiddenUser {
+        public String getName() {
+            return "li";
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.MapperRegistry;
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlResult;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.builder.BuilderException;
+import com.github.sqlbatis.builder.XMLStreamMapperBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for ForEachSqlNode
+ *
+ * @author Laba Zhang
+ */
+class ForEachSqlNodeTest {
+
+    private static final String BODY = " (#{i}, #{user.name}, #{tenant}) ";
+
+    private static Map<String, Object> params() {
+        Map<String, Object> users = new LinkedHashMap<>();
+        users.put("a", Collections.singletonMap("name", "zhang"));
+        users.put("b", Collections.singletonMap("name", null));
+        Map<String, Object> params = new HashMap<>();
+        params.put("list", Arrays.asList(Collections.singletonMap("name", "zhang"), null));
+        params.put("map", users);
+        params.put("tenant", 7);
+        return params;
+    }
+
+    private static DynamicContext apply(SqlNode body, String collection) {
+        DynamicContext context = new DynamicContext(params());
+        new ForEachSqlNode(body, collection, "i", "user", "values", ";", ",").apply(context);
+        return context;
+    }
+
+    @Test
+    void testSimpleBodySameAsGeneral() {
+        SqlNode simple = new MixedSqlNode(Arrays.asList(new StaticTextSqlNode(" "), new StaticTextSqlNode(BODY)));
+        // if 使循环体不再是静态文本，走通用的处理
+        SqlNode general = new MixedSqlNode(Arrays.asList(new StaticTextSqlNode(" "), new IfSqlNode(new StaticTextSqlNode(BODY), "true")));
+        for (String collection : Arrays.asList("list", "map")) {
+            DynamicContext expected = apply(general, collection);
+            DynamicContext actual = apply(simple, collection);
+            assertEquals(expected.getSql(), actual.getSql());
+            assertEquals(expected.getParameterValues(), actual.getParameterValues());
+        }
+        assertEquals(Arrays.asList("a", "zhang", 7, "b", null, 7), apply(simple, "map").getParameterValues());
+        assertEquals(Arrays.asList(0, "zhang", 7, 1, null, 7), apply(simple, "list").getParameterValues());
+    }
+
+    @Test
+    void testSimpleBodyDoesNotBindItem() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", Arrays.asList(1, 2, 3));
+        SqlResult result = SqlBatis.compile("<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>")
+                .render(params);
+        assertEquals("select * from user where id in ( ? , ? , ? )", result.getFormatSql());
+        assertEquals(Arrays.asList(1, 2, 3), result.getParameters());
+        assertFalse(params.containsKey("id"));
+    }
+
+    @Test
+    void testEmptyCollection() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", Collections.emptyList());
+        SqlResult result = SqlBatis.compile("<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>")
+                .render(params);
+        assertEquals("select * from user where id in", result.getSql());
+        List<Object> values = result.getParameters();
+        assertTrue(values.isEmpty());
+    }
+
+    @Test
+    void testArrayAndMap() {
+        String xml = "<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" index=\"i\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>";
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", new int[]{1, 2});
+        assertEquals(Arrays.asList(1, 2), SqlBatis.compile(xml).render(params).getParameters());
+        params.put("ids", new String[]{"a", "b", "c"});
+        assertEquals(Arrays.asList("a", "b", "c"), SqlBatis.compile(xml).render(params).getParameters());
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("k1", Arrays.asList(1, 2));
+        map.put("k2", Arrays.asList(3));
+        params.put("ids", map);
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3)), SqlBatis.compile(xml).render(params).getParameters());
+    }
+
+    @Test
+    void testNestedForEach() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("rows", Arrays.asList(new long[]{1, 2}, new long[]{3}));
+        SqlResult result = SqlBatis.compile("<select>select * from t where " +
+                "<foreach collection=\"rows\" item=\"row\" separator=\"or\">" +
+                "<foreach collection=\"row\" item=\"id\" open=\"id in (\" separator=\",\" close=\")\">#{id}</foreach>" +
+                "</foreach></select>").render(params);
+        assertEquals("select * from t where id in ( ? , ? ) or id in ( ? )", result.getFormatSql());
+        assertEquals(Arrays.asList(1L, 2L, 3L), result.getParameters());
+    }
+
+    @Test
+    void testPadding() {
+        String xml = "<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\" padding=\"pow2\">#{id}</foreach></select>";
+        SqlTemplate template = SqlBatis.compile(xml);
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", Arrays.asList(1, 2, 3));
+        SqlResult result = template.render(params);
+        assertEquals("select * from user where id in ( ? , ? , ? , ? )", result.getFormatSql());
+        assertEquals(Arrays.asList(1, 2, 3, 3), result.getParameters());
+        params.put("ids", Arrays.asList(1, 2, 3, 4));
+        assertEquals(Arrays.asList(1, 2, 3, 4), template.render(params).getParameters());
+        // 循环体不是静态文本时结果一致
+        SqlResult general = SqlBatis.compile("<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\" padding=\"2,5\">" +
+                "<if test=\"id != null\">#{id}</if></foreach></select>").render(Collections.singletonMap("ids", Arrays.asList(1, 2, 3)));
+        assertEquals("select * from user where id in ( ? , ? , ? , ? , ? )", general.getFormatSql());
+        assertEquals(Arrays.asList(1, 2, 3, 3, 3), general.getParameters());
+    }
+
+    @Test
+    void testListPadding() {
+        assertEquals(1, ListPadding.POWERS_OF_TWO.pad(1));
+        assertEquals(8, ListPadding.POWERS_OF_TWO.pad(5));
+        assertEquals(0, ListPadding.POWERS_OF_TWO.pad(0));
+        ListPadding padding = ListPadding.parse("100, 10,50");
+        assertEquals(10, padding.pad(1));
+        assertEquals(50, padding.pad(11));
+        assertEquals(101, padding.pad(101));
+        assertNull(ListPadding.parse("none"));
+        assertThrows(BuilderException.class, () -> ListPadding.parse("0,a"));
+    }
+
+    @Test
+    void testGlobalPaddingAndChunks() {
+        String xml = "<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>";
+        SqlBatis.setListPadding(ListPadding.of(2, 4));
+        SqlTemplate template;
+        try {
+            template = SqlBatis.compile(xml);
+        } finally {
+            SqlBatis.setListPadding(null);
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("ids", new int[]{1, 2, 3, 4, 5, 6, 7});
+        List<SqlResult> results = template.render(params, "ids", 4);
+        assertEquals(2, results.size());
+        assertEquals(Arrays.asList(1, 2, 3, 4), results.get(0).getParameters());
+        assertEquals(Arrays.asList(5, 6, 7, 7), results.get(1).getParameters());
+        assertEquals(results.get(0).getSql(), results.get(1).getSql());
+        assertTrue(params.get("ids") instanceof int[]);
+        assertEquals(1, template.render(params, "ids", 10).size());
+        // 全局设置只影响之后编译的模板
+        assertEquals(7, SqlBatis.compile(xml).render(params).getParameters().size());
+    }
+
+    @Test
+    void testGlobalPaddingOnlyForInList() {
+        String mapper = "<mapper namespace=\"user\">" +
+                "<insert id=\"insertAll\">insert into user (id) values " +
+                "<foreach collection=\"ids\" item=\"id\" separator=\",\">(#{id})</foreach></insert>" +
+                "<insert id=\"insertRow\">insert into user (a, b, c) values " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></insert>" +
+                "<select id=\"findIn\">select * from user where id IN\n" +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>" +
+                "<select id=\"findOpen\">select * from user where " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"id in (\" separator=\",\" close=\")\">#{id}</foreach></select>" +
+                "</mapper>";
+        Map<String, Object> params = Collections.singletonMap("ids", Arrays.asList(1, 2, 3));
+        SqlBatis.setListPadding(ListPadding.POWERS_OF_TWO);
+        try {
+            List<MapperRegistry> registries = Arrays.asList(new MapperRegistry().addMapper(mapper),
+                    new MapperRegistry().addTemplates(new XMLStreamMapperBuilder(mapper).parse()));
+            for (MapperRegistry registry : registries) {
+                // 批量 INSERT 重复元素会插入重复的行，不使用全局的补齐规则
+                assertEquals(Arrays.asList(1, 2, 3), registry.getTemplate("user.insertAll").render(params).getParameters());
+                assertEquals(Arrays.asList(1, 2, 3), registry.getTemplate("user.insertRow").render(params).getParameters());
+                assertEquals(Arrays.asList(1, 2, 3, 3), registry.getTemplate("user.findIn").render(params).getParameters());
+                assertEquals(Arrays.asList(1, 2, 3, 3), registry.getTemplate("user.findOpen").render(params).getParameters());
+            }
+        } finally {
+            SqlBatis.setListPadding(null);
+        }
+    }
+}
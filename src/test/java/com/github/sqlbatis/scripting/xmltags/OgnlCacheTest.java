@@ -0,0 +1,206 @@
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.builder.BuilderException;
+import ognl.OgnlContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for OgnlCache
+ *
+ * @author Laba Zhang
+ */
+class OgnlCacheTest {
+
+    @AfterEach
+    void reset() {
+        OgnlCache.setMaxSize(OgnlCache.DEFAULT_MAX_SIZE);
+        OgnlCache.clear();
+    }
+
+    @Test
+    void testHitAndMiss() {
+        OgnlCache.clear();
+        long hits = OgnlCache.getHitCount();
+        long misses = OgnlCache.getMissCount();
+        assertEquals(3, OgnlCache.getValue("a + 1", Collections.singletonMap("a", 2)));
+        assertEquals(4, OgnlCache.getValue("a + 1", Collections.singletonMap("a", 3)));
+        assertEquals(misses + 1, OgnlCache.getMissCount());
+        assertEquals(hits + 1, OgnlCache.getHitCount());
+        assertEquals(1, OgnlCache.size());
+    }
+
+    @Test
+    void testBoundedAndFrequencyAware() {
+        OgnlCache.setMaxSize(4);
+        OgnlCache.clear();
+        long evictions = OgnlCache.getEvictionCount();
+        for (int i = 0; i < 100; i++) {
+            // 经常使用的表达式
+            OgnlCache.getValue("'hot'", null);
+            OgnlCache.getValue("'hot'", null);
+            OgnlCache.getValue("" + i, null);
+            assertTrue(OgnlCache.size() <= 4);
+        }
+        assertTrue(OgnlCache.getEvictionCount() > evictions);
+        long misses = OgnlCache.getMissCount();
+        OgnlCache.getValue("'hot'", null);
+        assertEquals(misses, OgnlCache.getMissCount());
+    }
+
+    @Test
+    void testClockHandKeepsPosition() {
+        OgnlCache.setMaxSize(16);
+        OgnlCache.clear();
+        for (int i = 0; i < 1000; i++) {
+            OgnlCache.getValue("'e' + " + i, null);
+        }
+        // 时钟指针在多次淘汰之间保持位置，未被再次访问的条目大致按插入顺序淘汰，与它在哈希表中的位置无关
+        for (int i = 0; i < 1000 - 64; i++) {
+            assertFalse(OgnlCache.contains("'e' + " + i), "'e' + " + i);
+        }
+        assertEquals(16, OgnlCache.size());
+    }
+
+    @Test
+    void testDisabled() {
+        OgnlCache.setMaxSize(0);
+        assertEquals(3, OgnlCache.getValue("1 + 2", null));
+        assertEquals(0, OgnlCache.size());
+    }
+
+    @Test
+    void testInvalidExpressionNotCached() {
+        assertThrows(BuilderException.class, () -> OgnlCache.getValue("a +", null));
+        assertEquals(0, OgnlCache.size());
+    }
+
+    @Test
+    void testSingleFlight() throws Exception {
+        OgnlCache.clear();
+        long misses = OgnlCache.getMissCount();
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return OgnlCache.getValue("'single' + 'flight'", null);
+                }));
+            }
+            start.countDown();
+            for (Future<Object> result : results) {
+                assertEquals("singleflight", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(misses + 1, OgnlCache.getMissCount());
+    }
+
+    @Test
+    void testContextReusedPerDynamicContext() {
+        DynamicContext.ContextMap bindings = (DynamicContext.ContextMap) new DynamicContext(Collections.singletonMap("a", 1)).getBindings();
+        OgnlContext ognlContext = bindings.getOgnlContext();
+        assertEquals(2, OgnlCache.getValue("#b = a + 1", bindings));
+        assertEquals(2, OgnlCache.getValue("#b", bindings));
+        assertSame(ognlContext, bindings.getOgnlContext());
+        // 归还或重置时清除 #变量
+        bindings.clear();
+        assertNull(OgnlCache.getValue("#b", bindings));
+        assertSame(ognlContext, bindings.getOgnlContext());
+    }
+
+    @Test
+    void testTieredCompilation() {
+        OgnlCache.setCompileThreshold(2);
+        try {
+            long compiled = OgnlCache.getCompiledCount();
+            long deoptimizations = OgnlCache.getDeoptimizationCount();
+            Map<String, Object> params = new HashMap<>();
+            params.put("name", "zhang");
+            params.put("age", 20);
+            DynamicContext.ContextMap bindings = (DynamicContext.ContextMap) new DynamicContext(params).getBindings();
+            String expression = "name == 'zhang' and age > 18";
+            for (int i = 0; i < 3; i++) {
+                assertEquals(true, OgnlCache.getValue(expression, bindings));
+            }
+            assertEquals(compiled + 1, OgnlCache.getCompiledCount());
+            // 变量值的类型与编译时不同时解释执行
+            params.put("age", 17L);
+            assertEquals(false, OgnlCache.getValue(expression, bindings));
+            params.put("name", null);
+            assertEquals(false, OgnlCache.getValue(expression, bindings));
+            // root 不是 ContextMap 时解释执行
+            Map<String, Object> plain = new HashMap<>();
+            plain.put("name", "zhang");
+            plain.put("age", 20);
+            assertEquals(true, OgnlCache.getValue(expression, plain));
+            assertEquals(deoptimizations, OgnlCache.getDeoptimizationCount());
+        } finally {
+            OgnlCache.setCompileThreshold(0);
+        }
+    }
+
+    @Test
+    void testCompileNeverRunsUserCode() {
+        OgnlCache.setCompileThreshold(2);
+        try {
+            long compiled = OgnlCache.getCompiledCount();
+            long failures = OgnlCache.getCompileFailureCount();
+            long deoptimizations = OgnlCache.getDeoptimizationCount();
+            AtomicInteger calls = new AtomicInteger();
+            Map<String, Object> params = new HashMap<>();
+            params.put("counter", calls);
+            Map<String, Object> bindings = new DynamicContext(params).getBindings();
+            // 方法调用不编译，每次求值只调用一次
+            for (int i = 1; i <= 3; i++) {
+                assertEquals(i, OgnlCache.getValue("counter.incrementAndGet()", bindings));
+            }
+            assertEquals(3, calls.get());
+            // 参数对象的属性需要调用 getter ，不编译
+            Map<String, Object> bean = new DynamicContext(new Counter()).getBindings();
+            for (int i = 1; i <= 3; i++) {
+                assertEquals(i, OgnlCache.getValue("next + 0", bean));
+            }
+            assertEquals(failures + 2, OgnlCache.getCompileFailureCount());
+            // 编译后的代码中的其它异常直接抛出，不回退
+            params.put("a", 1);
+            params.put("b", 1);
+            Map<String, Object> numbers = new DynamicContext(params).getBindings();
+            for (int i = 0; i < 3; i++) {
+                assertEquals(1, OgnlCache.getValue("a / b", numbers));
+            }
+            assertEquals(compiled + 1, OgnlCache.getCompiledCount());
+            params.put("b", 0);
+            assertThrows(ArithmeticException.class, () -> OgnlCache.getValue("a / b", numbers));
+            assertEquals(deoptimizations, OgnlCache.getDeoptimizationCount());
+        } finally {
+            OgnlCache.setCompileThreshold(0);
+        }
+    }
+
+    public static class Counter {
+        private int count;
+
+        public int getNext() {
+            return ++count;
+        }
+    }
+}
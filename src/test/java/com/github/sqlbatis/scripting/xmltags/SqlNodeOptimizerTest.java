@@ -0,0 +1,91 @@
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.formatting.SqlFormatter;
+import com.github.sqlbatis.mapping.BoundSql;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for SqlNodeOptimizer
+ *
+ * @author Laba Zhang
+ */
+class SqlNodeOptimizerTest {
+
+    private static SqlNode text(String text) {
+        return new StaticTextSqlNode(text);
+    }
+
+    private static SqlNode mixed(SqlNode... contents) {
+        return new MixedSqlNode(Arrays.asList(contents));
+    }
+
+    private static Map<String, Object> params(Object name) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", 1);
+        params.put("name", name);
+        params.put("ids", Arrays.asList(1, 2, 3));
+        params.put("table", "user");
+        return params;
+    }
+
+    private static void assertSameResult(SqlNode root) {
+        SqlNode optimized = SqlNodeOptimizer.optimize(root);
+        for (Object name : Arrays.asList("zhang", null)) {
+            BoundSql expected = new DynamicSqlSource(root).getBoundSql(params(name));
+            BoundSql actual = new DynamicSqlSource(optimized).getBoundSql(params(name));
+            assertEquals(expected.getSql(), actual.getSql());
+            assertEquals(expected.getParameters(), actual.getParameters());
+        }
+    }
+
+    @Test
+    void testSameResult() {
+        // 静态的 <where> 、相邻的静态文本
+        assertSameResult(mixed(text("select * from user"), text("\n"),
+                new WhereSqlNode(mixed(text("\n  "), text("AND id = #{id}"), text("\n"))),
+                new IfSqlNode(mixed(text(" AND name = #{name}")), "name != null"),
+                text(" order by id"), text("")));
+        // <trim> 内直接拼接，<foreach> 内的分隔符添加在第一个非空白的片段之前
+        assertSameResult(mixed(text("select * from user"),
+                new TrimSqlNode(mixed(text("\n"), text("and"), text(" id in"),
+                        new ForEachSqlNode(mixed(text("\n"), text("#{item}"), text(" "),
+                                new IfSqlNode(mixed(), "item > 1"), text(" + #{id}")), "ids", null, "item", "(", ")", ",")),
+                        "WHERE", "AND |OR ", null, null)));
+        // 内容不是静态文本的 <trim> 、<choose> 中内容为空的 <when>
+        assertSameResult(mixed(text("update ${table}"),
+                new SetSqlNode(mixed(text("name = #{name},"), text("\n"), new TextSqlNode("version = ${id},"))),
+                new ChooseSqlNode(Arrays.asList(new IfSqlNode(mixed(), "name != null"),
+                        new IfSqlNode(mixed(text("where"), text("id = #{id}")), "true")), mixed(text("where 1 = 0")))));
+    }
+
+    @Test
+    void testFoldStaticTrim() {
+        SqlNode root = mixed(text("select * from user"), text("\n"),
+                new WhereSqlNode(mixed(text("\n  "), text("AND id = #{id}"), text("\n"))),
+                new IfSqlNode(mixed(), "name != null"));
+        SqlNode optimized = SqlNodeOptimizer.optimize(root);
+        assertTrue(SqlNodeOptimizer.isStatic(optimized));
+        List<SqlNode> contents = ((MixedSqlNode) optimized).getContents();
+        assertEquals(1, contents.size());
+        // 与渲染时一致：片段之间使用空格分隔，<where> 删除 AND 及其后的空白字符后添加 WHERE
+        assertEquals("select * from user \n WHERE id = ?", ((StaticTextSqlNode) contents.get(0)).getParameterizedText().getSql());
+    }
+
+    @Test
+    void testStaticAfterOptimize() {
+        SqlTemplate template = SqlBatis.compile("<select>select * from user <where> AND id = #{id} </where></select>");
+        assertTrue(template.isStatic());
+        assertEquals("select * from user WHERE id = ?", SqlFormatter.format(template.getStaticSql()));
+        assertEquals(1, template.render(Collections.singletonMap("id", 1)).getParams().get(1));
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.SqlSource;
+import com.github.sqlbatis.scripting.defaults.RawSqlSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for SqlSourceCodec
+ *
+ * @author Laba Zhang
+ */
+class SqlSourceCodecTest {
+
+    private static final String XML = "<select>select ${columns} from user\n" +
+            "<bind name=\"pattern\" value=\"'%' + name + '%'\"/>\n" +
+            "<where>\n" +
+            "  <if test=\"name != null\">AND name like #{pattern}</if>\n" +
+            "  <choose>\n" +
+            "    <when test=\"state == 1\">AND state = #{state,jdbcType=INTEGER}</when>\n" +
+            "    <otherwise>AND state is null</otherwise>\n" +
+            "  </choose>\n" +
+            "  <if test=\"ids != null\">AND id in\n" +
+            "    <foreach collection=\"ids\" item=\"id\" index=\"i\" open=\"(\" separator=\",\" close=\")\" padding=\"4,8\">#{id}</foreach>\n" +
+            "  </if>\n" +
+            "</where>\n" +
+            "<trim prefix=\"order by\" suffixOverrides=\",\">${order},</trim></select>";
+
+    private static SqlSource roundTrip(SqlSource sqlSource) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SqlSourceCodec.write(sqlSource, new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SqlSource result = SqlSourceCodec.read(in);
+        assertEquals(0, in.available());
+        return result;
+    }
+
+    @Test
+    void testDynamic() throws IOException {
+        SqlSource expected = SqlBatis.compile(XML).getSqlSource();
+        SqlSource actual = roundTrip(expected);
+        assertTrue(actual instanceof DynamicSqlSource);
+        for (Object name : new Object[]{null, "zhang"}) {
+            for (Object state : new Object[]{null, 1}) {
+                for (Object ids : new Object[]{null, Arrays.asList(1, 2, 3)}) {
+                    Map<String, Object> params = new HashMap<>();
+                    params.put("columns", "id, name");
+                    params.put("order", "id");
+                    params.put("name", name);
+                    params.put("state", state);
+                    params.put("ids", ids);
+                    BoundSql expectedSql = expected.getBoundSql(params);
+                    BoundSql actualSql = actual.getBoundSql(params);
+                    assertEquals(expectedSql.getSql(), actualSql.getSql());
+                    assertEquals(expectedSql.getParameters(), actualSql.getParameters());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testVariantWrittenAsDynamic() throws IOException {
+        SqlSource dynamic = SqlBatis.compile("<select>select * from user<where>" +
+                "<if test=\"id != null\">id = #{id}</if></where></select>").getSqlSource();
+        SqlSource variant = VariantSqlSource.precompute(dynamic, 8);
+        assertTrue(variant instanceof VariantSqlSource);
+        SqlSource actual = roundTrip(variant);
+        assertTrue(actual instanceof DynamicSqlSource);
+        Map<String, Object> params = Collections.singletonMap("id", 1);
+        assertEquals(variant.getBoundSql(params).getSql(), actual.getBoundSql(params).getSql());
+        assertEquals(variant.getBoundSql(params).getParameters(), actual.getBoundSql(params).getParameters());
+    }
+
+    @Test
+    void testRaw() throws IOException {
+        SqlSource expected = SqlBatis.compile("<select>select * from user where id = #{id}</select>").getSqlSource();
+        SqlSource actual = roundTrip(expected);
+        assertTrue(actual instanceof RawSqlSource);
+        assertEquals(((RawSqlSource) expected).getSql(), ((RawSqlSource) actual).getSql());
+        assertEquals(Collections.singletonList(7), actual.getBoundSql(Collections.singletonMap("id", 7)).getParameters());
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.sqlbatis.scripting.xmltags;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlTemplate;
+import com.github.sqlbatis.mapping.BoundSql;
+import com.github.sqlbatis.mapping.SqlSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for VariantSqlSource
+ *
+ * @author Laba Zhang
+ */
+class VariantSqlSourceTest {
+
+    private static final String XML = "<select>select * from user\n" +
+            "<where>\n" +
+            "  <if test=\"id != null\">AND id = #{id}</if>\n" +
+            "  <if test=\"name != null\">AND name = #{name}\n" +
+            "    <if test=\"name == 'zhang'\">AND nick = #{name}</if>\n" +
+            "  </if>\n" +
+            "  <choose>\n" +
+            "    <when test=\"state == 1\">AND state = #{state}</when>\n" +
+            "    <when test=\"state != null\">AND state &lt; #{state}</when>\n" +
+            "    <otherwise>AND state is null</otherwise>\n" +
+            "  </choose>\n" +
+            "</where>\n" +
+            "order by id</select>";
+
+    private static SqlSource compile(String xml) {
+        return SqlBatis.compile(xml).getSqlSource();
+    }
+
+    @Test
+    void testSameAsDynamicSqlSource() {
+        SqlSource dynamic = compile(XML);
+        SqlSource variant = VariantSqlSource.precompute(dynamic, 8);
+        assertTrue(variant instanceof VariantSqlSource);
+        for (Object id : new Object[]{null, 1}) {
+            for (Object name : new Object[]{null, "zhang", "li"}) {
+                for (Object state : new Object[]{null, 1, 2}) {
+                    Map<String, Object> params = new HashMap<>();
+                    params.put("id", id);
+                    params.put("name", name);
+                    params.put("state", state);
+                    BoundSql expected = dynamic.getBoundSql(params);
+                    BoundSql actual = variant.getBoundSql(params);
+                    assertEquals(expected.getSql(), actual.getSql());
+                    assertEquals(expected.getParameters(), actual.getParameters());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testMemoryReport() {
+        VariantSqlSource variant = (VariantSqlSource) VariantSqlSource.precompute(compile(XML), 8);
+        assertEquals(5, variant.getConditionCount());
+        assertEquals(32, variant.getVariantCount());
+        // 外层不成立时内层的位不影响结果，只有 2 * 3 * 3 种不同的 SQL
+        assertEquals(18, variant.getDistinctVariantCount());
+        assertTrue(variant.getMemoryUsage() > 0);
+    }
+
+    @Test
+    void testNotPrecomputed() {
+        SqlSource dynamic = compile(XML);
+        assertSame(dynamic, VariantSqlSource.precompute(dynamic, 4));
+        assertSame(dynamic, VariantSqlSource.precompute(dynamic, 0));
+        SqlSource forEach = compile("<select>select * from user where id in " +
+                "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach></select>");
+        assertSame(forEach, VariantSqlSource.precompute(forEach, 8));
+    }
+
+    @Test
+    void testCompileWithMaxVariantConditions() {
+        SqlBatis.setMaxVariantConditions(8);
+        try {
+            SqlTemplate template = SqlBatis.compile(XML);
+            assertTrue(template.getSqlSource() instanceof VariantSqlSource);
+            Map<String, Object> params = new HashMap<>();
+            params.put("name", "li");
+            assertEquals("select * from user WHERE name = ? AND state is null order by id", template.render(params).getFormatSql());
+        } finally {
+            SqlBatis.setMaxVariantConditions(0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> SqlBatis.setMaxVariantConditions(VariantSqlSource.MAX_CONDITIONS + 1));
+    }
+}
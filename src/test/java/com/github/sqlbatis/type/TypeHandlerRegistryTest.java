@@ -0,0 +1,104 @@
+package com.github.sqlbatis.type;
+
+import com.github.sqlbatis.SqlBatis;
+import com.github.sqlbatis.SqlResult;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * test for TypeHandlerRegistry
+ *
+ * @author Laba Zhang
+ */
+class TypeHandlerRegistryTest {
+
+    /**
+     * 记录调用的 setXxx 方法，格式为 "setInt(1, 10)"
+     */
+    private static PreparedStatement recorder(List<String> calls) {
+        return (PreparedStatement) Proxy.newProxyInstance(TypeHandlerRegistryTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    calls.add(method.getName() + "(" + args[0] + ", " + args[1] + ")");
+                    return null;
+                });
+    }
+
+    @Test
+    void testSetterDispatch() throws Exception {
+        List<String> calls = new ArrayList<>();
+        Date date = new Date(0);
+        new TypeHandlerRegistry().setParameters(recorder(calls),
+                Arrays.asList(10, 20L, "a", new BigDecimal("1.5"), date, null, TimeUnit.SECONDS, LocalDate.of(2020, 1, 1)));
+        assertEquals(Arrays.asList(
+                "setInt(1, 10)",
+                "setLong(2, 20)",
+                "setString(3, a)",
+                "setBigDecimal(4, 1.5)",
+                "setTimestamp(5, " + new Timestamp(0) + ")",
+                "setNull(6, " + Types.NULL + ")",
+                "setString(7, SECONDS)",
+                "setObject(8, 2020-01-01)"), calls);
+    }
+
+    @Test
+    void testRegister() throws Exception {
+        TypeHandlerRegistry registry = new TypeHandlerRegistry();
+        List<String> calls = new ArrayList<>();
+        PreparedStatement ps = recorder(calls);
+        registry.setParameter(ps, 1, true);
+        // 覆盖默认的 TypeHandler ，并清除已缓存的查找结果
+        registry.register(Boolean.class, (statement, i, parameter) -> statement.setString(i, parameter ? "Y" : "N"));
+        registry.register(CharSequence.class, (statement, i, parameter) -> statement.setString(i, parameter.toString()));
+        registry.setJdbcTypeForNull(Types.VARCHAR);
+        registry.setParameters(ps, Arrays.asList(true, new StringBuilder("sb"), null));
+        assertEquals(Arrays.asList(
+                "setBoolean(1, true)",
+                "setString(1, Y)",
+                "setString(2, sb)",
+                "setNull(3, " + Types.VARCHAR + ")"), calls);
+    }
+
+    @Test
+    void testRegisterWhileResolving() throws Exception {
+        TypeHandler<CharSequence> handler = (statement, i, parameter) -> statement.setString(i, parameter.toString());
+        for (int round = 0; round < 200; round++) {
+            TypeHandlerRegistry registry = new TypeHandlerRegistry();
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    registry.getTypeHandler(StringBuilder.class);
+                }
+            });
+            reader.start();
+            registry.register(CharSequence.class, handler);
+            reader.join();
+            // 注册前开始的查找不会在缓存中留下旧的结果
+            assertSame(handler, registry.getTypeHandler(StringBuilder.class));
+        }
+    }
+
+    @Test
+    void testSqlResultBind() throws Exception {
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", 1);
+        params.put("name", "tom");
+        SqlResult sqlResult = SqlBatis.parseForSql("<select>select * from user where id = #{id} and name = #{name}</select>", params);
+        List<String> calls = new ArrayList<>();
+        sqlResult.bind(recorder(calls));
+        assertEquals(Arrays.asList("setInt(1, 1)", "setString(2, tom)"), calls);
+    }
+}